@@ -0,0 +1,246 @@
+package de.tum.in.wpds;
+
+/**
+ * Resource limits of a saturation run.
+ *
+ * <p>A budget is attached with {@link Sat#setBudget(Budget)} and is
+ * enforced inside the engines: a run that exhausts one of its limits
+ * stops, like a canceled run, and returns what was computed so far.
+ * {@link Sat#isComplete()} tells whether the result is complete,
+ * {@link #getExhausted()} which limit was hit, and the run can be
+ * continued with a fresh allowance by the <code>proceed</code> method
+ * of the engine. Every run, including a continued one, starts the budget
+ * again.
+ *
+ * <p>{@link PdsSat} checks the time limit at every transition and the
+ * other limits every 256 transitions. {@link DpnSat} checks all limits
+ * between work items, so that the work items left are unexplored and
+ * can be continued; a run may therefore overrun its budget by one work
+ * item. A hard deadline needs a {@link CancelMonitor} in addition.
+ * Memory is estimated with {@link Fa#estimateSize()}.
+ */
+public class Budget {
+
+	/**
+	 * The limited resources.
+	 */
+	public enum Resource {
+
+		/**
+		 * The wall-clock time.
+		 */
+		TIME,
+
+		/**
+		 * The number of aggregates processed by {@link DpnSat}.
+		 */
+		AGGREGATES,
+
+		/**
+		 * The number of transitions processed.
+		 */
+		TRANSITIONS,
+
+		/**
+		 * The estimated memory of the automata.
+		 */
+		MEMORY
+	}
+
+	/**
+	 * The number of calls to {@link #timeUp()} between two readings
+	 * of the clock, minus one.
+	 */
+	private static final int CLOCK_MASK = 0x3f;
+
+	private long timeLimit, aggregateLimit, transitionLimit, memoryLimit;
+
+	/**
+	 * The deadline from {@link System#nanoTime()}, if there is a time limit.
+	 */
+	private long deadline;
+
+	private long start;
+	private long aggregates, transitions, memory;
+	private int calls;
+
+	/**
+	 * The exhausted resource, or <code>null</code>.
+	 */
+	private Resource exhausted;
+
+	/**
+	 * Sets the wall-clock time of a run.
+	 *
+	 * @param millis the time in milliseconds, or zero for no limit.
+	 */
+	public void setTimeLimit(long millis) {
+		this.timeLimit = millis * 1000000L;
+	}
+
+	/**
+	 * Sets the number of aggregates a run of {@link DpnSat} may process.
+	 *
+	 * @param aggregates the number of aggregates, or zero for no limit.
+	 */
+	public void setAggregateLimit(long aggregates) {
+		this.aggregateLimit = aggregates;
+	}
+
+	/**
+	 * Sets the number of transitions a run may process.
+	 *
+	 * @param transitions the number of transitions, or zero for no limit.
+	 */
+	public void setTransitionLimit(long transitions) {
+		this.transitionLimit = transitions;
+	}
+
+	/**
+	 * Sets the estimated memory the automata of a run may use.
+	 * For {@link PdsSat}, this is the saturated automaton;
+	 * for {@link DpnSat}, the live aggregates as in
+	 * {@link SatStatistics#getPeakBytes()}.
+	 *
+	 * @param bytes the memory in bytes, or zero for no limit.
+	 */
+	public void setMemoryLimit(long bytes) {
+		this.memoryLimit = bytes;
+	}
+
+	/**
+	 * Returns <code>true</code> if the memory is limited,
+	 * so that the engines must estimate it.
+	 *
+	 * @return <code>true</code> if there is a memory limit.
+	 */
+	boolean limitsMemory() {
+		return memoryLimit > 0;
+	}
+
+	/**
+	 * Starts a run.
+	 */
+	void start() {
+		start = System.nanoTime();
+		deadline = start + timeLimit;
+		aggregates = transitions = memory = 0;
+		calls = 0;
+		exhausted = null;
+	}
+
+	/**
+	 * Counts a processed transition.
+	 */
+	void transition() {
+		transitions++;
+	}
+
+	/**
+	 * Counts a processed aggregate.
+	 */
+	void aggregate() {
+		aggregates++;
+	}
+
+	/**
+	 * Records the estimated memory in use.
+	 *
+	 * @param bytes the number of bytes.
+	 */
+	void memory(long bytes) {
+		memory = bytes;
+	}
+
+	/**
+	 * Returns <code>true</code> if the time is up. The clock is only
+	 * read every 64 calls, so the method can be called per transition.
+	 *
+	 * @return <code>true</code> if the time limit is exhausted.
+	 */
+	boolean timeUp() {
+		if (exhausted != null) return true;
+		if (timeLimit == 0 || (calls++ & CLOCK_MASK) != 0) return false;
+		if (System.nanoTime() - deadline < 0) return false;
+		exhausted = Resource.TIME;
+		return true;
+	}
+
+	/**
+	 * Returns <code>true</code> if a limit is exhausted.
+	 *
+	 * @return <code>true</code> if the run must stop.
+	 */
+	boolean check() {
+		if (exhausted != null) return true;
+		if (aggregateLimit > 0 && aggregates >= aggregateLimit)
+			exhausted = Resource.AGGREGATES;
+		else if (transitionLimit > 0 && transitions >= transitionLimit)
+			exhausted = Resource.TRANSITIONS;
+		else if (memoryLimit > 0 && memory >= memoryLimit)
+			exhausted = Resource.MEMORY;
+		else if (timeLimit > 0 && System.nanoTime() - deadline >= 0)
+			exhausted = Resource.TIME;
+		return exhausted != null;
+	}
+
+	/**
+	 * Returns <code>true</code> if the last run exhausted a limit.
+	 *
+	 * @return <code>true</code> if a limit is exhausted.
+	 */
+	public boolean isExhausted() {
+		return exhausted != null;
+	}
+
+	/**
+	 * Returns the limit exhausted by the last run.
+	 *
+	 * @return the resource, or <code>null</code> if none is exhausted.
+	 */
+	public Resource getExhausted() {
+		return exhausted;
+	}
+
+	/**
+	 * Returns the time used by the last run so far.
+	 *
+	 * @return the time in milliseconds.
+	 */
+	public long getElapsedMillis() {
+		return (System.nanoTime() - start) / 1000000L;
+	}
+
+	/**
+	 * Returns the number of aggregates processed by the last run.
+	 *
+	 * @return the number of aggregates.
+	 */
+	public long getAggregates() {
+		return aggregates;
+	}
+
+	/**
+	 * Returns the number of transitions processed by the last run.
+	 *
+	 * @return the number of transitions.
+	 */
+	public long getTransitions() {
+		return transitions;
+	}
+
+	/**
+	 * Returns the estimated memory last recorded.
+	 *
+	 * @return the number of bytes.
+	 */
+	public long getMemory() {
+		return memory;
+	}
+
+	public String toString() {
+		return String.format("time=%dms, aggregates=%d, transitions=%d, memory=%dB%s",
+				getElapsedMillis(), aggregates, transitions, memory,
+				(exhausted == null) ? "" : ", exhausted=" + exhausted.name().toLowerCase());
+	}
+}
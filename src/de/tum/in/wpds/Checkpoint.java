@@ -0,0 +1,633 @@
+package de.tum.in.wpds;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * A checkpoint file of a saturation procedure.
+ *
+ * <p>The file is a journal of segments. The engine appends records to
+ * the current segment, each under a key, and periodically commits the
+ * segment. Writing and forcing segments to disk is done by a background
+ * thread, so the saturation is not stalled by I/O. If the semiring is
+ * thread-safe, the records are also encoded by that thread.
+ * Each segment carries a checksum; a segment torn by a crash is ignored
+ * when resuming.
+ *
+ * <p>A record is live until the engine releases its key. Once the file
+ * holds more released bytes than live ones, the live records are copied
+ * into a new file, so that the file grows with the live state of the
+ * engine rather than with the length of the run.
+ *
+ * <p>What the records contain is up to the engine:
+ * {@link PdsSat} commits the transitions changed since the last segment
+ * and its workset, and {@link DpnSat} journals every work item when it
+ * is queued, and releases it once it has been explored, unless its
+ * aggregate is kept in the result.
+ * See {@link Sat#setCheckpoint(Checkpoint)}.
+ */
+public class Checkpoint {
+
+	/**
+	 * The magic number: "JWCP".
+	 */
+	private static final int MAGIC = 0x4a574350;
+
+	private static final int VERSION = 2;
+
+	private static final int HEADER = 12;
+
+	/**
+	 * The kinds of checkpoints.
+	 */
+	static final int PDS = 1;
+	static final int DPN = 2;
+
+	/**
+	 * The segment size over which records are committed
+	 * even if the interval has not elapsed.
+	 */
+	private static final int LIMIT = 1 << 22;
+
+	/**
+	 * The length of an entry that releases its key.
+	 */
+	private static final int RELEASE = -1;
+
+	/**
+	 * The file.
+	 */
+	private File file;
+
+	/**
+	 * The semiring codec.
+	 */
+	private SemiringCodec codec;
+
+	/**
+	 * The interval between commits in milliseconds.
+	 */
+	private long interval = 60000;
+
+	/**
+	 * The time of the next commit.
+	 */
+	private long next;
+
+	/**
+	 * The kind of the engine.
+	 */
+	private int kind;
+
+	/**
+	 * Determines whether records are encoded by the background writer.
+	 */
+	private boolean background;
+
+	/**
+	 * The background writer.
+	 */
+	private ExecutorService writer;
+
+	/**
+	 * The size of the current segment.
+	 */
+	private volatile int buffered;
+
+	/**
+	 * The first error, if any.
+	 */
+	private volatile IOException error;
+
+	/*
+	 * The following fields are only accessed by the background writer
+	 * once it is started.
+	 */
+
+	/**
+	 * The open file, or <code>null</code>.
+	 */
+	private RandomAccessFile raf;
+
+	/**
+	 * The end of the file.
+	 */
+	private long end;
+
+	/**
+	 * The entries of the current segment.
+	 */
+	private FaFile.Buffer segment = new FaFile.Buffer();
+
+	/**
+	 * The live entries in the order of the file, and by key.
+	 */
+	private LinkedHashSet<Entry> entries = new LinkedHashSet<Entry>();
+	private Map<Integer, List<Entry>> keys = new HashMap<Integer, List<Entry>>();
+
+	/**
+	 * The number of bytes of the live entries.
+	 */
+	private long live;
+
+	/**
+	 * A record, encoded when it is appended or later by
+	 * the background writer.
+	 */
+	interface Record {
+		void write(FaFile.Buffer out) throws IOException;
+	}
+
+	/**
+	 * A live entry in the file: a record framed by its key and length.
+	 */
+	private static class Entry {
+		int key;
+		long position;
+		int length;
+	}
+
+	/**
+	 * Creates a new checkpoint stored in <code>file</code>.
+	 *
+	 * @param file the file.
+	 * @param codec the semiring codec.
+	 */
+	public Checkpoint(File file, SemiringCodec codec) {
+		this.file = file;
+		this.codec = codec;
+	}
+
+	/**
+	 * Sets the interval between commits. The default is one minute.
+	 *
+	 * @param millis the interval in milliseconds.
+	 */
+	public void setInterval(long millis) {
+		this.interval = millis;
+	}
+
+	/**
+	 * Returns the file.
+	 *
+	 * @return the file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns <code>true</code> if the file contains a checkpoint.
+	 *
+	 * @return <code>true</code> if there is a checkpoint to resume from.
+	 */
+	public boolean exists() {
+		return file.length() > HEADER;
+	}
+
+	/**
+	 * Returns the first error that occurred while writing the checkpoint,
+	 * or <code>null</code>. Once an error occurred, nothing more is written,
+	 * but the saturation goes on.
+	 *
+	 * @return the error.
+	 */
+	public IOException getError() {
+		return error;
+	}
+
+	SemiringCodec getCodec() {
+		return codec;
+	}
+
+	/**
+	 * Starts a new checkpoint of the given kind. The new file replaces
+	 * the old one by renaming, so that automata mapped from the old file
+	 * stay valid.
+	 *
+	 * @param kind the kind of the engine.
+	 * @param background determines whether records are encoded by
+	 * 		the background writer, which requires a thread-safe semiring.
+	 */
+	void start(int kind, boolean background) {
+
+		error = null;
+		this.kind = kind;
+		this.background = background;
+		clear();
+		try {
+			create().close();
+			replace();
+			open(HEADER);
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Creates the temporary file with the header.
+	 */
+	private RandomAccessFile create() throws IOException {
+
+		RandomAccessFile f = new RandomAccessFile(new File(file.getPath() + ".tmp"), "rw");
+		f.setLength(0);
+		f.writeInt(MAGIC);
+		f.writeInt(VERSION);
+		f.writeInt(kind);
+		return f;
+	}
+
+	/**
+	 * Replaces the file with the temporary file.
+	 */
+	private void replace() throws IOException {
+
+		File tmp = new File(file.getPath() + ".tmp");
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file))
+				throw new IOException("Cannot create " + file);
+		}
+	}
+
+	/**
+	 * Opens the file for appending at <code>end</code>, discarding
+	 * anything after it.
+	 */
+	private void open(long end) throws IOException {
+
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(end);
+		this.end = end;
+		segment.reset();
+		buffered = 0;
+		writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "checkpoint-writer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		next = System.currentTimeMillis() + interval;
+	}
+
+	/**
+	 * Reads the live records of the committed segments of a checkpoint
+	 * of the given kind, in the order they were appended, and opens
+	 * the file for appending after the segments. The file is mapped
+	 * in chunks, so it may exceed 2 GB; the records returned are
+	 * backed by the mapping.
+	 *
+	 * @param kind the kind of the engine.
+	 * @param background determines whether records are encoded by
+	 * 		the background writer.
+	 * @return the records.
+	 * @throws IOException if the file is not a checkpoint of the kind.
+	 */
+	List<MappedFile> resume(int kind, boolean background) throws IOException {
+
+		error = null;
+		this.kind = kind;
+		this.background = background;
+		clear();
+		MappedFile in;
+		FileInputStream f = new FileInputStream(file);
+		try {
+			in = new MappedFile(f.getChannel());
+		} finally {
+			f.close();
+		}
+
+		if (in.size() < HEADER || in.getInt() != MAGIC
+				|| in.getInt() != VERSION || in.getInt() != kind)
+			throw new IOException("Not a checkpoint of this engine: " + file);
+
+		// Reads the segments up to the first torn one
+		long end = HEADER;
+		byte[] b = new byte[1 << 16];
+		CRC32 crc = new CRC32();
+		while (in.size() - end >= 4) {
+			int length = in.getInt(end);
+			long start = end + 4;
+			if (length < 0 || in.size() - start < length + 8L) break;
+			crc.reset();
+			for (long pos = start; pos < start + length; ) {
+				int n = (int) Math.min(b.length, start + length - pos);
+				in.get(pos, b, 0, n);
+				crc.update(b, 0, n);
+				pos += n;
+			}
+			if (in.getLong(start + length) != crc.getValue()) break;
+
+			// Applies the entries
+			for (long pos = start; pos < start + length; ) {
+				if (start + length - pos < 8)
+					throw new IOException("Corrupt checkpoint: " + file);
+				int key = in.getInt(pos);
+				int n = in.getInt(pos + 4);
+				if (n == RELEASE) {
+					remove(key);
+					pos += 8;
+					continue;
+				}
+				if (n < 0 || start + length - pos - 8 < n)
+					throw new IOException("Corrupt checkpoint: " + file);
+				add(key, pos, 8 + n);
+				pos += 8 + n;
+			}
+			end = start + length + 8;
+		}
+
+		List<MappedFile> records = new ArrayList<MappedFile>(entries.size());
+		for (Entry e : entries)
+			records.add(in.slice(e.position + 8, e.length - 8));
+		open(end);
+		return records;
+	}
+
+	/**
+	 * Appends the record <code>record</code> under the key <code>key</code>
+	 * to the current segment. If records are encoded in the background,
+	 * what the record encodes must not change until the future
+	 * returned is done.
+	 *
+	 * @param key the key.
+	 * @param record the record.
+	 * @return the future of the encoding, or <code>null</code>
+	 * 		if the record is encoded already or not at all.
+	 */
+	Future<?> append(final int key, final Record record) {
+
+		if (writer == null || error != null) return null;
+		if (background) {
+			return writer.submit(new Runnable() {
+				public void run() {
+					if (error != null) return;
+					try {
+						write(key, record);
+					} catch (IOException e) {
+						fail(e);
+					}
+				}
+			});
+		}
+
+		final FaFile.Buffer out = new FaFile.Buffer();
+		try {
+			record.write(out);
+		} catch (IOException e) {
+			fail(e);
+			return null;
+		}
+		writer.execute(new Runnable() {
+			public void run() {
+				if (error != null) return;
+				try {
+					write(key, new Record() {
+						public void write(FaFile.Buffer segment) throws IOException {
+							out.writeTo(segment);
+						}
+					});
+				} catch (IOException e) {
+					fail(e);
+				}
+			}
+		});
+		return null;
+	}
+
+	/**
+	 * Releases the records appended under the key <code>key</code>.
+	 *
+	 * @param key the key.
+	 */
+	void release(final int key) {
+
+		if (writer == null || error != null) return;
+		writer.execute(new Runnable() {
+			public void run() {
+				if (error != null) return;
+				try {
+					segment.writeInt(key);
+					segment.writeInt(RELEASE);
+				} catch (IOException e) {
+					fail(e);
+				}
+				remove(key);
+				buffered = segment.size();
+			}
+		});
+	}
+
+	/**
+	 * Writes the record <code>record</code> as an entry of
+	 * the current segment.
+	 */
+	private void write(int key, Record record) throws IOException {
+
+		int start = segment.size();
+		segment.writeInt(key);
+		segment.writeInt(0);
+		record.write(segment);
+		int length = segment.size() - start;
+		segment.patchInt(start + 4, length - 8);
+		add(key, end + 4 + start, length);
+		buffered = segment.size();
+	}
+
+	private void add(int key, long position, int length) {
+
+		Entry e = new Entry();
+		e.key = key;
+		e.position = position;
+		e.length = length;
+		entries.add(e);
+		List<Entry> list = keys.get(key);
+		if (list == null) {
+			list = new ArrayList<Entry>(1);
+			keys.put(key, list);
+		}
+		list.add(e);
+		live += length;
+	}
+
+	private void remove(int key) {
+
+		List<Entry> list = keys.remove(key);
+		if (list == null) return;
+		for (Entry e : list) {
+			entries.remove(e);
+			live -= e.length;
+		}
+	}
+
+	private void clear() {
+		entries.clear();
+		keys.clear();
+		live = 0;
+	}
+
+	/**
+	 * Returns <code>true</code> if the records should be committed.
+	 *
+	 * @return <code>true</code> if a commit is due.
+	 */
+	boolean due() {
+		return buffered > LIMIT || System.currentTimeMillis() >= next;
+	}
+
+	/**
+	 * Commits the records appended so far as a segment, and compacts
+	 * the file if it holds more released bytes than live ones.
+	 * This is done in the background.
+	 */
+	void commit() {
+
+		next = System.currentTimeMillis() + interval;
+		if (writer == null || error != null) return;
+		writer.execute(new Runnable() {
+			public void run() {
+				if (error != null || segment.size() == 0) return;
+				try {
+					end = write(raf.getChannel(), end, segment);
+					raf.getChannel().force(false);
+					segment.reset();
+					buffered = 0;
+					if (end - HEADER - live > live) compact();
+				} catch (IOException e) {
+					fail(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Writes <code>segment</code> at <code>pos</code> with its length
+	 * and checksum.
+	 *
+	 * @return the position after the segment.
+	 */
+	private static long write(FileChannel channel, long pos, FaFile.Buffer segment)
+			throws IOException {
+
+		byte[] b = segment.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(b);
+		ByteBuffer buf = ByteBuffer.allocate(b.length + 12);
+		buf.putInt(b.length);
+		buf.put(b);
+		buf.putLong(crc.getValue());
+		buf.flip();
+		while (buf.hasRemaining())
+			pos += channel.write(buf, pos);
+		return pos;
+	}
+
+	/**
+	 * Copies the live entries into a new file, which replaces the file.
+	 * Automata mapped from the old file stay valid.
+	 */
+	private void compact() throws IOException {
+
+		long pos = HEADER;
+		RandomAccessFile f = create();
+		try {
+			FileChannel from = raf.getChannel();
+			FileChannel to = f.getChannel();
+			for (Entry e : entries) {
+				if (segment.size() > LIMIT) {
+					pos = write(to, pos, segment);
+					segment.reset();
+				}
+				ByteBuffer buf = ByteBuffer.allocate(e.length);
+				while (buf.hasRemaining()) {
+					if (from.read(buf, e.position + buf.position()) < 0)
+						throw new EOFException("Truncated checkpoint: " + file);
+				}
+				e.position = pos + 4 + segment.size();
+				segment.write(buf.array());
+			}
+			if (segment.size() > 0) {
+				pos = write(to, pos, segment);
+				segment.reset();
+			}
+			to.force(false);
+		} finally {
+			f.close();
+		}
+		raf.close();
+		replace();
+		raf = new RandomAccessFile(file, "rw");
+		end = pos;
+	}
+
+	/**
+	 * Records the error <code>e</code> and stops writing.
+	 *
+	 * @param e the error.
+	 */
+	void fail(IOException e) {
+		if (error != null) return;
+		error = e;
+		Sat.logger.warning("Checkpointing failed: " + e);
+	}
+
+	/**
+	 * Commits the remaining records and waits until everything is written.
+	 */
+	void close() {
+
+		if (writer == null) return;
+		commit();
+		writer.shutdown();
+		try {
+			writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writer = null;
+		try {
+			raf.close();
+		} catch (IOException e) {
+			fail(e);
+		}
+		raf = null;
+	}
+
+	/**
+	 * Writes the string <code>s</code>.
+	 */
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes("UTF-8");
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+	 * The string is interned, since control locations are compared
+	 * by reference.
+	 */
+	static String readString(MappedFile in) throws IOException {
+		byte[] b = new byte[in.getInt()];
+		in.get(b);
+		return new String(b, "UTF-8").intern();
+	}
+}
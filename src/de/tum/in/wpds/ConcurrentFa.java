@@ -0,0 +1,180 @@
+package de.tum.in.wpds;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finite automaton that can be updated by concurrent threads,
+ * used by the parallel saturation of {@link PdsSat}.
+ *
+ * <p>The transitions and indexes are stored in concurrent hash maps.
+ * Adding a weight to a transition, i.e. combining it with the existing
+ * weight and accumulating the diff, is atomic per transition under
+ * a striped lock, as are {@link #resetDiff(Transition)} and
+ * {@link #takeDiff(Transition)}. Readers take no locks.
+ * A new transition is indexed before {@link #add(Semiring, Transition)}
+ * returns.
+ *
+ * <p>Replaced weights are not freed, as other threads may still read
+ * them; the semiring must be a {@link ThreadSafeSemiring} whose values
+ * are reclaimed by the garbage collector.
+ */
+public class ConcurrentFa extends Fa {
+
+	private final ConcurrentHashMap<Transition, Semiring> weights =
+			new ConcurrentHashMap<Transition, Semiring>();
+
+	private final ConcurrentHashMap<Transition, Semiring> pending =
+			new ConcurrentHashMap<Transition, Semiring>();
+
+	private final ConcurrentHashMap<String, Set<Transition>> heads =
+			new ConcurrentHashMap<String, Set<Transition>>();
+
+	private final ConcurrentHashMap<String, Set<Transition>> epsilons =
+			new ConcurrentHashMap<String, Set<Transition>>();
+
+	/**
+	 * The striped locks, a power of two.
+	 */
+	private final Object[] locks;
+
+	/**
+	 * Creates a new empty automaton for about 16 concurrent writers.
+	 */
+	public ConcurrentFa() {
+		this(16);
+	}
+
+	/**
+	 * Creates a new empty automaton for about <code>threads</code>
+	 * concurrent writers.
+	 *
+	 * @param threads the number of writers.
+	 */
+	public ConcurrentFa(int threads) {
+		int n = Integer.highestOneBit(Math.max(1, threads) * 4 - 1) << 1;
+		locks = new Object[n];
+		for (int i = 0; i < n; i++)
+			locks[i] = new Object();
+	}
+
+	/**
+	 * Returns the lock of the transition <code>t</code>.
+	 */
+	private Object lock(Transition t) {
+		int h = t.hashCode();
+		h ^= (h >>> 16);
+		return locks[h & (locks.length - 1)];
+	}
+
+	protected Fa create() {
+		return new ConcurrentFa(locks.length / 4);
+	}
+
+	boolean add(Semiring r, Transition t, SatStatistics stats) {
+
+		synchronized (lock(t)) {
+			boolean changed = false;
+			Semiring oldr = weights.get(t);
+			Semiring newr, newdiff;
+			if (oldr == null) {
+				newr = r;
+				newdiff = r.id();
+				changed = true;
+			} else {
+				Semiring olddiff = pending.get(t);
+				if (oldr.equals(r)) {
+					return false;
+				}
+				newr = r.combine(oldr);
+				newdiff = newr.diff(oldr);
+				if (stats != null) {
+					stats.combineCalls += (olddiff != null) ? 2 : 1;
+					stats.diffCalls++;
+				}
+				if (olddiff != null) {
+					Semiring s = newdiff.combine(olddiff);
+					olddiff.free();
+					newdiff.free();
+					newdiff = s;
+				}
+				changed = !newr.equals(oldr);
+			}
+
+			if (Trace.ENABLED)
+				Trace.record(!changed ? Trace.Event.IGNORE
+						: (oldr == null) ? Trace.Event.ADD : Trace.Event.CHANGE, t, null);
+			if (Sat.all())
+				Sat.log("\t\t%s: %s%n%n", t, newr.toRawString());
+			put(t, newr, newdiff);
+			return changed;
+		}
+	}
+
+	protected void put(Transition t, Semiring r, Semiring diff) {
+
+		weights.put(t, r);
+		if (diff == null) pending.remove(t);
+		else pending.put(t, diff);
+		index(heads, t.p, t);
+		if (t.a.equals(epsilon))
+			index(epsilons, t.q, t);
+	}
+
+	private static void index(ConcurrentHashMap<String, Set<Transition>> map,
+			String q, Transition t) {
+		Set<Transition> set = map.get(q);
+		if (set == null) {
+			set = Collections.newSetFromMap(new ConcurrentHashMap<Transition, Boolean>());
+			Set<Transition> old = map.putIfAbsent(q, set);
+			if (old != null) set = old;
+		}
+		set.add(t);
+	}
+
+	public int size() {
+		return weights.size();
+	}
+
+	public Semiring getWeight(Transition t) {
+		return weights.get(t);
+	}
+
+	public Semiring getDiff(Transition t) {
+		return pending.get(t);
+	}
+
+	public void resetDiff(Transition t) {
+		Semiring d;
+		synchronized (lock(t)) {
+			d = pending.remove(t);
+		}
+		if (d != null) d.free();
+	}
+
+	/**
+	 * Removes and returns the pending diff of the transition <code>t</code>,
+	 * so that the caller owns it. Diffs added later are pending again.
+	 *
+	 * @param t the transition.
+	 * @return the diff, or <code>null</code> if nothing is pending.
+	 */
+	Semiring takeDiff(Transition t) {
+		synchronized (lock(t)) {
+			return pending.remove(t);
+		}
+	}
+
+	public Set<Transition> getTransitions() {
+		return weights.keySet();
+	}
+
+	public Set<Transition> getTransitions(String q) {
+		return heads.get(q);
+	}
+
+	public Set<Transition> getEpsilonTransitionsTo(String q) {
+		return epsilons.get(q);
+	}
+}
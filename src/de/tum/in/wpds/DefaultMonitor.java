@@ -2,7 +2,7 @@ package de.tum.in.wpds;
 
 public class DefaultMonitor implements CancelMonitor {
 
-	private boolean canceled = false;
+	private volatile boolean canceled = false;
 	
 	public void setCanceled(boolean value) {
 		
@@ -10,6 +10,31 @@ import java.util.Set;
  */
 public class Dpn extends Pds {
 
+	/**
+	 * Creates a new empty dpn.
+	 */
+	public Dpn() {
+	}
+	
+	/**
+	 * Creates a frozen copy of <code>dpn</code>.
+	 * 
+	 * @param dpn the dpn.
+	 */
+	protected Dpn(Dpn dpn) {
+		super(dpn);
+	}
+	
+	/**
+	 * Returns an immutable copy of this dpn, or this dpn if it is frozen.
+	 * 
+	 * @return the frozen dpn.
+	 * @see Pds#freeze()
+	 */
+	public Dpn freeze() {
+		return isFrozen() ? this : new Dpn(this);
+	}
+
 	/**
 	 * Adds dynamic rule left -&gt; right |&rang; dynamic (d) to this pds.
 	 * 
@@ -25,11 +50,13 @@ public class Dpn extends Pds {
 	
 	/**
 	 * Returns the set of stack symbols of this pds.
+	 * The set of a frozen dpn is immutable.
 	 * 
 	 * @return the set of stack symbols.
 	 */
 	public Set<String> getStackSymbols() {
 		
+		if (isFrozen()) return super.getStackSymbols();
 		Set<String> symbols = super.getStackSymbols();
 		for (Rule rule : rules) {
 			
@@ -0,0 +1,101 @@
+package de.tum.in.wpds;
+
+/**
+ * A target query for {@link DpnSat}: whether the stack symbols
+ * <code>a</code> and <code>b</code> are simultaneously reachable
+ * at the top of two different threads.
+ *
+ * <p>A query can only be decided positively, by an aggregate where
+ * both symbols are reachable. A query that is not reachable stays
+ * undecided, so a run with such a query explores every aggregate
+ * within the bounds.
+ */
+public class DpnQuery {
+
+	/**
+	 * The first symbol.
+	 */
+	private String a;
+
+	/**
+	 * The second symbol.
+	 */
+	private String b;
+
+	/**
+	 * Determines whether the query has been answered positively.
+	 */
+	private boolean reachable = false;
+
+	/**
+	 * Creates a new query for the symbols <code>a</code> and <code>b</code>.
+	 *
+	 * @param a the first symbol.
+	 * @param b the second symbol.
+	 */
+	public DpnQuery(String a, String b) {
+		this.a = a;
+		this.b = b;
+	}
+
+	/**
+	 * Returns the first symbol.
+	 *
+	 * @return the first symbol.
+	 */
+	public String getFirst() {
+		return a;
+	}
+
+	/**
+	 * Returns the second symbol.
+	 *
+	 * @return the second symbol.
+	 */
+	public String getSecond() {
+		return b;
+	}
+
+	/**
+	 * Returns <code>true</code> if an aggregate where <code>a</code> and
+	 * <code>b</code> are reachable at the same time has been found.
+	 * <code>false</code> means that no such aggregate exists within 
+	 * the bounds only if the run completed, otherwise the query is 
+	 * still undecided.
+	 *
+	 * @see DpnReach#isComplete()
+	 *
+	 * @return <code>true</code> if the query is reachable.
+	 */
+	public boolean isReachable() {
+		return reachable;
+	}
+
+	/**
+	 * Checks the query against the aggregate <code>A</code>.
+	 *
+	 * @param A the automata.
+	 * @return <code>true</code> if this check decides the query.
+	 */
+	boolean check(Fa... A) {
+		if (reachable) return false;
+		reachable = DpnReach.reachable(a, b, A);
+		return reachable;
+	}
+
+	/**
+	 * Resets the query to undecided.
+	 */
+	void reset() {
+		reachable = false;
+	}
+
+	/**
+	 * Returns the string representation of this query.
+	 *
+	 * @return the string representation of this query.
+	 */
+	public String toString() {
+		return String.format("(%s, %s)", a, b);
+	}
+}
@@ -1,17 +1,200 @@
 package de.tum.in.wpds;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
+/**
+ * The set of reachable aggregates of a DPN.
+ */
 public class DpnReach {
 	
 	private Set<Reach> reach = new HashSet<Reach>();
 	
+	/**
+	 * Determines whether aggregates are kept in this set.
+	 */
+	private boolean retain;
+	
+	/**
+	 * The number of aggregates added so far.
+	 */
+	private int count = 0;
+	
+	/**
+	 * Determines whether the run that produced this set completed.
+	 */
+	private boolean complete = true;
+	
+	/**
+	 * The work items left unexplored, and the number of those spilled.
+	 */
+	private List<DpnSat.WorkItem> unexplored = Collections.emptyList();
+	private int spilled;
+	
+	/**
+	 * The listeners.
+	 */
+	private List<ReachListener> listeners = new ArrayList<ReachListener>();
+	
+	/**
+	 * Creates a new reachable set that keeps every aggregate.
+	 */
+	public DpnReach() {
+		this(true);
+	}
+	
+	/**
+	 * Creates a new reachable set.
+	 * If <code>retain</code> is <code>false</code>, aggregates are only
+	 * published to the listeners and not kept, so that the memory for 
+	 * the result does not grow with the number of explored aggregates.
+	 * 
+	 * @param retain determines whether aggregates are kept.
+	 */
+	public DpnReach(boolean retain) {
+		this.retain = retain;
+	}
+	
+	/**
+	 * Adds a listener that is notified of every aggregate as it is added.
+	 * 
+	 * @param listener the listener.
+	 */
+	public void addListener(ReachListener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Returns <code>true</code> if aggregates are kept in this set.
+	 * 
+	 * @return <code>true</code> if aggregates are kept.
+	 */
+	public boolean isRetained() {
+		return retain;
+	}
+	
+	/**
+	 * Returns the number of aggregates added to this set, 
+	 * including those not kept.
+	 * 
+	 * @return the number of aggregates.
+	 */
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * Records the outcome of the run that produced this set.
+	 * 
+	 * @param complete determines whether the run completed.
+	 * @param unexplored the work items left in the workset.
+	 * @param spilled the number of work items left on disk.
+	 */
+	void finish(boolean complete, List<DpnSat.WorkItem> unexplored, int spilled) {
+		this.complete = complete;
+		this.unexplored = Collections.unmodifiableList(unexplored);
+		this.spilled = spilled;
+	}
+	
+	/**
+	 * Returns <code>true</code> if the run that produced this set completed,
+	 * i.e. it was not canceled, stopped by its budget or by decided queries,
+	 * and no work items were shed. An incomplete set contains a subset 
+	 * of the reachable aggregates.
+	 * 
+	 * @return <code>true</code> if this set is complete.
+	 * @see DpnSat#proceed(CancelMonitor)
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+	
+	/**
+	 * Returns the work items left unexplored in memory by the run 
+	 * that produced this set. Their aggregates are in this set, 
+	 * but not their successors. Work items spilled to disk are not listed.
+	 * 
+	 * @return the unexplored work items.
+	 */
+	public List<DpnSat.WorkItem> getUnexplored() {
+		return unexplored;
+	}
+	
+	/**
+	 * Returns the levels of the work items left unexplored in memory.
+	 * 
+	 * @return the context levels.
+	 */
+	public SortedSet<Integer> getUnexploredLevels() {
+		SortedSet<Integer> levels = new TreeSet<Integer>();
+		for (DpnSat.WorkItem item : unexplored)
+			levels.add(item.getLevel());
+		return levels;
+	}
+	
+	/**
+	 * Returns the number of work items left unexplored on disk.
+	 * 
+	 * @return the number of spilled work items.
+	 * @see DpnSat#setMemoryLimit(long, SemiringCodec)
+	 */
+	public int getSpilled() {
+		return spilled;
+	}
+	
+	/**
+	 * Adds the aggregate <code>A</code> with the global values <code>g</code>.
+	 * The listeners are notified before the aggregate is kept.
+	 * 
+	 * @param g the global values.
+	 * @param A the automata.
+	 */
 	public void add(Semiring g, Fa... A) {
-		reach.add(new Reach(g, A));
+		count++;
+		for (ReachListener listener : listeners)
+			listener.reach(g, A);
+		if (retain)
+			reach.add(new Reach(g, A));
+		
+		SatEvents.Reach event = new SatEvents.Reach();
+		if (event.shouldCommit()) {
+			event.aggregates = count;
+			event.automata = A.length;
+			event.retained = retain;
+			event.commit();
+		}
 	}
 	
+	/**
+	 * Counts <code>n</code> aggregates added by an earlier run, which 
+	 * are neither kept nor published again.
+	 * 
+	 * @param n the number of aggregates.
+	 */
+	void count(int n) {
+		count += n;
+	}
+	
+	/**
+	 * Returns <code>true</code> if <code>a</code> and <code>b</code>
+	 * are reachable in two different automata of a kept aggregate.
+	 * In streaming mode, ask a {@link DpnQuery} or a {@link ReachMatrix}
+	 * registered as a listener instead.
+	 * 
+	 * @param a the symbol a.
+	 * @param b the symbol b.
+	 * @return <code>true</code> if <code>a</code> and <code>b</code>
+	 * 		are reachable at the same time.
+	 * @throws IllegalStateException if aggregates are not kept.
+	 */
 	public boolean reachable(String a, String b) {
+		if (!retain)
+			throw new IllegalStateException("Aggregates are not kept");
 		for (Reach r : reach) {
 			if (r.reachable(a, b))
 				return true;
@@ -19,6 +202,66 @@ public class DpnReach {
 		return false;
 	}
 	
+	/**
+	 * Returns <code>true</code> if <code>a</code> and <code>b</code>
+	 * are reachable in two different automata of <code>A</code>.
+	 * 
+	 * @param a the symbol a.
+	 * @param b the symbol b.
+	 * @param A the automata.
+	 * @return <code>true</code> if <code>a</code> and <code>b</code>
+	 * 		are reachable at the same time.
+	 */
+	static boolean reachable(String a, String b, Fa... A) {
+		
+		// Returns false if there are less than two automata
+		if (A.length < 2) return false;
+
+		// Finds a in every A[i]
+		Boolean[] foundb = new Boolean[A.length];
+		for (int i = 0; i < A.length; i++) {
+			
+			// Continues if a is not reachable in A[i]
+			if (!A[i].reachable(a)) continue;
+			
+			// Finds b in every A[j], where j != i
+			for (int j = 0; j < A.length; j++) {
+				
+				if (j == i) continue;
+				
+				// Looks in buffer first
+				if (foundb[j] != null) {
+					if (foundb[j]) return true;
+					continue;
+				}
+				
+				// Returns true if b is reachable in A[j]
+				foundb[j] = A[j].reachable(b);
+				if (foundb[j]) return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Computes the all-pairs simultaneous-reachability matrix 
+	 * in one pass over the kept aggregates.
+	 * In streaming mode, register a {@link ReachMatrix} as a listener
+	 * instead.
+	 * 
+	 * @return the matrix.
+	 * @throws IllegalStateException if aggregates are not kept.
+	 */
+	public ReachMatrix getMatrix() {
+		if (!retain)
+			throw new IllegalStateException("Aggregates are not kept");
+		ReachMatrix matrix = new ReachMatrix();
+		for (Reach r : reach)
+			matrix.reach(r.g, r.A);
+		return matrix;
+	}
+	
 	public void free() {
 		for (Reach r : reach) {
 			r.free();
@@ -44,39 +287,13 @@ public class DpnReach {
 		 * 		are reachable at the same time.
 		 */
 		boolean reachable(String a, String b) {
-			
-			// Returns false if there are less than two automata
-			if (A.length < 2) return false;
-
-			// Finds a in every A[i]
-			Boolean[] foundb = new Boolean[A.length];
-			for (int i = 0; i < A.length; i++) {
-				
-				// Continues if a is not reachable in A[i]
-				if (!A[i].reachable(a)) continue;
-				
-				// Finds b in every A[j], where j != i
-				for (int j = 0; j < A.length; j++) {
-					
-					if (j == i) continue;
-					
-					// Looks in buffer first
-					if (foundb[j] != null) {
-						if (foundb[j]) return true;
-						continue;
-					}
-					
-					// Returns true if b is reachable in A[j]
-					foundb[j] = A[j].reachable(b);
-					if (foundb[j]) return true;
-				}
-			}
-			
-			return false;
+			return DpnReach.reachable(a, b, A);
 		}
 		
 		void free() {
-			//FIXME there are already freed, sorry
+			if (g != null) g.free();
+			for (Fa fa : A)
+				fa.free();
 		}
 	}
 }
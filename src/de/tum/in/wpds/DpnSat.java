@@ -1,8 +1,23 @@
 package de.tum.in.wpds;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import de.tum.in.wpds.Fa.Splitted;
 
@@ -40,30 +55,145 @@ public class DpnSat extends Sat {
 	private boolean lazy;
 	
 	/**
-	 * Maps config <p,a> to rules having <p,a> on the left-hand-side, 
-	 * i.e. rules of the form <p,a> -> <q,w>
+	 * Determines whether the DPN has dynamic rules.
 	 */
-	HashMap<Config, Set<Rule>> rmap;
+	private boolean dynamic;
 	
 	/**
 	 * The set of reachable global configurations.
 	 */
 	private DpnReach reach;
 	
+	/**
+	 * Determines whether reachable aggregates are kept in the result.
+	 */
+	private boolean retainReach = true;
+	
+	/**
+	 * The listeners of reachable aggregates.
+	 */
+	private List<ReachListener> reachListeners = new ArrayList<ReachListener>();
+	
 	/**
 	 * The workset.
 	 */
 	private WorkSet<WorkItem> workset;
 	
 	/**
-	 * The id of the currently active thread.
+	 * The exploration strategy of the workset.
+	 */
+	private Strategy strategy = Strategy.BFS;
+	
+	/**
+	 * The user-supplied priority, used by {@link Strategy#PRIORITY}.
+	 */
+	private Comparator<? super WorkItem> priority;
+	
+	/**
+	 * The target queries.
+	 */
+	private List<DpnQuery> queries = new ArrayList<DpnQuery>();
+	
+	/**
+	 * The number of queries not yet decided.
+	 */
+	private int undecided;
+	
+	/**
+	 * Determines whether saturated threads are saturated again 
+	 * only from their changed transitions.
+	 */
+	private boolean incremental = false;
+	
+	/**
+	 * Determines whether mid-states are shared across context levels.
+	 */
+	private boolean sharedMidStates = false;
+	
+	/**
+	 * Maps a push rule to its mid-state names, indexed by level.
+	 */
+	private HashMap<Rule, String[]> midStates;
+	
+	/**
+	 * The number of worker threads.
+	 */
+	private int threads = 1;
+	
+	/**
+	 * The worker pool, created on demand.
+	 */
+	private ExecutorService pool;
+	
+	/**
+	 * Determines whether the frontier cut off by the context bound is kept
+	 * for iterative deepening.
+	 */
+	private boolean deepening = false;
+	
+	/**
+	 * The aggregates saturated at the context bound, not yet split.
+	 */
+	private List<WorkItem> frontier;
+	
+	/**
+	 * The id of the work item being explored, or <code>-1</code>.
+	 */
+	private int explored = -1;
+	
+	/**
+	 * The soft memory limit in bytes, or zero if there is none.
+	 */
+	private long memoryLimit = 0;
+	
+	/**
+	 * The codec for spilling work items, or <code>null</code> 
+	 * if work items are shed.
+	 */
+	private SemiringCodec spillCodec;
+	
+	/**
+	 * The estimated sizes of the aggregates in the workset 
+	 * and of those kept in the reachable set.
+	 */
+	private long worklistBytes, reachBytes;
+	
+	/**
+	 * Determines whether work items were shed in the current run.
+	 */
+	private boolean shed;
+	
+	/**
+	 * Determines whether a work item was canceled while being explored
+	 * in the current run, so that the aggregates it leads to are missing.
+	 */
+	private boolean lost;
+	
+	/**
+	 * The number of aggregates in the reachable set whose work items
+	 * were released from the checkpoint.
+	 */
+	private int released;
+	
+	/**
+	 * The files of spilled work items, the oldest first.
 	 */
-	private static int currentThreadId;
+	private List<Spill> spills = new ArrayList<Spill>();
 	
 	/**
-	 * Records the time required for splitting.
+	 * The id of the active thread of the run on the current 
+	 * (Java) thread, so that independent runs can share a JVM.
 	 */
-	private float splittingTime = 0;
+	private static final ThreadLocal<Integer> currentThreadId = new ThreadLocal<Integer>() {
+		protected Integer initialValue() {
+			return 0;
+		}
+	};
+	
+	/**
+	 * Counts the number of work items of the current run.
+	 */
+	private int workId = 0;
 	
 	/**
 	 * The constructor.
@@ -82,13 +212,601 @@ public class DpnSat extends Sat {
 		this.lazy = lazy;
 	}
 	
+	public Pds getPds() {
+		return dpn;
+	}
+	
+	/**
+	 * Returns the thread bound, the context-switch bound, the lazy flag,
+	 * the mid-state sharing flag, the incremental flag and 
+	 * the initial global values.
+	 * 
+	 * @return the parameters.
+	 */
+	public Object[] getParameters() {
+		return new Object[] { n, k, lazy, sharedMidStates, incremental, g0 };
+	}
+	
+	boolean completed() {
+		return super.completed() && !decided() && !shed && !lost;
+	}
+	
+	/**
+	 * Sets a soft limit on the estimated memory of the live aggregates,
+	 * i.e. of the workset, or of the reachable set if aggregates are kept
+	 * (see {@link #setRetainReach(boolean)}). Sizes are estimated 
+	 * by {@link Fa#estimateSize()}.
+	 * 
+	 * <p>In streaming mode, a work item created while the limit is 
+	 * exceeded is spilled: it is written to a temporary file with 
+	 * <code>codec</code> and its automata are freed. Spilled work items 
+	 * are read back, as {@link MappedFa}s, once the workset is empty.
+	 * A spill file is closed once it exceeds 256 MB, or the value of the
+	 * system property <code>jwpds.spill.size</code>, and the files are 
+	 * read back one at a time, the oldest first. If a spill file cannot
+	 * be read back, the run fails with an {@link IllegalStateException}.
+	 * If <code>codec</code> is <code>null</code>, the work item is shed
+	 * instead, i.e. discarded, and the result is incomplete.
+	 * If aggregates are kept, they cannot be released, so exceeding 
+	 * the limit is only logged.
+	 * 
+	 * @param bytes the limit in bytes, or zero for no limit.
+	 * @param codec the semiring codec for spilling, or <code>null</code>.
+	 */
+	public void setMemoryLimit(long bytes, SemiringCodec codec) {
+		this.memoryLimit = bytes;
+		this.spillCodec = codec;
+	}
+	
+	/**
+	 * Returns <code>true</code> if the last run discarded work items
+	 * because of the memory limit.
+	 * 
+	 * @return <code>true</code> if work items were shed.
+	 * @see #setMemoryLimit(long, SemiringCodec)
+	 */
+	public boolean isShed() {
+		return shed;
+	}
+	
+	/**
+	 * Sets the listener that is notified of every reachable aggregate 
+	 * as it is produced.
+	 * 
+	 * @param listener the listener.
+	 */
+	public void setReachListener(ReachListener listener) {
+		reachListeners.clear();
+		if (listener != null)
+			reachListeners.add(listener);
+	}
+	
+	/**
+	 * Adds a listener that is notified of every reachable aggregate 
+	 * as it is produced, in addition to the listeners already set.
+	 * 
+	 * @param listener the listener.
+	 */
+	public void addReachListener(ReachListener listener) {
+		reachListeners.add(listener);
+	}
+	
+	/**
+	 * Removes a listener added by {@link #addReachListener(ReachListener)}.
+	 * 
+	 * @param listener the listener.
+	 */
+	public void removeReachListener(ReachListener listener) {
+		reachListeners.remove(listener);
+	}
+	
+	/**
+	 * Determines whether reachable aggregates are kept in the
+	 * {@link DpnReach} returned by {@link #poststar(Fa, CancelMonitor)}.
+	 * In streaming mode (<code>false</code>), aggregates are only 
+	 * published to the listener and can be discarded by it.
+	 * The default is <code>true</code>.
+	 * 
+	 * @param retain determines whether aggregates are kept.
+	 */
+	public void setRetainReach(boolean retain) {
+		this.retainReach = retain;
+	}
+	
+	/**
+	 * Registers a target query asking whether <code>a</code> and <code>b</code>
+	 * are simultaneously reachable at the top of two different threads.
+	 * Queries are checked as aggregates are produced, and
+	 * {@link #poststar(Fa, CancelMonitor)} stops as soon as
+	 * every registered query is decided. Queries are only decided
+	 * positively, so the run does not stop early if any query
+	 * is unreachable.
+	 * 
+	 * @param a the first symbol.
+	 * @param b the second symbol.
+	 * @return the query.
+	 */
+	public DpnQuery addQuery(String a, String b) {
+		DpnQuery query = new DpnQuery(a, b);
+		queries.add(query);
+		return query;
+	}
+	
+	/**
+	 * Returns <code>true</code> if queries were registered
+	 * and all of them are decided.
+	 * 
+	 * @return <code>true</code> if all queries are decided.
+	 */
+	private boolean decided() {
+		return undecided == 0 && !queries.isEmpty();
+	}
+	
+	/**
+	 * Returns <code>true</code> if the analysis should stop, i.e.
+	 * it is canceled or all queries are decided.
+	 * 
+	 * @return <code>true</code> if the analysis should stop.
+	 */
+	private boolean stopped() {
+		return monitor.isCanceled() || decided();
+	}
+	
+	/**
+	 * Returns <code>true</code> if a limit of the budget is exhausted.
+	 * 
+	 * @return <code>true</code> if the analysis must stop.
+	 */
+	private boolean exhausted() {
+		if (budget == null) return false;
+		if (budget.limitsMemory()) budget.memory(Math.max(worklistBytes, reachBytes));
+		return budget.check();
+	}
+	
+	/**
+	 * Returns <code>true</code> if the memory of aggregates is accounted.
+	 * 
+	 * @return <code>true</code> if sizes are estimated.
+	 */
+	private boolean accounting() {
+		return stats != null || memoryLimit > 0 || (budget != null && budget.limitsMemory());
+	}
+	
+	/**
+	 * Adds the aggregate <code>A</code> to the reachable set and
+	 * checks the undecided queries against it.
+	 * 
+	 * @param g the global values.
+	 * @param A the automata.
+	 */
+	private void addReach(Semiring g, Fa[] A) {
+		
+		reach.add(g, A);
+		if (undecided == 0) return;
+		
+		for (DpnQuery query : queries) {
+			if (query.check(A)) {
+				if (logging()) log("Query %s decided%n", query);
+				undecided--;
+			}
+		}
+	}
+	
+	/**
+	 * Queues the work item <code>item</code>, adds its aggregate to the 
+	 * reachable set, and records it in the checkpoint.
+	 * 
+	 * @param item the work item.
+	 */
+	private void enqueue(WorkItem item) {
+		
+		if (Trace.ENABLED) Trace.record(Trace.Event.ENQUEUE, item.id, item.level);
+		if (stats != null) stats.aggregatesCreated++;
+		if (checkpoint != null)
+			journalAdd(item, explored, true);
+		addReach(item.g, item.A);
+		
+		// Accounts for the memory
+		if (!accounting()) {
+			workset.add(item);
+			return;
+		}
+		item.bytes = estimateSize(item);
+		if (retainReach) reachBytes += item.bytes;
+		if (memoryLimit > 0 && worklistBytes + item.bytes > memoryLimit 
+				&& release(item))
+			return;
+		if (retainReach && memoryLimit > 0 && reachBytes > memoryLimit 
+				&& reachBytes - item.bytes <= memoryLimit)
+			logger.warning("Memory limit exceeded by the reachable set");
+		queue(item);
+	}
+	
+	/**
+	 * Puts the work item <code>item</code> into the workset 
+	 * and accounts for its memory.
+	 * 
+	 * @param item the work item.
+	 */
+	private void queue(WorkItem item) {
+		
+		workset.add(item);
+		worklistBytes += item.bytes;
+		if (stats != null) {
+			stats.aggregateWorkset(workset.size());
+			stats.memory(worklistBytes, reachBytes);
+		}
+	}
+	
+	/**
+	 * Returns the estimated size of the aggregate of <code>item</code>.
+	 * 
+	 * @param item the work item.
+	 * @return the estimated number of bytes.
+	 */
+	private static long estimateSize(WorkItem item) {
+		
+		long bytes = Fa.estimateSize(item.g);
+		for (int i = 0; i < item.A.length; i++)
+			bytes += item.A[i].estimateSize();
+		return bytes;
+	}
+	
+	/**
+	 * Spills or sheds the work item <code>item</code>, unless
+	 * aggregates are kept in the reachable set.
+	 * 
+	 * @param item the work item.
+	 * @return <code>true</code> if the work item was released.
+	 */
+	private boolean release(WorkItem item) {
+		
+		if (retainReach) return false;
+		await(item);
+		if (spillCodec != null) {
+			try {
+				if (spills.isEmpty() || !spills.get(spills.size() - 1).isOpen())
+					spills.add(new Spill());
+				spills.get(spills.size() - 1).write(item, spillCodec);
+				if (stats != null) stats.aggregatesSpilled++;
+			} catch (IOException e) {
+				logger.warning("Cannot spill work items: " + e);
+				return false;
+			}
+		} else {
+			shed = true;
+			if (stats != null) stats.aggregatesShed++;
+		}
+		
+		if (item.g != null) item.g.free();
+		for (int i = 0; i < item.A.length; i++)
+			item.A[i].free();
+		return true;
+	}
+	
+	/**
+	 * Reads the oldest spilled work items back into the workset.
+	 * 
+	 * @return <code>true</code> if work items were read.
+	 */
+	private boolean reload() {
+		
+		if (spills.isEmpty() || stopped() || exhausted()) return false;
+		Spill spill = spills.remove(0);
+		try {
+			List<WorkItem> items = spill.read(spillCodec);
+			log("Reloading %d spilled work items%n", items.size());
+			for (WorkItem item : items) {
+				item.bytes = estimateSize(item);
+				queue(item);
+			}
+		} catch (IOException e) {
+			
+			// Fails rather than silently dropping the work items
+			for (Spill other : spills)
+				other.delete();
+			spills.clear();
+			throw new IllegalStateException("Cannot reload spilled work items", e);
+		} finally {
+			spill.delete();
+		}
+		return true;
+	}
+	
+	/**
+	 * The record types of the checkpoint.
+	 */
+	private static final byte ADD = 1;
+	private static final byte DONE = 2;
+	private static final byte STATE = 3;
+	
+	/**
+	 * The key of the state record; work items are keyed by their ids.
+	 */
+	private static final int STATE_KEY = -1;
+	
+	/**
+	 * Records the work item <code>item</code> queued while exploring 
+	 * the work item <code>parent</code>. The record stays in the
+	 * checkpoint until the work item is explored, or as long as the 
+	 * run if its aggregate is kept in the reachable set.
+	 * 
+	 * <p>The automata are encoded by the background writer if the 
+	 * semiring is thread-safe; the work item must not be explored 
+	 * or freed before, see {@link #await(WorkItem)}.
+	 * 
+	 * @param item the work item.
+	 * @param parent the id of the parent work item, or <code>-1</code>.
+	 * @param reachable determines whether the aggregate is in the reachable set.
+	 */
+	private void journalAdd(final WorkItem item, final int parent, final boolean reachable) {
+		
+		final SemiringCodec codec = checkpoint.getCodec();
+		item.journaled = checkpoint.append(item.id, new Checkpoint.Record() {
+			public void write(FaFile.Buffer out) throws IOException {
+				out.writeByte(ADD);
+				out.writeInt(item.id);
+				out.writeInt(parent);
+				out.writeInt(item.level);
+				out.writeInt(item.last);
+				out.writeBoolean(reachable);
+				writeAggregate(out, codec, item);
+			}
+		});
+	}
+	
+	/**
+	 * Waits until the automata of <code>item</code> are encoded 
+	 * in the checkpoint.
+	 * 
+	 * @param item the work item.
+	 */
+	private static void await(WorkItem item) {
+		
+		if (item.journaled == null) return;
+		try {
+			item.journaled.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		item.journaled = null;
+	}
+	
+	/**
+	 * Records the id of the next work item and the number of aggregates
+	 * released from the checkpoint, replacing the previous state record.
+	 * It is recorded before each commit, so that it is committed 
+	 * together with the records it accounts for.
+	 */
+	private void journalState() {
+		
+		final int next = workId;
+		final int count = released;
+		checkpoint.release(STATE_KEY);
+		checkpoint.append(STATE_KEY, new Checkpoint.Record() {
+			public void write(FaFile.Buffer out) throws IOException {
+				out.writeByte(STATE);
+				out.writeInt(next);
+				out.writeInt(count);
+			}
+		});
+	}
+	
+	/**
+	 * Writes the global values and the automata of <code>item</code>.
+	 * 
+	 * @param out the output.
+	 * @param codec the semiring codec.
+	 * @param item the work item.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private static void writeAggregate(FaFile.Buffer out, SemiringCodec codec, 
+			WorkItem item) throws IOException {
+		
+		out.writeBoolean(item.g != null);
+		if (item.g != null) codec.write(item.g, out);
+		out.writeInt(item.A.length);
+		for (int i = 0; i < item.A.length; i++)
+			FaFile.write(item.A[i], out, codec);
+	}
+	
+	/**
+	 * Reads the global values and the automata written by 
+	 * {@link #writeAggregate(FaFile.Buffer, SemiringCodec, WorkItem)}
+	 * and creates a work item with them.
+	 * 
+	 * @param in the input.
+	 * @param codec the semiring codec.
+	 * @param id the id of the work item.
+	 * @param level the level of the work item.
+	 * @param last the last active automaton of the work item.
+	 * @return the work item.
+	 * @throws IOException if the input is corrupt.
+	 */
+	private static WorkItem readAggregate(MappedFile in, SemiringCodec codec, 
+			int id, int level, int last) throws IOException {
+		
+		Semiring g = (in.get() == 0) ? null : in.read(codec);
+		Fa[] A = new Fa[in.getInt()];
+		for (int i = 0; i < A.length; i++)
+			A[i] = FaFile.read(in, codec);
+		return new WorkItem(id, level, last, g, A);
+	}
+	
+	/**
+	 * Records that the work item <code>item</code> has been explored,
+	 * i.e. all its successors are queued. Unless its aggregate is kept 
+	 * in the reachable set, its record is released instead.
+	 * 
+	 * @param item the work item.
+	 */
+	private void journalDone(WorkItem item) {
+		
+		if (retainReach) {
+			final int id = item.id;
+			checkpoint.append(id, new Checkpoint.Record() {
+				public void write(FaFile.Buffer out) throws IOException {
+					out.writeByte(DONE);
+					out.writeInt(id);
+				}
+			});
+			return;
+		}
+		checkpoint.release(item.id);
+		
+		// The initial work item is not in the reachable set
+		if (item.id > 0) released++;
+	}
+	
+	/**
+	 * Sets the number of worker threads. If more than one thread is used
+	 * and the semiring is a {@link ThreadSafeSemiring}, the equivalence 
+	 * classes of the lazy splitting, or the initial transitions of the 
+	 * eager splitting, are processed in parallel.
+	 * The default is one.
+	 * 
+	 * @param threads the number of worker threads.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+	
+	/**
+	 * Determines whether a thread that was saturated in its last context,
+	 * because no dynamic rule could spawn a thread, is saturated again
+	 * only from the transitions whose weights were changed by lifting
+	 * or, in the lazy analysis, by splitting. Otherwise every transition
+	 * is processed again. The default is <code>false</code>, since this
+	 * is exact only for semirings whose lifting distributes over extension.
+	 * 
+	 * @param incremental determines whether saturation is incremental.
+	 * @see Semiring#lift(Semiring)
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+	
+	/**
+	 * Determines whether the mid-states of push rules are shared across 
+	 * context levels. By default every level has its own mid-state
+	 * (p,a)level, so the automata grow with the context bound.
+	 * Sharing keeps one mid-state (p,a) per push rule, as in {@link PdsSat},
+	 * which is sound as long as the weights do not depend on the level
+	 * the push rule was applied in. Otherwise the result may be
+	 * over-approximated.
+	 * 
+	 * @param shared determines whether mid-states are shared.
+	 */
+	public void setSharedMidStates(boolean shared) {
+		this.sharedMidStates = shared;
+	}
+	
+	/**
+	 * Returns the mid-state of the push rule <code>rule</code> 
+	 * at the level <code>level</code>. 
+	 * The names are cached, so that each one is formatted only once.
+	 * 
+	 * @param rule the push rule.
+	 * @param level the context level.
+	 * @return the mid-state.
+	 */
+	private String getMidState(Rule rule, int level) {
+		
+		int l = sharedMidStates ? 0 : level;
+		String[] names = midStates.get(rule);
+		if (names == null || names.length <= l) {
+			String[] newNames = new String[Math.max(l, k) + 1];
+			if (names != null)
+				System.arraycopy(names, 0, newNames, 0, names.length);
+			names = newNames;
+			midStates.put(rule, names);
+		}
+		
+		if (names[l] == null) {
+			String p = rule.right.p, a = rule.right.w[0];
+			names[l] = sharedMidStates 
+					? String.format("(%s,%s)", p, a)
+					: String.format("(%s,%s)%d", p, a, level);
+		}
+		return names[l];
+	}
+	
+	/**
+	 * Enables iterative deepening. The aggregates cut off by the context
+	 * bound are kept instead of freed, so that {@link #deepen(int, CancelMonitor)}
+	 * can resume from them and only pay for the new levels.
+	 * 
+	 * @param deepening determines whether iterative deepening is enabled.
+	 */
+	public void setIterativeDeepening(boolean deepening) {
+		this.deepening = deepening;
+	}
+	
+	/**
+	 * Sets the strategy for scheduling aggregates in the workset.
+	 * The default is {@link Strategy#BFS}.
+	 * 
+	 * @param strategy the strategy.
+	 */
+	public void setStrategy(Strategy strategy) {
+		if (strategy == Strategy.PRIORITY && priority == null)
+			throw new IllegalArgumentException("No priority set");
+		this.strategy = strategy;
+	}
+	
+	/**
+	 * Sets a user-supplied priority and selects {@link Strategy#PRIORITY}.
+	 * The least work item according to <code>priority</code> is
+	 * explored first.
+	 * 
+	 * @param priority the priority.
+	 */
+	public void setPriority(Comparator<? super WorkItem> priority) {
+		this.priority = priority;
+		this.strategy = Strategy.PRIORITY;
+	}
+	
+	/**
+	 * Creates a new workset according to the strategy.
+	 * 
+	 * @return the workset.
+	 */
+	private WorkSet<WorkItem> createWorkSet() {
+		switch (strategy) {
+		case DFS:
+			return new LifoWorkSet<WorkItem>();
+		case DEEPEST:
+			return new PriorityWorkSet<WorkItem>(DEEPEST_FIRST);
+		case SMALLEST:
+			return new PriorityWorkSet<WorkItem>(SMALLEST_FIRST);
+		case PRIORITY:
+			return new PriorityWorkSet<WorkItem>(priority);
+		default:
+			return new FifoWorkSet<WorkItem>();
+		}
+	}
+	
 	/**
 	 * Gets the current thread id. The main thread has id one.
+	 * The id is that of the run on the calling (Java) thread, or 
+	 * on the thread that handed the calling worker its task.
 	 * 
 	 * @return the current thread id.
 	 */
 	public static int getCurrentThreadId() {
-		return currentThreadId;
+		return currentThreadId.get();
+	}
+
+	/**
+	 * Sets the current thread id of the calling (Java) thread, 
+	 * for tasks handed to workers.
+	 * 
+	 * @param id the thread id.
+	 */
+	static void setCurrentThreadId(int id) {
+		currentThreadId.set(id);
 	}
 
 	/**
@@ -102,18 +820,21 @@ public class DpnSat extends Sat {
 	 * @param t the transition.
 	 * @return <code>true</code> if the semiring value of <code>t</code> was changed.
 	 */
-	private static boolean update(Fa fa, WorkSet<Transition> trans, Semiring d, Transition t) {
+	private boolean update(Fa fa, WorkSet<Transition> trans, Semiring d, Transition t) {
 		
 		// Do not add if d is zero
 		if (d.isZero()) {
-			log("\t\t\tZero found, not adding %s%n", t);
+			if (Trace.ENABLED) Trace.record(Trace.Event.ZERO, null, t);
 			return false;
 		}
 		
 		// Adds the transition to fa
 		boolean updated = false;
-		if (fa.add(d, t)) {
+		int size = (profiler != null) ? fa.size() : 0;
+		if (fa.add(d, t, stats)) {
 			trans.add(t);
+			if (stats != null) stats.transitionWorkset(trans.size());
+			if (profiler != null) profiler.update(fa.size() > size);
 			updated = true;
 		}
 		
@@ -133,7 +854,7 @@ public class DpnSat extends Sat {
 	 * @param q the transition's to-state.
 	 * @return <code>true</code> if the semiring value of <code>t</code> was changed.
 	 */
-	private static boolean update(Fa fa, WorkSet<Transition> trans, Semiring d, 
+	private boolean update(Fa fa, WorkSet<Transition> trans, Semiring d, 
 			String p, String a, String q) {
 		return update(fa, trans, d, new Transition(p, a, q));
 	}
@@ -152,7 +873,7 @@ public class DpnSat extends Sat {
 		for (int i = 0; i < A.length; i++) {
 			
 			// Returns if canceled
-			if (monitor.isCanceled()) return null;
+			if (stopped()) return null;
 			
 			if (i == c)
 				continue;
@@ -184,21 +905,21 @@ public class DpnSat extends Sat {
 //			log("eqrel: %s%n", eqrel.toRawString());
 			
 			// Returns if canceled
-			if (monitor.isCanceled()) return;
+			if (stopped()) return;
 			
 			Semiring eqclass = eqrel.getEqClass(1);
-			log("eqclass: %s%n%n", eqclass.toRawString());
+			if (logging()) log("eqclass: %s%n%n", eqclass.toRawString());
 			
 			// Restricts to the new equivalence class
 			Fa[] newA = new Fa[A.length];
 			for (int i = 0; i < A.length; i++) {
-				log("Creating automaton %d%n", i);
+				if (logging()) log("Creating automaton %d%n", i);
 				newA[i] = A[i].and(eqclass);
 			}
 			
 			// Updates globals
 			Semiring newglobal = newA[c].getGlobal();
-			if (monitor.isCanceled()) return;
+			if (stopped()) return;
 			if (newglobal != null) {
 //				log("Updating with newglobal: %s%n", newglobal.toRawString());
 				for (int i = 0; i < A.length; i++) {
@@ -206,106 +927,267 @@ public class DpnSat extends Sat {
 				}
 				newglobal.free();
 				
-				WorkItem item = new WorkItem(level, c, null, newA);
-				log("Adding to worklist with id=%d: (level: %d, c: %d, j: %d)%n%n", 
+				WorkItem item = new WorkItem(workId++, level, c, null, newA);
+				if (logging()) log("Adding to worklist with id=%d: (level: %d, c: %d, j: %d)%n%n", 
 						item.id, level, c, newA.length);
-				workset.add(item);
-				reach.add(null, newA);
+				enqueue(item);
 			} else {
 				for(int i = 0; i < A.length; i++)
 					newA[i].free();
 			}
 			
-			eqrel.sliceWith(eqclass, 1);
+			eqrel.sliceWith(eqclass, 1);
+		}
+		
+		A[c].free();
+	}
+	
+	/**
+	 * Lazily splits the aggregate, updates globals, 
+	 * and puts them into the workset.
+	 * 
+	 * @param level the depth of the analysis.
+	 * @param c the index of the active automaton.
+	 * @param A the automata.
+	 */
+	private void approach2(int level, int c, Fa[] A) {
+		
+		long start = System.nanoTime();
+		SatEvents.LazySplit event = new SatEvents.LazySplit();
+		event.begin();
+		
+		// The times of the phases, if measured
+		long[] times = (stats != null || event.isEnabled()) ? new long[5] : null;
+		
+		// Finds equivalence relation
+		Semiring eqrel = A[c].getEqRel(2);
+		if (times != null) times[0] = System.nanoTime() - start;
+		int splitCount = 0;
+		try {
+			if (eqrel == null) return;
+			
+			// Splits in parallel if the semiring allows
+			if (threads > 1 && eqrel instanceof ThreadSafeSemiring) {
+				splitCount = approach2Parallel(level, c, A, eqrel);
+				if (stopped()) return;
+			}
+			
+			long before = 0;
+			while (!eqrel.isZero()) {
+				
+				// Returns if canceled
+				splitCount++;
+				if (stopped()) return;
+				
+				// Gets an equivalence class
+				if (times != null) before = System.nanoTime();
+				Semiring eqclass = eqrel.getEqClass(2);
+				if (times != null) times[1] += System.nanoTime() - before;
+				
+//				log("eqclass: %s%n", eqclass.toRawString());
+				
+				// Restricts to the new equivalence class
+				Fa[] newA = new Fa[A.length];
+				for (int i = 0; i < A.length; i++) {
+					if (logging()) log("Creating automaton %d%n", i);
+					newA[i] = A[i].and(eqclass);
+				}
+				
+				// Retrieves globals
+				if (times != null) before = System.nanoTime();
+				Semiring newglobal = newA[c].getGlobal();
+				if (times != null) times[2] += System.nanoTime() - before;
+				
+				if (newglobal != null) {
+					// Updates globals
+					if (Sat.all())
+						log("Updating with newglobal: %s%n", newglobal.toRawString());
+					if (times != null) before = System.nanoTime();
+					for (int i = 0; i < A.length; i++) {
+						newA[i].updateGlobal(newglobal);
+					}
+					if (times != null) times[3] += System.nanoTime() - before;
+					newglobal.free();
+					
+					WorkItem item = new WorkItem(workId++, level, c, null, newA);
+					if (logging()) log("Adding to worklist with id=%d: (level: %d, c: %d, j: %d)%n%n", 
+							item.id, level, c, newA.length);
+					enqueue(item);
+				} else {
+					// Deletes automata in case of canceled
+					for(int i = 0; i < A.length; i++)
+						newA[i].free();
+					if (stats != null) stats.aggregatesPruned++;
+				}
+				
+				if (times != null) before = System.nanoTime();
+				eqrel.sliceWith(eqclass, 2);
+				if (times != null) times[4] += System.nanoTime() - before;
+			}
+		} finally {
+			if (times != null) endSplit(event, times, level, A.length, splitCount);
+		}
+		
+		log("Splitting %d times required: %.2fs%n%n", 
+				splitCount, (System.nanoTime() - start) / 1e9);
+	}
+	
+	/**
+	 * Records the times of the phases of a lazy splitting 
+	 * in the statistics and the event <code>event</code>.
+	 * 
+	 * @param event the event.
+	 * @param times the times of the phases.
+	 * @param level the depth of the analysis.
+	 * @param automata the number of automata.
+	 * @param classes the number of equivalence classes.
+	 */
+	private void endSplit(SatEvents.LazySplit event, long[] times, 
+			int level, int automata, int classes) {
+		
+		if (stats != null) {
+			stats.nanos[SatStatistics.Phase.EQREL.ordinal()] += times[0];
+			stats.nanos[SatStatistics.Phase.EQCLASS.ordinal()] += times[1];
+			stats.nanos[SatStatistics.Phase.EXTRACT.ordinal()] += times[2];
+			stats.nanos[SatStatistics.Phase.UPDATE_GLOBAL.ordinal()] += times[3];
+			stats.nanos[SatStatistics.Phase.SLICE.ordinal()] += times[4];
+		}
+		if (event.shouldCommit()) {
+			event.level = level;
+			event.automata = automata;
+			event.classes = classes;
+			event.eqrel = times[0];
+			event.eqclass = times[1];
+			event.extract = times[2];
+			event.update = times[3];
+			event.slice = times[4];
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Lazily splits the aggregate in parallel.
+	 * The equivalence classes are enumerated first, 
+	 * then the aggregate of each class is created on the worker pool.
+	 * The results are put into the workset in the order of the classes.
+	 * 
+	 * @param level the depth of the analysis.
+	 * @param c the index of the active automaton.
+	 * @param A the automata.
+	 * @param eqrel the equivalence relation, which is sliced to zero.
+	 * @return the number of equivalence classes.
+	 */
+	private int approach2Parallel(int level, final int c, final Fa[] A, Semiring eqrel) {
+		
+		// Enumerates the equivalence classes
+		List<Semiring> classes = new ArrayList<Semiring>();
+		while (!eqrel.isZero()) {
+			if (stopped()) break;
+			Semiring eqclass = eqrel.getEqClass(2);
+			classes.add(eqclass.id());
+			eqrel.sliceWith(eqclass, 2);
+		}
+		log("Splitting %d classes in parallel%n", classes.size());
+		
+		// Creates the aggregates concurrently
+		List<Future<Fa[]>> results = new ArrayList<Future<Fa[]>>(classes.size());
+		final int id = currentThreadId.get();
+		for (final Semiring eqclass : classes) {
+			results.add(getPool().submit(new Callable<Fa[]>() {
+				public Fa[] call() {
+					currentThreadId.set(id);
+					return restrict(c, A, eqclass);
+				}
+			}));
+		}
+		
+		// Merges the aggregates
+		for (Future<Fa[]> result : results) {
+			Fa[] newA;
+			try {
+				newA = result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				monitor.setCanceled(true);
+				return classes.size();
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+			if (newA == null) {
+				if (stats != null) stats.aggregatesPruned++;
+				continue;
+			}
+			if (stopped()) {
+				for (int i = 0; i < newA.length; i++)
+					newA[i].free();
+				continue;
+			}
+			
+			WorkItem item = new WorkItem(workId++, level, c, null, newA);
+			if (logging()) log("Adding to worklist with id=%d: (level: %d, c: %d, j: %d)%n%n", 
+					item.id, level, c, newA.length);
+			enqueue(item);
 		}
 		
-		A[c].free();
-	}
-	
-	private static float[] times = new float[5];
-	
-	private static float elapsedTime(long startTime) {
-		return (float) ((System.currentTimeMillis() - startTime) / 1000.0);
+		return classes.size();
 	}
 	
 	/**
-	 * Lazily splits the aggregate, updates globals, 
-	 * and puts them into the workset.
+	 * Restricts the aggregate <code>A</code> to the equivalence class 
+	 * <code>eqclass</code> and updates the globals.
+	 * The method returns <code>null</code> if the class has no globals 
+	 * or the analysis is canceled. <code>eqclass</code> is freed.
 	 * 
-	 * @param level the depth of the analysis.
 	 * @param c the index of the active automaton.
 	 * @param A the automata.
+	 * @param eqclass the equivalence class.
+	 * @return the new aggregate.
 	 */
-	private void approach2(int level, int c, Fa[] A) {
+	private Fa[] restrict(int c, Fa[] A, Semiring eqclass) {
 		
-		long start = System.currentTimeMillis();
-		int splitCount = 0;
+		if (monitor.isCanceled()) {
+			eqclass.free();
+			return null;
+		}
 		
-		// Finds equivalence relation
-		long before = System.currentTimeMillis();
-		Semiring eqrel = A[c].getEqRel(2);
-		times[0] = elapsedTime(before);
-		if (eqrel == null) return;
+		// Restricts to the equivalence class
+		Fa[] newA = new Fa[A.length];
+		for (int i = 0; i < A.length; i++)
+			newA[i] = A[i].and(eqclass);
+		eqclass.free();
 		
-		while (!eqrel.isZero()) {
-			
-			// Returns if canceled
-			splitCount++;
-			if (monitor.isCanceled()) return;
-			
-			// Gets an equivalence class
-			before = System.currentTimeMillis();
-			Semiring eqclass = eqrel.getEqClass(2);
-			times[1] = elapsedTime(before);
-			
-//			log("eqclass: %s%n", eqclass.toRawString());
-			
-			// Restricts to the new equivalence class
-			Fa[] newA = new Fa[A.length];
-			for (int i = 0; i < A.length; i++) {
-				log("Creating automaton %d%n", i);
-				newA[i] = A[i].and(eqclass);
-			}
-			
-			// Retrieves globals
-			before = System.currentTimeMillis();
-			Semiring newglobal = newA[c].getGlobal();
-			times[2] = elapsedTime(before);
-			
-			if (newglobal != null) {
-				// Updates globals
-				if (Sat.all())
-					log("Updating with newglobal: %s%n", newglobal.toRawString());
-				before = System.currentTimeMillis();
-				for (int i = 0; i < A.length; i++) {
-					newA[i].updateGlobal(newglobal);
-				}
-				times[3] = elapsedTime(before);
-				newglobal.free();
-				
-				WorkItem item = new WorkItem(level, c, null, newA);
-				log("Adding to worklist with id=%d: (level: %d, c: %d, j: %d)%n%n", 
-						item.id, level, c, newA.length);
-				workset.add(item);
-				reach.add(null, newA);
-			} else {
-				// Deletes automata in case of canceled
-				for(int i = 0; i < A.length; i++)
-					newA[i].free();
-			}
-			
-			before = System.currentTimeMillis();
-			eqrel.sliceWith(eqclass, 2);
-			times[4] = elapsedTime(before);
-			
-			log("Time: [rel=%.2f, eqclass=%.2f, extract=%.2f, update=%.2f, slice=%.2f]%n",
-				times[0], times[1], times[2], times[3], times[4]);
+		// Updates globals
+		Semiring newglobal = newA[c].getGlobal();
+		if (newglobal == null) {
+			for (int i = 0; i < A.length; i++)
+				newA[i].free();
+			return null;
 		}
+		for (int i = 0; i < A.length; i++)
+			newA[i].updateGlobal(newglobal);
+		newglobal.free();
 		
-		// Statistics
-		float elapsed = (float) ((System.currentTimeMillis() - start) / 1000.0);
-		log("Splitting %d times required: %.2fs%n%n", splitCount, elapsed);
-		splittingTime += elapsed;
+		return newA;
+	}
+	
+	/**
+	 * Returns the worker pool, creating one if necessary.
+	 * 
+	 * @return the worker pool.
+	 */
+	private ExecutorService getPool() {
+		if (pool == null)
+			pool = Executors.newFixedThreadPool(threads);
+		return pool;
+	}
+	
+	/**
+	 * Shuts down the worker pool, if any.
+	 */
+	private void shutdownPool() {
+		if (pool == null) return;
+		pool.shutdown();
+		pool = null;
 	}
 	
 	/**
@@ -313,6 +1195,12 @@ public class DpnSat extends Sat {
 	 * splits, updates globals of the other automata,
 	 * and puts them into the workset 
 	 * if <code>level</code> does not exceed the bound.
+	 * Aggregates created by dynamic rules are pushed as new frames
+	 * onto an explicit stack and saturated in turn, 
+	 * so the recursion depth does not grow with the number of threads.
+	 * Frames are not saturated in parallel: a new frame shares the
+	 * automata of the threads not involved in the dynamic rule with
+	 * the frame that created it, and both saturate them in place.
 	 * 
 	 * @param level the depth of the analysis.
 	 * @param c the index of the active automaton.
@@ -322,80 +1210,122 @@ public class DpnSat extends Sat {
 	 */
 	private void sat(int level, int c, Semiring g, Fa[] A, WorkSet<Integer> ind) {
 		
-		log("sat(level: %d, c: %d, g: %s, j: %d, ind: %s)%n", 
+		if (logging()) log("sat(level: %d, c: %d, g: %s, j: %d, ind: %s)%n", 
 				level, c, ""/*g.toRawString()*/, A.length, ind);
+		WorkSet<Frame> frames = new LifoWorkSet<Frame>();
+		frames.add(new Frame(A, ind));
+		while (!frames.isEmpty()) {
+			
+			// Returns if canceled
+			if (stopped()) return;
+			
+			// The frame is released once it is saturated
+			sat(level, c, frames.remove(), frames);
+		}
+	}
+	
+	/**
+	 * Saturates the frame <code>frame</code>, splits and puts the results 
+	 * into the workset. New frames created by dynamic rules are added 
+	 * to <code>frames</code>.
+	 * 
+	 * @param level the depth of the analysis.
+	 * @param c the index of the active automaton.
+	 * @param frame the frame.
+	 * @param frames the frames to be saturated.
+	 */
+	private void sat(int level, int c, Frame frame, WorkSet<Frame> frames) {
+		
+		Fa[] A = frame.A;
+		WorkSet<Integer> ind = frame.ind;
 		int j = A.length;
 		boolean addtoworklist = (ind.size() > 1) ? true : false;
+		long start = (stats != null) ? System.nanoTime() : 0;
 		while (!ind.isEmpty()) {
 			
 			// Returns if canceled
-			if (monitor.isCanceled()) return;
+			if (stopped()) {
+				if (stats != null) stats.stop(SatStatistics.Phase.SATURATE, start);
+				return;
+			}
 			
 			// Removes i from ind
 			int i = (Integer) ind.remove();
-			log("i: %d%n", i);
-			currentThreadId = i + 1;
+			if (logging()) log("i: %d%n", i);
+			currentThreadId.set(i + 1);
 			
-			// Initializes trans by adding all transitions of A[i] to it
+			// Initializes trans by adding all transitions of A[i] to it,
+			// or only those with pending diffs if A[i] is saturated
 			Fa Ai = A[i];
 			WorkSet<Transition> trans = new LifoWorkSet<Transition>();
-			for (Transition t : Ai.trans.keySet())
-				trans.add(t);
+			boolean incremental = Ai.saturated;
+			for (Transition t : Ai.getTransitions()) {
+				if (!incremental || Ai.getDiff(t) != null)
+					trans.add(t);
+			}
+			if (logging()) log("Saturating %d of %d transitions%n", trans.size(), Ai.size());
+			Ai.saturated = false;
+			SatEvents.ThreadSat event = new SatEvents.ThreadSat();
+			event.begin();
+			int processed = 0;
 			
 			// Loops until trans is empty
 			while (!trans.isEmpty()) {
 				
 				// Returns if canceled
-				if (monitor.isCanceled()) return;
+				if (stopped()) {
+					if (stats != null) stats.stop(SatStatistics.Phase.SATURATE, start);
+					return;
+				}
 				
 				// Removes t = (p,a,q) from trans
 				Transition t = (Transition) trans.remove();
-				log("%s%n", t);
+				if (Trace.ENABLED) Trace.record(Trace.Event.TRANSITION, t, null);
+				processed++;
+				if (stats != null) stats.transitions++;
+				if (budget != null) budget.transition();
 				
 //				Semiring d = Ai.getWeight(t);
 
 				// a is epsilon
 				if (t.a.equals(Fa.epsilon)) {
-					Set<Transition> tqSet = Ai.hmaps.get(t.q);
+					Set<Transition> tqSet = Ai.getTransitions(t.q);
 					if (tqSet == null) continue;
 					for (Transition tq : tqSet) {
-						log("\t\t\tTransition reached from epsilon %s%n", tq);
+						if (Trace.ENABLED) Trace.record(Trace.Event.EPSILON, tq, t);
 						if (all()) log("%n\t\t\t%s%n%n", Ai.getWeight(tq).toRawString());
 //						Semiring newd = d.extendPop(Ai.getWeight(tq), monitor);
+						extended();
 						Semiring newd = Ai.getWeight(t).extendPop(Ai.getWeight(tq), monitor);
 						if (update(Ai, trans, newd, t.p, tq.a, tq.q)) {
 							updateListener(tq.a);
 							addtoworklist = true;
 						}
 					}
+					Ai.resetDiff(t);
 					continue;
 				}
 				
 				Semiring d = Ai.getDiff(t);
-				if (d == null) {
-					log("\t\tZero diff at %s%n", t);
-					continue;
-				}
+				if (d == null) continue;
 				
 				// a is not epsilon
-				Set<Rule> rules = rmap.get(new Config(t.p, t.a));
-				if (rules == null) {
-					log("\tNo matching rule found\n");
-					continue;
-				}
+				Config head = new Config(t.p, t.a);
+				Set<Rule> rules = dpn.getRules(head);
+				if (rules == null) continue;
 				for (Rule rule : rules) {
 					
 					// Skips the global rule if A_i doesn't control the context
-					log("\tRule %s%n", rule);
-					if (i != c && rule.isGlobal()) {
-						log("\t\tSkip global rule%n");
-						continue;
-					}
+					if (Trace.ENABLED) Trace.record(Trace.Event.RULE, rule, t);
+					if (i != c && rule.isGlobal()) continue;
 					
 					// Extend: computes new semiring value
+					if (profiler != null) profiler.begin(rule, head);
 					Semiring newd = d.extend(rule.d, monitor);
+					extended();
+					if (stats != null) fired(rule);
 					if (newd.isZero()) {
-						log("\t\tZero after extended%n");
+						if (Trace.ENABLED) Trace.record(Trace.Event.ZERO, rule, t);
 						continue;
 					}
 					
@@ -404,7 +1334,7 @@ public class DpnSat extends Sat {
 					String[] w = rule.right.w;
 					if (rule.isDynamic()) {
 						if (j >= n) {
-							log("\t\tThread bound exceeded%n");
+							if (logging()) log("\t\tThread bound exceeded%n");
 							if(update(Ai, trans, newd, p, w[0], t.q)) {
 								updateListener(w[0]);
 								addtoworklist = true;
@@ -413,8 +1343,8 @@ public class DpnSat extends Sat {
 						}
 						
 						// Creates A_i'
-						log("\t\tNew A_i'%n");
-						Fa newAi = new Fa();
+						if (logging()) log("\t\tNew A_i'%n");
+						Fa newAi = Ai.create();
 						newAi.add(newd, p, w[0], t.q);
 						updateListener(w[0]);
 						Set<Transition> noninits = Ai.getNonInitialTransitions();
@@ -426,12 +1356,13 @@ public class DpnSat extends Sat {
 						}
 						
 						// Creates A_j
-						log("\t\tNew A_j%n");
-						Fa Aj = new Fa();
+						if (logging()) log("\t\tNew A_j%n");
+						Fa Aj = Ai.create();
+						extended();
 						Aj.add(d.extendDynamic(rule.d, monitor), 
 								rule.dynamic.p, rule.dynamic.w[0], Fa.q_f);
 						
-						// Recursive call
+						// Pushes a new frame
 						Fa[] newA = new Fa[j + 1];
 						System.arraycopy(A, 0, newA, 0, j);
 						newA[i] = newAi;
@@ -440,7 +1371,7 @@ public class DpnSat extends Sat {
 						newInd.addAll(ind);
 						newInd.add(i);
 						newInd.add(j);
-						sat(level, c, g, newA, newInd);
+						frames.add(new Frame(newA, newInd));
 						
 						continue;
 					}
@@ -462,7 +1393,8 @@ public class DpnSat extends Sat {
 					}
 					
 					// Push rule
-					String s = String.format("(%s,%s)%d", p, w[0], level);
+					String s = getMidState(rule, level);
+					extended();
 					if (update(Ai, trans, d.extendPush(rule.d, monitor), p, w[0], s)) {
 						updateListener(w[0]);
 						addtoworklist = true;
@@ -472,8 +1404,9 @@ public class DpnSat extends Sat {
 					Set<Transition> set = Ai.getEpsilonTransitionsTo(s);
 					if (set != null) {
 						for (Transition ts : set) {
-							log("\t\t\tTransition reached from epsilon %s%n", ts);
+							if (Trace.ENABLED) Trace.record(Trace.Event.EPSILON, t, ts);
 							if (all()) log("%n\t\t\t%s%n%n", Ai.getWeight(ts).toRawString());
+							extended();
 							if (update(Ai, trans, Ai.getWeight(ts).extendPop(newd, monitor), 
 									ts.p, w[1], t.q)) {
 								updateListener(w[1]);
@@ -482,37 +1415,85 @@ public class DpnSat extends Sat {
 						}
 					}
 				}
+				if (profiler != null) profiler.end();
 				Ai.resetDiff(t);
 			}
+			
+			/*
+			 * A[i] is saturated if all rules were considered, i.e. it 
+			 * controls the context and no dynamic rule can spawn a thread.
+			 */
+			Ai.saturated = incremental && (i == c) && (j >= n || !dynamic);
+			if (event.shouldCommit()) {
+				event.level = level;
+				event.thread = i;
+				event.automata = j;
+				event.processed = processed;
+				event.transitions = Ai.size();
+				event.commit();
+			}
 		}
+		if (stats != null) stats.stop(SatStatistics.Phase.SATURATE, start);
 		
 		/* 
 		 * Returns if sat is called with ind having one element { i }, and
 		 * the saturation procedure does not change the automaton A_i.
 		 */
 		if (!addtoworklist) {
-			log("Automaton unchanged%n%n");
+			if (logging()) log("Automaton unchanged%n%n");
 			return;
 		}
 		
 		if (j == 1) {
-			log("Only one automaton. Do not split.%n%n");
+			if (logging()) log("Only one automaton. Do not split.%n%n");
 			return;
 		}
 		
 		if (level >= k) {
-			log("Context bound reached%n%n");
+			if (logging()) log("Context bound reached%n%n");
+			if (stats != null) stats.aggregatesPruned++;
+			if (deepening) {
+				
+				// Keeps a copy, the automata are shared with the work item
+				Fa[] kept = new Fa[j];
+				for (int i = 0; i < j; i++)
+					kept[i] = A[i].id();
+				frontier.add(new WorkItem(workId++, level, c, null, kept));
+			}
 			return;
 		}
 		
-		log("Splitting...%n");
+		split(level, c, A);
+		
+		if (logging()) log("Returning from sat(level: %d, c: %d, j: %d, ind: %s)%n%n", 
+				level, c, A.length, ind);
+	}
+	
+	/**
+	 * Splits the aggregate <code>A</code> after saturating <code>A[c]</code>,
+	 * and puts the resulting aggregates into the workset.
+	 * 
+	 * @param level the depth of the analysis.
+	 * @param c the index of the active automaton.
+	 * @param A the automata.
+	 */
+	private void split(int level, int c, Fa[] A) {
+		
+		int j = A.length;
+		if (logging()) log("Splitting...%n");
+		long start = 0;
+		if (stats != null) {
+			stats.aggregatesSplit++;
+			start = System.nanoTime();
+		}
 		if (!lazy) {
-			List<Splitted> splitted = A[c].split(currentThreadId, monitor);
-			log("Split count: %d%n", splitted.size());
+			List<Splitted> splitted = A[c].split(currentThreadId.get(), monitor, 
+					(threads > 1) ? getPool() : null);
+			if (logging()) log("Split count: %d%n", splitted.size());
 			for (Splitted s : splitted) {
 				
 				// Returns if canceled
-				if (monitor.isCanceled()) return;
+				if (stopped()) return;
 				
 				// Creates new automata
 				Fa[] newA = new Fa[j];
@@ -520,18 +1501,27 @@ public class DpnSat extends Sat {
 					newA[i] = (i == c) ? s.fa : A[i].id();
 				}
 				
-				WorkItem item = new WorkItem(level, c, s.g, newA);
-				log("Adding to worklist with id=%d: (level: %d, c: %d, s.g: %s, j: %d)%n%n", 
+				WorkItem item = new WorkItem(workId++, level, c, s.g, newA);
+				if (logging()) log("Adding to worklist with id=%d: (level: %d, c: %d, s.g: %s, j: %d)%n%n", 
 						item.id, level, c, ""/*s.g.toRawString()*/, newA.length);
-				workset.add(item);
-				reach.add(s.g, newA);
+				enqueue(item);
 			}
 		} else {
 			approach2(level, c, A);
 		}
-		
-		log("Returning from sat(level: %d, c: %d, j: %d, ind: %s)%n%n", 
-				level, c, A.length, ind);
+		if (stats != null) stats.stop(SatStatistics.Phase.SPLIT, start);
+	}
+	
+	/**
+	 * Counts the firing of the rule <code>rule</code>.
+	 * 
+	 * @param rule the rule.
+	 */
+	private void fired(Rule rule) {
+		int l = rule.right.w.length;
+		stats.fire(rule.isDynamic() ? SatStatistics.RuleKind.DYNAMIC 
+				: (l == 0) ? SatStatistics.RuleKind.POP 
+				: (l == 1) ? SatStatistics.RuleKind.NORMAL : SatStatistics.RuleKind.PUSH);
 	}
 
 	/**
@@ -543,41 +1533,314 @@ public class DpnSat extends Sat {
 	 */
 	public DpnReach poststar(Fa fa, CancelMonitor monitor) {
 		
-		this.monitor = monitor;
+		init(monitor);
 		workId = 0;
-		int processed = 0;
+		WorkItem item = new WorkItem(workId++, 0, -1, g0, fa);
+		if (accounting()) item.bytes = estimateSize(item);
+		queue(item);
+		if (checkpoint != null) {
+			if (deepening)
+				throw new IllegalStateException("Checkpoints do not support iterative deepening");
+			checkpoint.start(Checkpoint.DPN, threadSafe(fa) && threadSafe());
+			journalAdd(item, -1, false);
+		}
 		
-		reach = new DpnReach();
-		workset = new FifoWorkSet<WorkItem>();
-		workset.add(new WorkItem(0, -1, g0, fa));
+		try {
+			explore();
+		} finally {
+			shutdownPool();
+			if (profiler != null) profiler.finish();
+			if (checkpoint != null) {
+				journalState();
+				checkpoint.close();
+			}
+		}
+		return finish();
+	}
+	
+	/**
+	 * Returns <code>true</code> if the rules and the initial global values
+	 * are {@link ThreadSafeSemiring}s.
+	 * 
+	 * @return <code>true</code> if the semiring is thread-safe.
+	 */
+	private boolean threadSafe() {
+		return threadSafe(dpn) && (g0 == null || g0 instanceof ThreadSafeSemiring);
+	}
+	
+	/**
+	 * Continues the run recorded in the checkpoint, 
+	 * which must have been set by {@link #setCheckpoint(Checkpoint)}.
+	 * The aggregates recorded are added to the reachable set again,
+	 * so listeners are notified of them again. In streaming mode, 
+	 * only the aggregates of the work items left unexplored are recorded,
+	 * and the others are only counted.
+	 * Work items queued while exploring a work item that was not 
+	 * finished are discarded, and the work item is explored again.
+	 * The checkpoint goes on being written.
+	 * 
+	 * @param monitor the cancel monitor.
+	 * @return the set of reachable aggregates.
+	 * @throws IOException if the checkpoint cannot be read.
+	 */
+	public DpnReach resume(CancelMonitor monitor) throws IOException {
 		
-		rmap = dpn.getLeftMapper();
+		if (checkpoint == null)
+			throw new IllegalStateException("No checkpoint set");
+		if (deepening)
+			throw new IllegalStateException("Checkpoints do not support iterative deepening");
 		
-		while (!workset.isEmpty()) {
+		init(monitor);
+		List<MappedFile> records = checkpoint.resume(Checkpoint.DPN, threadSafe());
+		try {
 			
-			// Returns if canceled
+			// Reads the live records
+			SemiringCodec codec = checkpoint.getCodec();
+			List<WorkItem> items = new ArrayList<WorkItem>();
+			List<Integer> parents = new ArrayList<Integer>();
+			List<Boolean> reachable = new ArrayList<Boolean>();
+			Set<Integer> ids = new HashSet<Integer>();
+			Set<Integer> done = new HashSet<Integer>();
+			int nextId = 0;
+			for (MappedFile in : records) {
+				byte type = in.get();
+				if (type == DONE) {
+					done.add(in.getInt());
+					continue;
+				}
+				if (type == STATE) {
+					nextId = in.getInt();
+					released = in.getInt();
+					continue;
+				}
+				if (type != ADD)
+					throw new IOException("Corrupt checkpoint: " + checkpoint.getFile());
+				
+				int id = in.getInt();
+				parents.add(in.getInt());
+				int level = in.getInt();
+				int last = in.getInt();
+				reachable.add(in.get() != 0);
+				items.add(readAggregate(in, codec, id, level, last));
+				ids.add(id);
+				nextId = Math.max(nextId, id + 1);
+			}
+			if (items.isEmpty())
+				throw new IOException("Nothing to resume in " + checkpoint.getFile());
+			
+			/*
+			 * Restores the work items whose parents are explored, i.e. 
+			 * released or done, and releases the others.
+			 */
+			workId = nextId;
+			reach.count(released);
+			for (int l = 0; l < items.size(); l++) {
+				WorkItem item = items.get(l);
+				int parent = parents.get(l);
+				if (parent >= 0 && ids.contains(parent) && !done.contains(parent)) {
+					checkpoint.release(item.id);
+					continue;
+				}
+				
+				if (!done.contains(item.id)) queue(item);
+				if (reachable.get(l)) addReach(item.g, item.A);
+			}
+			log("Resuming with %d of %d work items%n", workset.size(), items.size());
+			
+			explore();
+		} finally {
+			shutdownPool();
+			if (profiler != null) profiler.finish();
+			journalState();
+			checkpoint.close();
+		}
+		return finish();
+	}
+	
+	/**
+	 * Initializes the state of a run.
+	 * 
+	 * @param monitor the cancel monitor.
+	 */
+	private void init(CancelMonitor monitor) {
+		
+		this.monitor = monitor;
+		explored = -1;
+		startRun();
+		
+		reach = new DpnReach(retainReach);
+		for (ReachListener listener : reachListeners)
+			reach.addListener(listener);
+		for (DpnQuery query : queries)
+			query.reset();
+		undecided = queries.size();
+		workset = createWorkSet();
+		worklistBytes = reachBytes = 0;
+		shed = lost = false;
+		released = 0;
+		for (Spill spill : spills)
+			spill.delete();
+		spills.clear();
+		
+		frontier = new ArrayList<WorkItem>();
+		midStates = new HashMap<Rule, String[]>();
+		
+		dynamic = dpn.hasDynamicRules();
+	}
+	
+	/**
+	 * Raises the context bound to <code>k</code> and resumes the analysis
+	 * from the frontier cut off by the previous bound. 
+	 * Iterative deepening must be enabled before calling 
+	 * {@link #poststar(Fa, CancelMonitor)}.
+	 * The returned set is the same as the one returned by the previous run,
+	 * extended with the aggregates of the new levels.
+	 * 
+	 * @param k the new context bound.
+	 * @param monitor the cancel monitor.
+	 * @return the set of reachable aggregates.
+	 */
+	public DpnReach deepen(int k, CancelMonitor monitor) {
+		
+		if (!deepening || frontier == null)
+			throw new IllegalStateException("No frontier to deepen from");
+		
+		this.monitor = monitor;
+		this.k = k;
+		startRun();
+		
+		try {
+			
+			// Splits the aggregates saturated at the previous bound
+			List<WorkItem> items = frontier;
+			frontier = new ArrayList<WorkItem>();
+			for (int l = 0; l < items.size(); l++) {
+				WorkItem item = items.get(l);
+				if (stopped()) {
+					frontier.addAll(items.subList(l, items.size()));
+					break;
+				}
+				if (item.level >= k) {
+					frontier.add(item);
+					continue;
+				}
+				currentThreadId.set(item.last + 1);
+				split(item.level, item.last, item.A);
+			}
+			
+			explore();
+		} finally {
+			shutdownPool();
+			if (profiler != null) profiler.finish();
+		}
+		return finish();
+	}
+	
+	/**
+	 * Continues the last run from the work items it left unexplored,
+	 * e.g. because its budget was exhausted, and returns the same set 
+	 * of reachable aggregates, extended with the new aggregates.
+	 * The budget is started again. A work item that was being explored 
+	 * when the run was canceled is not explored again, so the result
+	 * of a canceled run remains incomplete. Runs with a checkpoint 
+	 * are continued by {@link #resume(CancelMonitor)} instead.
+	 * 
+	 * @param monitor the cancel monitor.
+	 * @return the set of reachable aggregates.
+	 * @see #isComplete()
+	 * @see DpnReach#getUnexplored()
+	 */
+	public DpnReach proceed(CancelMonitor monitor) {
+		
+		if (reach == null)
+			throw new IllegalStateException("No run to proceed");
+		if (checkpoint != null)
+			throw new IllegalStateException("Checkpointed runs are continued by resume");
+		
+		this.monitor = monitor;
+		startRun();
+		try {
+			explore();
+		} finally {
+			shutdownPool();
+			if (profiler != null) profiler.finish();
+		}
+		return finish();
+	}
+	
+	/**
+	 * Records in the reachable set whether the run completed 
+	 * and the work items it left unexplored.
+	 * 
+	 * @return the set of reachable aggregates.
+	 */
+	private DpnReach finish() {
+		
+		List<WorkItem> unexplored = new ArrayList<WorkItem>();
+		Iterator<WorkItem> itr = workset.itr();
+		while (itr.hasNext())
+			unexplored.add(itr.next());
+		int spilled = 0;
+		for (Spill spill : spills)
+			spilled += spill.count;
+		reach.finish(completed(), unexplored, spilled);
+		return reach;
+	}
+	
+	/**
+	 * Explores the work items in the workset.
+	 */
+	private void explore() {
+		
+		int processed = 0;
+		while (!workset.isEmpty() || reload()) {
+			
+			// Returns if canceled, all queries are decided or the budget is exhausted
 			processed++;
-			if (monitor.isCanceled()) {
+			if (stopped() || exhausted()) {
 				Sat.info("Analyzed: %d aggregates (%d left)%n", 
 						processed, workset.size());
-				return reach;
+				if (Trace.ENABLED && monitor.isCanceled()) Trace.canceled();
+				if (budget != null && budget.isExhausted())
+					log("Budget exhausted: %s%n", budget);
+				return;
+			}
+			
+			// Commits the checkpoint between work items
+			if (checkpoint != null && checkpoint.due()) {
+				long start = (stats != null) ? System.nanoTime() : 0;
+				journalState();
+				checkpoint.commit();
+				if (stats != null) stats.stop(SatStatistics.Phase.CHECKPOINT, start);
 			}
 			
 			// Removes a work item
 			WorkItem wi = workset.remove();
-			monitor.subTask(String.format(
-					"Analyzing aggregate %d (level %d) ...", wi.id, wi.level + 1));
-			log("Removing from worklist (id=%d): (level: %d, last: %d, g: %s, j: %d)%n",
+			await(wi);
+			explored = wi.id;
+			worklistBytes -= wi.bytes;
+			if (stats != null) stats.memory(worklistBytes, reachBytes);
+			if (Trace.ENABLED) Trace.record(Trace.Event.AGGREGATE, wi.id, wi.level);
+			if (stats != null) stats.aggregatesProcessed++;
+			if (budget != null) budget.aggregate();
+			SatEvents.WorkItem event = new SatEvents.WorkItem();
+			event.begin();
+			monitor.subTask("Analyzing aggregate " + wi.id + " (level " + (wi.level + 1) + ") ...");
+			if (logging()) log("Removing from worklist (id=%d): (level: %d, last: %d, g: %s, j: %d)%n",
 					wi.id, wi.level, wi.last, (lazy || !all()) ? "" : wi.g.toRawString(), wi.A.length);
 //			System.out.printf("%d (level %d): %n", wi.id, wi.level);
 			
 			// Returns if the threshold reached
 			if (wi.level >= k) {
 				
-				//FIXME deletes the result to save some space
-				if (wi.g != null) wi.g.free();
-				if (!lazy) wi.A[wi.last].free();
+				// Deletes the result to save some space, unless it is kept
+				if (stats != null) stats.aggregatesPruned++;
+				if (!retainReach) {
+					if (wi.g != null) wi.g.free();
+					if (!lazy) wi.A[wi.last].free();
+				}
 				
+				if (checkpoint != null) journalDone(wi);
 				continue;
 			}
 			
@@ -586,16 +1849,18 @@ public class DpnSat extends Sat {
 			for (int i = 0; i < A.length; i++) {
 				
 				// Do not saturate the previous automaton
-				log("i: %d, wi.last: %d%n", i, wi.last);
+				if (logging()) log("i: %d, wi.last: %d%n", i, wi.last);
 				if (i == wi.last) continue;
 				
 				// Lifts A_i with g
-				log("Lifting ...");
+				if (logging()) log("Lifting ...");
+				long start = (stats != null) ? System.nanoTime() : 0;
 				Fa[] newA;
 				newA = new Fa[A.length];
 				System.arraycopy(A, 0, newA, 0, A.length);
 				newA[i] = A[i].lift(wi.g);
-				log("done%n");
+				if (stats != null) stats.stop(SatStatistics.Phase.LIFT, start);
+				if (logging()) log("done%n");
 				
 				// Saturates
 				WorkSet<Integer> ind = new LifoWorkSet<Integer>();
@@ -603,29 +1868,176 @@ public class DpnSat extends Sat {
 				sat(wi.level + 1, i, wi.g, newA, ind);
 			}
 			
-			// Deletes g
+			// Records that the work item is finished, unless interrupted
+			if (monitor.isCanceled()) lost = true;
+			if (checkpoint != null && !stopped())
+				journalDone(wi);
+			
+			// Deletes g, unless it is kept in the reachable set
 			if (wi.g != null) {
-				wi.g.free();
+				if (!retainReach || wi.level == 0) wi.g.free();
 				wi.g = null;
 			}
 			
-			// Keeps the initial automaton, it must be deleted later
-			if (wi.level > 0) {
+			// Keeps the initial automaton, it must be deleted later,
+			// and the kept aggregates, which DpnReach.free() deletes
+			if (wi.level > 0 && !retainReach) {
 				for (int i = 0; i < A.length; i++) {
 					A[i].free();
 				}
 			}
+			
+			if (event.shouldCommit()) {
+				event.id = wi.id;
+				event.level = wi.level;
+				event.automata = A.length;
+				event.transitions = wi.size;
+				event.workset = workset.size();
+				event.commit();
+			}
 		}
 		
 		Sat.info("Analyzed: %d aggregates (%d left)%n", 
 				processed, workset.size());
-		return reach;
 	}
 	
 	/**
-	 * Counts the number of work items
+	 * A file of spilled work items. The file is closed for writing
+	 * once it exceeds its size limit.
+	 */
+	private static class Spill {
+		File file;
+		DataOutputStream out;
+		FaFile.Buffer buffer = new FaFile.Buffer();
+		int count;
+		long size;
+		long limit = Long.getLong("jwpds.spill.size", 1L << 28);
+		
+		Spill() throws IOException {
+			file = File.createTempFile("jwpds", ".spill");
+			file.deleteOnExit();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		}
+		
+		boolean isOpen() {
+			return out != null;
+		}
+		
+		void write(WorkItem item, SemiringCodec codec) throws IOException {
+			out.writeInt(item.id);
+			out.writeInt(item.level);
+			out.writeInt(item.last);
+			buffer.reset();
+			writeAggregate(buffer, codec, item);
+			buffer.writeTo(out);
+			count++;
+			size += 12 + buffer.size();
+			if (size >= limit) close();
+		}
+		
+		/**
+		 * Closes the file and reads its work items, memory-mapped.
+		 */
+		List<WorkItem> read(SemiringCodec codec) throws IOException {
+			close();
+			List<WorkItem> items = new ArrayList<WorkItem>(count);
+			FileInputStream in = new FileInputStream(file);
+			try {
+				MappedFile buf = new MappedFile(in.getChannel());
+				for (int l = 0; l < count; l++) {
+					int id = buf.getInt();
+					int level = buf.getInt();
+					int last = buf.getInt();
+					items.add(readAggregate(buf, codec, id, level, last));
+				}
+			} catch (RuntimeException e) {
+				throw new IOException("Corrupt file: " + file, e);
+			} finally {
+				in.close();
+			}
+			return items;
+		}
+		
+		void close() throws IOException {
+			if (out == null) return;
+			out.close();
+			out = null;
+		}
+		
+		void delete() {
+			try {
+				close();
+			} catch (IOException e) {
+				// Deleted anyway
+			}
+			file.delete();
+		}
+	}
+	
+	/**
+	 * A saturation frame: an aggregate and the indices of 
+	 * its automata to be saturated.
+	 */
+	private static class Frame {
+		Fa[] A;
+		WorkSet<Integer> ind;
+		
+		Frame(Fa[] A, WorkSet<Integer> ind) {
+			this.A = A;
+			this.ind = ind;
+		}
+	}
+	
+	/**
+	 * Strategies for scheduling aggregates in the workset.
+	 */
+	public enum Strategy {
+		
+		/**
+		 * Breadth-first over context levels.
+		 */
+		BFS,
+		
+		/**
+		 * Depth-first, i.e. the most recent aggregate first.
+		 */
+		DFS,
+		
+		/**
+		 * Best-first by level: the aggregate with the highest level first.
+		 */
+		DEEPEST,
+		
+		/**
+		 * Best-first by size: the aggregate with the fewest transitions first.
+		 */
+		SMALLEST,
+		
+		/**
+		 * Best-first by the user-supplied priority.
+		 * 
+		 * @see DpnSat#setPriority(Comparator)
+		 */
+		PRIORITY
+	}
+	
+	/**
+	 * Orders work items by decreasing level.
 	 */
-	static int workId = 0;
+	public static final Comparator<WorkItem> DEEPEST_FIRST = new Comparator<WorkItem>() {
+		public int compare(WorkItem w1, WorkItem w2) {
+			return w2.level - w1.level;
+		}
+	};
+	
+	/**
+	 * Orders work items by increasing number of transitions.
+	 */
+	public static final Comparator<WorkItem> SMALLEST_FIRST = new Comparator<WorkItem>() {
+		public int compare(WorkItem w1, WorkItem w2) {
+			return (w1.size < w2.size) ? -1 : ((w1.size == w2.size) ? 0 : 1);
+		}
+	};
 	
 	/**
 	 * Worklist entry.
@@ -633,20 +2045,81 @@ public class DpnSat extends Sat {
 	 * @author suwimont
 	 *
 	 */
-	private class WorkItem {
+	public static class WorkItem {
 		int level;
 		int last;
 		Semiring g;
 		Fa[] A;
 		int id;
+		long size;
+		
+		/**
+		 * The estimated size of the aggregate, if accounted.
+		 */
+		long bytes;
+		
+		/**
+		 * The encoding of the aggregate in the checkpoint, 
+		 * or <code>null</code> if done.
+		 */
+		Future<?> journaled;
 		
-		public WorkItem(int level, int last, Semiring g, Fa... A) {
+		WorkItem(int id, int level, int last, Semiring g, Fa... A) {
+			this.id = id;
 			this.level = level;
 			this.last = last;
 			this.g = g;
 			this.A = A;
 			
-			this.id = workId++;
+			for (int i = 0; i < A.length; i++)
+				size += A[i].size();
+		}
+		
+		/**
+		 * Returns the context level of this work item.
+		 * 
+		 * @return the level.
+		 */
+		public int getLevel() {
+			return level;
+		}
+		
+		/**
+		 * Returns the index of the automaton that was active last.
+		 * 
+		 * @return the index of the last active automaton.
+		 */
+		public int getLast() {
+			return last;
+		}
+		
+		/**
+		 * Returns the automata of this work item. 
+		 * They must not be modified.
+		 * 
+		 * @return the automata.
+		 */
+		public Fa[] getAutomata() {
+			return A;
+		}
+		
+		/**
+		 * Returns the total number of transitions when this work item
+		 * was created.
+		 * 
+		 * @return the number of transitions.
+		 */
+		public long size() {
+			return size;
+		}
+		
+		/**
+		 * Returns the id of this work item.
+		 * 
+		 * @return the id.
+		 */
+		public int getId() {
+			return id;
 		}
 	}
 }
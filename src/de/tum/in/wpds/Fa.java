@@ -1,15 +1,30 @@
 package de.tum.in.wpds;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Finite automaton.
  * 
+ * <p>The transitions are stored in hash maps on the heap. Subclasses may 
+ * provide another storage by overriding {@link #create()}, 
+ * {@link #put(Transition, Semiring, Semiring)}, {@link #getWeight(Transition)},
+ * {@link #getDiff(Transition)}, {@link #resetDiff(Transition)}, 
+ * {@link #getTransitions()}, {@link #getTransitions(String)}, 
+ * {@link #getEpsilonTransitionsTo(String)} and {@link #size()};
+ * all other methods are implemented in terms of these.
+ * 
+ * <p>An automaton is not thread-safe; {@link #freeze()} returns
+ * an immutable copy that is.
+ * 
  * @author suwimont
  *
  */
@@ -32,6 +47,13 @@ public class Fa {
 	 */
 	HashMap<String, Set<Transition>> emaps = new HashMap<String, Set<Transition>>();
 	
+	/**
+	 * Determines whether this automaton is saturated, i.e. every transition
+	 * without a pending diff has already been processed under all rules.
+	 * Such transitions need not be considered again when saturating.
+	 */
+	boolean saturated = false;
+	
 	/**
 	 * The epsilon symbol.
 	 */
@@ -63,24 +85,41 @@ public class Fa {
 	 * 			otherwise <code>false</code> is returned.
 	 */
 	public boolean add(Semiring r, Transition t) {
+		return add(r, t, null);
+	}
+	
+	/**
+	 * Adds a transition <code>t</code> with weight r to this fa,
+	 * counting the semiring operations in <code>stats</code>.
+	 * 
+	 * @param r the semiring value.
+	 * @param t the transition.
+	 * @param stats the statistics, or <code>null</code>.
+	 * @return <code>true</code> if the transition is new or r changes
+	 * 			the existing semiring value of the transition.
+	 * @see #add(Semiring, Transition)
+	 */
+	boolean add(Semiring r, Transition t, SatStatistics stats) {
 		
 		boolean changed = false;
-		Semiring oldr = trans.remove(t);
+		Semiring oldr = getWeight(t);
 		Semiring newr, newdiff;
 		if (oldr == null) {
-			Sat.log("\t\tAdding new ");
 			newr = r;
 			newdiff = r.id();
 			changed = true;
 		} else {
-			Semiring olddiff = diffs.remove(t);
+			Semiring olddiff = getDiff(t);
 			if (oldr.equals(r)) {
 				newr = oldr;
 				newdiff = olddiff;
-				Sat.log("\t\tIgnoring ");
 			} else {
 				newr = r.combine(oldr);
 				newdiff = newr.diff(oldr);
+				if (stats != null) {
+					stats.combineCalls += (olddiff != null) ? 2 : 1;
+					stats.diffCalls++;
+				}
 				if (olddiff != null) {
 					Semiring s = newdiff.combine(olddiff);
 					olddiff.free();
@@ -90,23 +129,60 @@ public class Fa {
 				
 				if (!newr.equals(oldr)) {
 					changed = true;
-					Sat.log("\t\tAdding modified ");
 					if (Sat.all()) {
 						Sat.log("oldr: %s%n%n", oldr.toRawString());
-						Sat.log("\t\tr: %s%n%n\t\t", r.toRawString());
+						Sat.log("\t\tr: %s%n%n", r.toRawString());
 					}
-				} else {
-					Sat.log("\t\tIgnoring ");
 				}
 				oldr.free();
 			}
 		}
 		
-		Sat.log("%s%n", t);
+		if (Trace.ENABLED)
+			Trace.record(!changed ? Trace.Event.IGNORE 
+					: (oldr == null) ? Trace.Event.ADD : Trace.Event.CHANGE, t, null);
 		if (Sat.all())
-			Sat.log("\t\t%s%n%n", newr.toRawString());
-		trans.put(t, newr);
-		diffs.put(t, newdiff);
+			Sat.log("\t\t%s: %s%n%n", t, newr.toRawString());
+		put(t, newr, newdiff);
+		
+//		if (changed && t.p.equals(q_i))
+//			newr.store();
+		
+		return changed;
+	}
+	
+	/**
+	 * Creates a new empty automaton with the same storage as this automaton.
+	 * 
+	 * @return a new empty automaton.
+	 */
+	protected Fa create() {
+		return new Fa();
+	}
+	
+	/**
+	 * Returns an immutable copy of this automaton with its weights and 
+	 * pending diffs, which can be shared by threads without locks.
+	 * 
+	 * @return the frozen automaton.
+	 * @see FrozenFa
+	 */
+	public FrozenFa freeze() {
+		return new FrozenFa(this);
+	}
+	
+	/**
+	 * Puts the transition <code>t</code> with the weight <code>r</code>
+	 * and the pending diff <code>diff</code>, replacing existing values.
+	 * 
+	 * @param t the transition.
+	 * @param r the semiring value.
+	 * @param diff the diff, or <code>null</code> if nothing is pending.
+	 */
+	protected void put(Transition t, Semiring r, Semiring diff) {
+		
+		trans.put(t, r);
+		diffs.put(t, diff);
 		
 		// Update hmaps
 		Set<Transition> set = hmaps.get(t.p);
@@ -125,11 +201,6 @@ public class Fa {
 			}
 			set.add(t);
 		}
-		
-//		if (changed && t.p.equals(q_i))
-//			newr.store();
-		
-		return changed;
 	}
 	
 	/**
@@ -184,10 +255,21 @@ public class Fa {
 		return trans.get(t);
 	}
 	
+	/**
+	 * Returns the pending diff of the transition <code>t</code>.
+	 * 
+	 * @param t the transition.
+	 * @return the diff, or <code>null</code> if nothing is pending.
+	 */
 	public Semiring getDiff(Transition t) {
 		return diffs.get(t);
 	}
 	
+	/**
+	 * Frees and clears the pending diff of the transition <code>t</code>.
+	 * 
+	 * @param t the transition.
+	 */
 	public void resetDiff(Transition t) {
 		Semiring d = diffs.remove(t);
 		if (d != null) {
@@ -203,14 +285,24 @@ public class Fa {
 	 * @return all transitions that start from the initial state.
 	 */
 	public Set<Transition> getInitialTransitions() {
-		return hmaps.get(q_i);
+		return getTransitions(q_i);
+	}
+	
+	/**
+	 * Gets all transitions of this automaton.
+	 * 
+	 * @return all transitions.
+	 */
+	public Set<Transition> getTransitions() {
+		return trans.keySet();
 	}
 	
 	/**
 	 * Gets all transitions leaving the state <code>q</code>.
 	 * 
 	 * @param q the state.
-	 * @return the set of transitions leaving the state <code>q</code>.
+	 * @return the set of transitions leaving the state <code>q</code>,
+	 * 		or <code>null</code> if there is none.
 	 */
 	public Set<Transition> getTransitions(String q) {
 		return hmaps.get(q);
@@ -227,7 +319,7 @@ public class Fa {
 	public Set<Transition> getTransitions(String q, String a) {
 		
 		Set<Transition> trans = new HashSet<Transition>();
-		Set<Transition> all = hmaps.get(q);
+		Set<Transition> all = getTransitions(q);
 		if (all == null) return trans;
 		
 		for (Transition t : all) {
@@ -248,7 +340,7 @@ public class Fa {
 	 */
 	public boolean reachable(String a) {
 		
-		Set<Transition> all = hmaps.get(q_i);
+		Set<Transition> all = getTransitions(q_i);
 		if (all == null) return false;
 		
 		for (Transition t : all) {
@@ -276,12 +368,9 @@ public class Fa {
 	 */
 	public Set<Transition> getNonInitialTransitions() {
 		Set<Transition> set = new HashSet<Transition>();
-		for (Map.Entry<String, Set<Transition>> hmap : hmaps.entrySet()) {
-			if (!isInitial(hmap.getKey()))
-				set.addAll(hmap.getValue());
-			
-//			if (map.getKey().matches("\\(.*,.*\\)"))
-//				set.addAll(map.getValue());
+		for (Transition t : getTransitions()) {
+			if (!isInitial(t.p))
+				set.add(t);
 		}
 		
 		return set;
@@ -293,8 +382,8 @@ public class Fa {
 	 * @return labels of this automaton.
 	 */
 	public Set<String> getLabels() {
-		HashSet<String> set = new HashSet<String>((int) (1.4*trans.size()));
-		for (Transition t : trans.keySet()) {
+		HashSet<String> set = new HashSet<String>((int) (1.4*size()));
+		for (Transition t : getTransitions()) {
 			set.add(t.a);
 		}
 		return set;
@@ -314,15 +403,37 @@ public class Fa {
 	 * Lifts this automaton with <code>g</code>.
 	 * The method returns a new automaton.
 	 * This automaton remains unchanged.
+	 * If this automaton is saturated, the lifted automaton is also saturated,
+	 * and only the initial transitions whose weights are changed by lifting
+	 * get pending diffs.
 	 * 
 	 * @param g the semiring to be lifted with.
 	 * @return the lifted automaton.
 	 */
 	public Fa lift(Semiring g) {
-		Fa lifted = new Fa();
-		for (Map.Entry<Transition, Semiring> maps : trans.entrySet()) {
-			Transition t = maps.getKey();
-			Semiring d = maps.getValue();
+		Fa lifted = create();
+		
+		// Saturated: only transitions whose weights change become pending
+		if (saturated) {
+			for (Transition t : getTransitions()) {
+				Semiring d = getWeight(t);
+				Semiring diff = getDiff(t);
+				if (isInitial(t.p)) {
+					Semiring newd = d.lift(g);
+					diff = newd.equals(d) ? copy(diff) : newd.id();
+					d = newd;
+				} else {
+					d = d.id();
+					diff = copy(diff);
+				}
+				lifted.put(t, d, diff);
+			}
+			lifted.saturated = true;
+			return lifted;
+		}
+		
+		for (Transition t : getTransitions()) {
+			Semiring d = getWeight(t);
 			if (isInitial(t.p)) {
 				d = d.lift(g);
 			} else {
@@ -334,66 +445,158 @@ public class Fa {
 	}
 	
 	/**
-	 * Lazily splits this automaton.
+	 * Copies the semiring value <code>d</code>, 
+	 * which may be <code>null</code>.
+	 * 
+	 * @param d the semiring value.
+	 * @return the copy.
+	 */
+	private static Semiring copy(Semiring d) {
+		return (d == null) ? null : d.id();
+	}
+	
+	/**
+	 * Eagerly splits this automaton by global values.
 	 * 
 	 * @param tid the active thread id.
 	 * @param monitor the cancel monitor.
 	 * @return a set of splitted aggregates.
 	 */
 	public List<Splitted> split(int tid, CancelMonitor monitor) {
+		return split(tid, monitor, null);
+	}
+	
+	/**
+	 * Eagerly splits this automaton by global values.
+	 * The splits are grouped by their global values with a hash index,
+	 * which requires {@link Semiring#hashCode()} to be consistent with 
+	 * {@link Semiring#equals(Object)}.
+	 * If <code>pool</code> is not <code>null</code> and the semiring is a 
+	 * {@link ThreadSafeSemiring}, the initial transitions are restricted
+	 * in parallel, by workers running as the active thread <code>tid</code>
+	 * (see {@link DpnSat#getCurrentThreadId()}).
+	 * The non-initial transitions are copied into every split, 
+	 * because each split owns its weights: they are freed with
+	 * the split and may be updated in place.
+	 * 
+	 * @param tid the active thread id.
+	 * @param monitor the cancel monitor.
+	 * @param pool the worker pool, or <code>null</code>.
+	 * @return a set of splitted aggregates.
+	 */
+	public List<Splitted> split(final int tid, final CancelMonitor monitor, ExecutorService pool) {
+		
+		SatEvents.EagerSplit event = new SatEvents.EagerSplit();
+		event.begin();
+		
+		// Separates initial (non-epsilon) and non-initial transitions
+		ArrayList<Transition> inits = new ArrayList<Transition>();
+		ArrayList<Transition> noninits = new ArrayList<Transition>();
+		for (Transition t : getTransitions()) {
+			if (!isInitial(t.p))
+				noninits.add(t);
+			else if (!t.a.equals(epsilon))
+				inits.add(t);
+		}
+		
+		// Restricts every initial transition to each of its globals
+		Semiring[][] restricted = new Semiring[inits.size()][];
+		if (pool != null && inits.size() > 1 
+				&& getWeight(inits.get(0)) instanceof ThreadSafeSemiring) {
+			List<Future<Semiring[]>> results = new ArrayList<Future<Semiring[]>>(inits.size());
+			for (Transition t : inits) {
+				final Semiring d = getWeight(t);
+				results.add(pool.submit(new Callable<Semiring[]>() {
+					public Semiring[] call() {
+						DpnSat.setCurrentThreadId(tid);
+						return restrict(d, monitor);
+					}
+				}));
+			}
+			for (int l = 0; l < restricted.length; l++) {
+				try {
+					restricted[l] = results.get(l).get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					monitor.setCanceled(true);
+					return new ArrayList<Splitted>();
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		} else {
+			for (int l = 0; l < restricted.length; l++)
+				restricted[l] = restrict(getWeight(inits.get(l)), monitor);
+		}
 		
+		// Groups by global values
 		ArrayList<Splitted> splitted = new ArrayList<Splitted>();
-		for (Map.Entry<Transition, Semiring> maps : trans.entrySet()) {
+		HashMap<Semiring, Splitted> index = new HashMap<Semiring, Splitted>();
+		for (int l = 0; l < restricted.length; l++) {
 			
 			// Returns if canceled
 			if (monitor.isCanceled()) return splitted;
 			
-			Transition t = maps.getKey();
-			
-			// Skips noninitial or epsilon transition
-			if (!isInitial(t.p) || t.a.equals(epsilon))
-				continue;
-			
-			Semiring d = maps.getValue();
-			Set<Semiring> set = d.getGlobals();
-			for (Semiring g : set) {
-				
-				// Returns if canceled
-				if (monitor.isCanceled()) return splitted;
-				
-				boolean added = false;
-				for (Splitted s : splitted) {
-					if (s.g.equals(g)) {
-						Sat.log("\tIndex: %d", splitted.indexOf(s));
-						s.fa.add(d.restrict(g), t);
-						added = true;
-						break;
-					}
-				}
-				if (!added) {
-					Sat.log("\tNew index: %d", splitted.size());
-					Splitted s = new Splitted(g);
-					s.fa.add(d.restrict(g), t);
+			Transition t = inits.get(l);
+			Semiring[] r = restricted[l];
+			for (int m = 0; m < r.length; m += 2) {
+				Splitted s = index.get(r[m]);
+				if (s == null) {
+					if (Sat.logging()) Sat.log("\tNew index: %d", splitted.size());
+					s = new Splitted(r[m]);
+					index.put(r[m], s);
 					splitted.add(s);
 				}
+				s.fa.add(r[m + 1], t);
 			}
 		}
-		Sat.log("splitted.size(): %d%n", splitted.size());
+		if (Sat.logging()) Sat.log("splitted.size(): %d%n", splitted.size());
 		
-		// Copies non-initial transitions
-		for (Map.Entry<Transition, Semiring> maps : trans.entrySet()) {
-			Transition t = maps.getKey();
-			
-			if (isInitial(t.p))
-				continue;
-			
-			for (Splitted s : splitted)
-				s.fa.add(getWeight(t).id(), t);
+		// Copies non-initial transitions, which are new in every split.
+		// They are not shared: the weights are freed per automaton.
+		Semiring[] weights = new Semiring[noninits.size()];
+		for (int l = 0; l < weights.length; l++)
+			weights[l] = getWeight(noninits.get(l));
+		for (Splitted s : splitted) {
+			for (int l = 0; l < weights.length; l++)
+				s.fa.put(noninits.get(l), weights[l].id(), weights[l].id());
 		}
 		
+		if (event.shouldCommit()) {
+			event.transitions = size();
+			event.initialTransitions = inits.size();
+			event.splits = splitted.size();
+			event.commit();
+		}
 		return splitted;
 	}
 	
+	/**
+	 * Restricts <code>d</code> to each of its globals.
+	 * The result contains pairs of a global value and 
+	 * the restricted semiring value.
+	 * 
+	 * @param d the semiring value.
+	 * @param monitor the cancel monitor.
+	 * @return the global values and restricted values, alternately.
+	 */
+	private static Semiring[] restrict(Semiring d, CancelMonitor monitor) {
+		
+		Set<Semiring> set = d.getGlobals();
+		Semiring[] r = new Semiring[2 * set.size()];
+		int m = 0;
+		for (Semiring g : set) {
+			
+			// Returns if canceled
+			if (monitor.isCanceled()) 
+				return Arrays.copyOf(r, m);
+			
+			r[m++] = g;
+			r[m++] = d.restrict(g);
+		}
+		return r;
+	}
+	
 	/**
 	 * A tuple (g,fa), where g is a semiring value and fa is an automaton.
 	 * 
@@ -411,7 +614,7 @@ public class Fa {
 		 */
 		Splitted(Semiring g) {
 			this.g = g;
-			fa = new Fa();
+			fa = create();
 		}
 	}
 	
@@ -469,39 +672,56 @@ public class Fa {
 	 * all its initial transitions are conjoined with <code>eqclass</code>.
 	 * The method creates a new automaton.
 	 * This automaton remains unchanged.
+	 * If this automaton is saturated, the new automaton is also saturated,
+	 * and only the initial transitions whose weights are changed get
+	 * pending diffs.
 	 * 
 	 * @param eqclass
 	 * @return
 	 */
 	public Fa and(Semiring eqclass) {
-		Fa A = new Fa();
-		for (Map.Entry<Transition, Semiring> map : trans.entrySet()) {
+		Fa A = create();
+		for (Transition t : getTransitions()) {
 			
-			Transition t = map.getKey();
-			Semiring d = map.getValue();
+			Semiring d = getWeight(t);
 			
 			if (isInitial(t.p)) {
 				Semiring newd = d.id().andWith(eqclass.id());
 				if (newd.isZero()) 
 					continue;
-				A.add(newd, t);
+				if (saturated)
+					A.put(t, newd, newd.equals(d) ? copy(getDiff(t)) : newd.id());
+				else
+					A.add(newd, t);
+			} else if (saturated) {
+				A.put(t, d.id(), copy(getDiff(t)));
 			} else {
 				A.add(d.id(), t);
 			}
 		}
+		A.saturated = saturated;
 		return A;
 	}
 	
 	/**
 	 * Returns a copy of this automaton.
+	 * If this automaton is saturated, the copy keeps the pending diffs
+	 * and remains saturated.
 	 * Note that transition objects are reused; only semiring values are copied.
 	 * 
 	 * @return a copy of this automaton.
 	 */
 	public Fa id() {
-		Fa A = new Fa();
-		for (Map.Entry<Transition, Semiring> map : trans.entrySet()) {
-			A.add(map.getValue().id(), map.getKey());
+		Fa A = create();
+		if (saturated) {
+			for (Transition t : getTransitions())
+				A.put(t, getWeight(t).id(), copy(getDiff(t)));
+			A.saturated = true;
+			return A;
+		}
+		
+		for (Transition t : getTransitions()) {
+			A.add(getWeight(t).id(), t);
 		}
 		return A;
 	}
@@ -530,13 +750,29 @@ public class Fa {
 	
 	/**
 	 * [Lazy] Updates every transition in this automaton with <code>newglobal</code>.
+	 * If this automaton is saturated, it remains saturated, and only 
+	 * the transitions whose weights are changed get pending diffs.
 	 * 
 	 * @param newglobal the new global values.
 	 * @see Semiring#updateGlobal(Semiring).
 	 */
 	public void updateGlobal(Semiring newglobal) {
-		for (Semiring d : trans.values()) {
+		for (Transition t : getTransitions()) {
+			Semiring d = getWeight(t);
+			if (!saturated) {
+				d.updateGlobal(newglobal);
+				continue;
+			}
+			
+			// Saturated: the transition becomes pending if its weight changes
+			Semiring old = d.id();
 			d.updateGlobal(newglobal);
+			if (!d.equals(old)) {
+				Semiring diff = getDiff(t);
+				put(t, d, d.id());
+				if (diff != null) diff.free();
+			}
+			old.free();
 		}
 //		Set<Transition> inits = getInitialTransitions();
 //		if (inits == null) return;
@@ -545,18 +781,57 @@ public class Fa {
 //		}
 	}
 	
+	/**
+	 * The estimated number of bytes of a transition in the heap, 
+	 * including the entries of the indexes.
+	 */
+	static final int TRANSITION_BYTES = 136;
+	
+	/**
+	 * The estimated number of bytes of a semiring value that is not
+	 * a {@link SizedSemiring}.
+	 */
+	static final int WEIGHT_BYTES = 16;
+	
+	/**
+	 * Returns the estimated number of bytes used by this automaton:
+	 * its transitions, its indexes, and its semiring values and diffs.
+	 * The estimate takes time linear in the number of transitions.
+	 * 
+	 * @return the estimated number of bytes.
+	 */
+	public long estimateSize() {
+		long bytes = (long) size() * TRANSITION_BYTES;
+		for (Transition t : getTransitions()) {
+			bytes += estimateSize(getWeight(t));
+			bytes += estimateSize(getDiff(t));
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Returns the estimated number of bytes used by the semiring value 
+	 * <code>d</code>.
+	 * 
+	 * @param d the semiring value, or <code>null</code>.
+	 * @return the estimated number of bytes.
+	 * @see SizedSemiring
+	 */
+	static long estimateSize(Semiring d) {
+		if (d == null) return 0;
+		if (d instanceof SizedSemiring) return ((SizedSemiring) d).estimateSize();
+		return WEIGHT_BYTES;
+	}
+	
 	/**
 	 * Frees the semirings associated with this automaton.
 	 */
 	public void free() {
-		for (Semiring d : trans.values()) {
-			if (d == null) continue;
-			d.free();
-			d = null;
-		}
-		for (Semiring d : diffs.values()) {
-			if (d == null) continue;
-			d.free();
+		for (Transition t : getTransitions()) {
+			Semiring d = getWeight(t);
+			if (d != null) d.free();
+			d = getDiff(t);
+			if (d != null) d.free();
 		}
 	}
 	
@@ -568,10 +843,10 @@ public class Fa {
 	public String toString() {
 		
 		StringBuilder out = new StringBuilder();
-		for (Map.Entry<Transition, Semiring> pair : trans.entrySet()) {
-			out.append(pair.getKey());
+		for (Transition t : getTransitions()) {
+			out.append(t);
 			out.append(" (");
-			out.append(pair.getValue());
+			out.append(getWeight(t));
 			out.append(")\n");
 		}
 		return out.toString();
@@ -0,0 +1,411 @@
+package de.tum.in.wpds;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Binary format of finite automata.
+ *
+ * <p>An automaton is stored as a block consisting of a header
+ * (magic number, version, length of the rest of the block),
+ * followed by flags, the interned symbol table, a directory mapping
+ * each state to its range of outgoing transitions, the transitions
+ * as records sorted by (from-state, label, to-state),
+ * and finally the weights and pending diffs encoded by a
+ * {@link SemiringCodec}.
+ *
+ * <p>Blocks are written as a stream, without buffering them in memory.
+ * Offsets are longs, so a block may exceed 2 GB; files are mapped in
+ * chunks. A single symbol or encoded semiring value must not exceed
+ * 64 MB.
+ *
+ * <p>Reading a block does not decode it: the automaton returned is a
+ * read-only {@link MappedFa} backed by the buffer, so opening a
+ * memory-mapped file takes constant time.
+ */
+public class FaFile {
+
+	/**
+	 * The magic number: "JWFA".
+	 */
+	static final int MAGIC = 0x4a574641;
+
+	/**
+	 * The version of the format.
+	 */
+	static final int VERSION = 2;
+
+	/**
+	 * The size of the header: magic number, version and length.
+	 */
+	static final int HEADER = 16;
+
+	/**
+	 * The flag for saturated automata.
+	 */
+	static final int SATURATED = 1;
+
+	/**
+	 * The size of a transition record in bytes:
+	 * from-state, label, to-state, weight offset, diff offset.
+	 */
+	static final int RECORD = 28;
+
+	/**
+	 * Writes the automaton <code>fa</code> to <code>file</code>.
+	 * The semiring values are encoded once, straight into the file,
+	 * and the tables before them are written afterwards.
+	 *
+	 * @param fa the automaton.
+	 * @param file the file.
+	 * @param codec the semiring codec.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static void write(Fa fa, File file, SemiringCodec codec) throws IOException {
+
+		Layout layout = new Layout(fa);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+
+			// Streams the semiring values after the tables
+			channel.position(HEADER + layout.tables());
+			Counter values = new Counter(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			DataOutputStream out = new DataOutputStream(values);
+			layout.values(out, values, codec);
+			out.flush();
+
+			// Writes the header and the tables
+			channel.position(0);
+			out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			layout.head(out, values.count);
+			out.flush();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes the automaton <code>fa</code> as a block to <code>out</code>.
+	 * As the offsets precede the semiring values, the values are
+	 * encoded twice: once to compute the offsets, once to write them.
+	 * Use {@link #write(Fa, File, SemiringCodec)} to encode them once.
+	 *
+	 * @param fa the automaton.
+	 * @param out the output.
+	 * @param codec the semiring codec.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static void write(Fa fa, DataOutput out, SemiringCodec codec) throws IOException {
+
+		Layout layout = new Layout(fa);
+		Counter values = new Counter(new OutputStream() {
+			public void write(int b) {}
+			public void write(byte[] b, int off, int len) {}
+		});
+		layout.values(new DataOutputStream(values), values, codec);
+		layout.head(out, values.count);
+		layout.values(out, null, codec);
+	}
+
+	/**
+	 * Writes the automaton <code>fa</code> as a block to <code>out</code>.
+	 * The semiring values are encoded once, and the tables before them
+	 * are written again afterwards.
+	 *
+	 * @param fa the automaton.
+	 * @param out the output.
+	 * @param codec the semiring codec.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	static void write(Fa fa, Buffer out, SemiringCodec codec) throws IOException {
+
+		Layout layout = new Layout(fa);
+		int start = out.size();
+		layout.head(out, 0);
+		Counter values = new Counter(out);
+		layout.values(new DataOutputStream(values), values, codec);
+		Buffer head = new Buffer();
+		layout.head(head, values.count);
+		out.patch(start, head);
+	}
+
+	/**
+	 * An output buffered in memory, whose content can be overwritten.
+	 */
+	static class Buffer extends DataOutputStream {
+
+		Buffer() {
+			super(new Bytes());
+		}
+
+		/**
+		 * Overwrites the bytes from <code>pos</code> with the content of 
+		 * <code>b</code>.
+		 */
+		void patch(int pos, Buffer b) {
+			((Bytes) b.out).copyTo(((Bytes) out), pos);
+		}
+
+		/**
+		 * Overwrites the four bytes from <code>pos</code> with <code>v</code>.
+		 */
+		void patchInt(int pos, int v) {
+			Buffer b = new Buffer();
+			try {
+				b.writeInt(v);
+			} catch (IOException e) {
+				throw new AssertionError(e);
+			}
+			patch(pos, b);
+		}
+
+		/**
+		 * Writes the content to <code>o</code>.
+		 */
+		void writeTo(OutputStream o) throws IOException {
+			((Bytes) out).writeTo(o);
+		}
+
+		byte[] toByteArray() {
+			return ((Bytes) out).toByteArray();
+		}
+
+		void reset() {
+			((Bytes) out).reset();
+			written = 0;
+		}
+
+		private static class Bytes extends ByteArrayOutputStream {
+			void copyTo(Bytes b, int pos) {
+				if (pos < 0 || pos + count > b.count)
+					throw new IndexOutOfBoundsException("Position: " + pos);
+				System.arraycopy(buf, 0, b.buf, pos, count);
+			}
+		}
+	}
+
+	/**
+	 * The sorted transitions and the tables of a block.
+	 */
+	private static class Layout {
+
+		Fa fa;
+		Transition[] trans;
+		int[] p, a, q;
+		Integer[] order;
+		byte[][] symbols;
+		long symbolBytes;
+		int[] first, count;
+		long[] woff, doff;
+
+		Layout(Fa fa) throws IOException {
+
+			// Interns the symbols
+			this.fa = fa;
+			SymbolTable table = new SymbolTable();
+			int n = fa.size();
+			trans = new Transition[n];
+			final int[] p = this.p = new int[n];
+			final int[] a = this.a = new int[n];
+			final int[] q = this.q = new int[n];
+			int i = 0;
+			for (Transition t : fa.getTransitions()) {
+				trans[i] = t;
+				p[i] = table.intern(t.p);
+				a[i] = table.intern(t.a);
+				q[i] = table.intern(t.q);
+				i++;
+			}
+
+			// Sorts the transitions by (p, a, q)
+			order = new Integer[n];
+			for (i = 0; i < n; i++) order[i] = i;
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer x, Integer y) {
+					if (p[x] != p[y]) return (p[x] < p[y]) ? -1 : 1;
+					if (a[x] != a[y]) return (a[x] < a[y]) ? -1 : 1;
+					if (q[x] != q[y]) return (q[x] < q[y]) ? -1 : 1;
+					return 0;
+				}
+			});
+
+			// Encodes the symbols
+			int m = table.size();
+			symbols = new byte[m][];
+			for (int id = 0; id < m; id++) {
+				symbols[id] = table.getSymbol(id).getBytes("UTF-8");
+				symbolBytes += 4 + symbols[id].length;
+			}
+
+			// Builds the directory
+			first = new int[m];
+			count = new int[m];
+			for (i = 0; i < n; i++) {
+				int x = order[i];
+				if (count[p[x]]++ == 0) first[p[x]] = i;
+			}
+			woff = new long[n];
+			doff = new long[n];
+		}
+
+		/**
+		 * Returns the number of bytes after the header and 
+		 * before the semiring values.
+		 */
+		long tables() {
+			return 4 + 4 + 8 + symbolBytes + 4 + 8L * symbols.length
+					+ (long) RECORD * trans.length + 8;
+		}
+
+		/**
+		 * Writes the semiring values, and records their offsets 
+		 * if <code>counter</code> counts the bytes written to <code>out</code>.
+		 */
+		void values(DataOutput out, Counter counter, SemiringCodec codec) throws IOException {
+
+			for (int i = 0; i < trans.length; i++) {
+				Transition t = trans[order[i]];
+				if (counter != null) woff[i] = counter.count;
+				codec.write(fa.getWeight(t), out);
+				Semiring diff = fa.getDiff(t);
+				if (diff == null) {
+					doff[i] = -1;
+				} else {
+					if (counter != null) doff[i] = counter.count;
+					codec.write(diff, out);
+				}
+			}
+		}
+
+		/**
+		 * Writes the header and the tables.
+		 */
+		void head(DataOutput out, long valueBytes) throws IOException {
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(tables() + valueBytes);
+			out.writeInt(fa.saturated ? SATURATED : 0);
+			out.writeInt(symbols.length);
+			out.writeLong(symbolBytes);
+			for (byte[] b : symbols) {
+				out.writeInt(b.length);
+				out.write(b);
+			}
+			out.writeInt(trans.length);
+			for (int id = 0; id < symbols.length; id++) {
+				out.writeInt(first[id]);
+				out.writeInt(count[id]);
+			}
+			for (int i = 0; i < trans.length; i++) {
+				int x = order[i];
+				out.writeInt(p[x]);
+				out.writeInt(a[x]);
+				out.writeInt(q[x]);
+				out.writeLong(woff[i]);
+				out.writeLong(doff[i]);
+			}
+			out.writeLong(valueBytes);
+		}
+	}
+
+	/**
+	 * An output stream that counts the bytes written through it.
+	 */
+	private static class Counter extends FilterOutputStream {
+
+		long count = 0;
+
+		Counter(OutputStream out) {
+			super(out);
+		}
+
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/**
+	 * Memory-maps <code>file</code> and reads the automaton stored in it.
+	 *
+	 * @param file the file.
+	 * @param codec the semiring codec.
+	 * @return the read-only automaton.
+	 * @throws IOException if an I/O error occurs or the file is not
+	 * 		an automaton file.
+	 */
+	public static MappedFa read(File file, SemiringCodec codec) throws IOException {
+
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return read(new MappedFile(in.getChannel()), codec);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the automaton block starting at the current position of
+	 * <code>in</code>. The position is advanced past the block.
+	 * The automaton returned is backed by <code>in</code>.
+	 *
+	 * @param in the input.
+	 * @param codec the semiring codec.
+	 * @return the read-only automaton.
+	 * @throws IOException if the input is not an automaton block.
+	 */
+	public static MappedFa read(ByteBuffer in, SemiringCodec codec) throws IOException {
+
+		MappedFile file = new MappedFile(in);
+		MappedFa fa = read(file, codec);
+		in.position(in.position() + (int) file.position());
+		return fa;
+	}
+
+	/**
+	 * Reads the automaton block starting at the position of 
+	 * <code>in</code>, and advances the position past the block.
+	 * The automaton returned is backed by <code>in</code>.
+	 *
+	 * @param in the input.
+	 * @param codec the semiring codec.
+	 * @return the read-only automaton.
+	 * @throws IOException if the input is not an automaton block.
+	 */
+	static MappedFa read(MappedFile in, SemiringCodec codec) throws IOException {
+
+		if (in.size() - in.position() < HEADER || in.getInt() != MAGIC)
+			throw new IOException("Not an automaton");
+		int version = in.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported version: " + version);
+		long length = in.getLong();
+		if (length < 0 || length > in.size() - in.position())
+			throw new IOException("Truncated automaton");
+
+		MappedFa fa = new MappedFa(in, in.position(), codec);
+		in.position(in.position() + length);
+		return fa;
+	}
+}
@@ -0,0 +1,247 @@
+package de.tum.in.wpds;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable finite automaton created by {@link Fa#freeze()}.
+ *
+ * <p>The transitions are stored in an array sorted by from-state,
+ * label and to-state, with the weights and diffs in parallel arrays.
+ * Transitions leaving a state are found by a hash lookup of the state
+ * and binary search in its range. All fields are final and nothing is
+ * computed lazily, so a frozen automaton can be read by concurrent
+ * threads without locks, e.g. as the shared initial automaton of many
+ * queries or as an aggregate handed to consumers of {@link DpnReach}.
+ *
+ * <p>The semiring values are copies of those of the original automaton;
+ * they must not be modified. {@link #create()} returns an ordinary
+ * {@link Fa}, so the saturation produces automata on the heap.
+ * Adding transitions or resetting diffs throws
+ * {@link UnsupportedOperationException}, and {@link #free()} does
+ * nothing because the values may be shared.
+ * The inherited fields {@link Fa#hmaps} and <code>trans</code>
+ * are not used.
+ */
+public class FrozenFa extends Fa {
+
+	/**
+	 * The estimated number of bytes of a record, i.e. a transition
+	 * and its slots in the arrays.
+	 */
+	static final int RECORD_BYTES = 48;
+
+	/**
+	 * The order of the records.
+	 */
+	private static final Comparator<Transition> ORDER = new Comparator<Transition>() {
+		public int compare(Transition t1, Transition t2) {
+			int c = t1.p.compareTo(t2.p);
+			if (c != 0) return c;
+			return FrozenFa.compare(t1.a, t1.q, t2.a, t2.q);
+		}
+	};
+
+	/**
+	 * The transitions, sorted by {@link #ORDER}.
+	 */
+	private final Transition[] records;
+
+	/**
+	 * The weights and the diffs, indexed by records.
+	 */
+	private final Semiring[] weights, diffs;
+
+	/**
+	 * Maps a state to the range of records leaving it.
+	 */
+	private final HashMap<String, Range> heads;
+
+	/**
+	 * Maps a state to the epsilon-transitions going to it.
+	 */
+	private final HashMap<String, Set<Transition>> epsilons;
+
+	/**
+	 * Creates a frozen copy of <code>fa</code>.
+	 *
+	 * @param fa the automaton.
+	 */
+	FrozenFa(Fa fa) {
+
+		int n = fa.size();
+		records = new Transition[n];
+		int x = 0;
+		for (Transition t : fa.getTransitions())
+			records[x++] = new Transition(t.p, t.a, t.q);
+		Arrays.sort(records, ORDER);
+
+		weights = new Semiring[n];
+		diffs = new Semiring[n];
+		heads = new HashMap<String, Range>();
+		HashMap<String, List<Transition>> eps = new HashMap<String, List<Transition>>();
+		int from = 0;
+		for (x = 0; x < n; x++) {
+			Transition t = records[x];
+			weights[x] = copy(fa.getWeight(t));
+			diffs[x] = copy(fa.getDiff(t));
+			if (x + 1 == n || !records[x + 1].p.equals(t.p)) {
+				heads.put(t.p, new Range(from, x + 1));
+				from = x + 1;
+			}
+			if (t.a.equals(epsilon)) {
+				List<Transition> list = eps.get(t.q);
+				if (list == null) {
+					list = new ArrayList<Transition>();
+					eps.put(t.q, list);
+				}
+				list.add(t);
+			}
+		}
+		epsilons = new HashMap<String, Set<Transition>>(eps.size() * 4 / 3 + 1);
+		for (Map.Entry<String, List<Transition>> entry : eps.entrySet())
+			epsilons.put(entry.getKey(), new FrozenSet<Transition>(entry.getValue()));
+		saturated = fa.saturated;
+	}
+
+	private static Semiring copy(Semiring d) {
+		return (d == null) ? null : d.id();
+	}
+
+	private static int compare(String a1, String q1, String a2, String q2) {
+		int c = a1.compareTo(a2);
+		return (c != 0) ? c : q1.compareTo(q2);
+	}
+
+	/**
+	 * Finds the transition <code>t</code> by binary search.
+	 *
+	 * @return the index of the transition, or <code>-1</code>.
+	 */
+	private int find(Transition t) {
+		Range range = heads.get(t.p);
+		if (range == null) return -1;
+
+		int lo = range.from;
+		int hi = range.to - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			Transition r = records[mid];
+			int c = compare(r.a, r.q, t.a, t.q);
+			if (c < 0) lo = mid + 1;
+			else if (c > 0) hi = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns this automaton.
+	 *
+	 * @return this automaton.
+	 */
+	public FrozenFa freeze() {
+		return this;
+	}
+
+	protected Fa create() {
+		return new Fa();
+	}
+
+	protected void put(Transition t, Semiring r, Semiring diff) {
+		throw new UnsupportedOperationException("Frozen automaton");
+	}
+
+	public int size() {
+		return records.length;
+	}
+
+	public Semiring getWeight(Transition t) {
+		int x = find(t);
+		return (x < 0) ? null : weights[x];
+	}
+
+	public Semiring getDiff(Transition t) {
+		int x = find(t);
+		return (x < 0) ? null : diffs[x];
+	}
+
+	public void resetDiff(Transition t) {
+		throw new UnsupportedOperationException("Frozen automaton");
+	}
+
+	public Set<Transition> getTransitions() {
+		return new Range(0, records.length);
+	}
+
+	public Set<Transition> getTransitions(String q) {
+		return heads.get(q);
+	}
+
+	public Set<Transition> getEpsilonTransitionsTo(String q) {
+		return epsilons.get(q);
+	}
+
+	public long estimateSize() {
+		long bytes = (long) records.length * RECORD_BYTES;
+		for (int x = 0; x < records.length; x++) {
+			bytes += estimateSize(weights[x]);
+			bytes += estimateSize(diffs[x]);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Does nothing, as the semiring values may be shared by readers.
+	 */
+	public void free() {
+	}
+
+	/**
+	 * A set view of a range of records.
+	 */
+	private class Range extends AbstractSet<Transition> {
+
+		private final int from;
+		private final int to;
+
+		Range(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		public Iterator<Transition> iterator() {
+			return new Iterator<Transition>() {
+				int x = from;
+				public boolean hasNext() {
+					return x < to;
+				}
+				public Transition next() {
+					if (x >= to) throw new NoSuchElementException();
+					return records[x++];
+				}
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		public int size() {
+			return to - from;
+		}
+
+		public boolean contains(Object o) {
+			if (!(o instanceof Transition)) return false;
+			int x = find((Transition) o);
+			return x >= from && x < to;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package de.tum.in.wpds;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable set backed by an array, for the small sets of
+ * frozen pushdown systems and automata. Membership is tested by a
+ * linear scan, which is faster than hashing for a handful of elements.
+ *
+ * @param <E> the type of elements.
+ */
+class FrozenSet<E> extends AbstractSet<E> {
+
+	private final Object[] elements;
+
+	/**
+	 * Creates a new set with the elements of <code>c</code>,
+	 * which must not contain duplicates.
+	 *
+	 * @param c the elements.
+	 */
+	FrozenSet(Collection<? extends E> c) {
+		this.elements = c.toArray();
+	}
+
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+			int i = 0;
+			public boolean hasNext() {
+				return i < elements.length;
+			}
+			@SuppressWarnings("unchecked")
+			public E next() {
+				if (i >= elements.length) throw new NoSuchElementException();
+				return (E) elements[i++];
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	public int size() {
+		return elements.length;
+	}
+
+	public boolean contains(Object o) {
+		for (int i = 0; i < elements.length; i++) {
+			if (elements[i].equals(o)) return true;
+		}
+		return false;
+	}
+}
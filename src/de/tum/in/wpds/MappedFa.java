@@ -0,0 +1,316 @@
+package de.tum.in.wpds;
+
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only finite automaton backed by a block in the format of
+ * {@link FaFile}, typically a memory-mapped file.
+ * Nothing is decoded when the automaton is opened: the symbol table,
+ * the epsilon index and the semiring values are decoded on first use.
+ * Only the semiring values used are kept, so the memory of a large
+ * automaton that is only partly queried stays small.
+ * Transitions leaving a state are found by binary search in the
+ * sorted transition records. Symbols are interned with 
+ * {@link String#intern()}, so the automaton can be saturated.
+ *
+ * <p>The automaton can be queried and saturated like any other
+ * {@link Fa}; {@link #create()} returns an ordinary <code>Fa</code>,
+ * so the saturation produces automata on the heap.
+ * Adding transitions or resetting diffs throws
+ * {@link UnsupportedOperationException}.
+ * The inherited fields {@link Fa#hmaps} and <code>trans</code>
+ * are not used.
+ */
+public class MappedFa extends Fa {
+
+	/**
+	 * The file containing the block.
+	 */
+	private MappedFile buf;
+
+	/**
+	 * The semiring codec.
+	 */
+	private SemiringCodec codec;
+
+	/**
+	 * The number of symbols.
+	 */
+	private int nsymbols;
+
+	/**
+	 * The number of transitions.
+	 */
+	private int count;
+
+	/**
+	 * The positions of the symbols, the directory, the records,
+	 * and the semiring values in the block.
+	 */
+	private long symbolPos, dirPos, recPos, weightPos;
+
+	/**
+	 * The symbol table, decoded lazily.
+	 */
+	private SymbolTable symbols;
+
+	/**
+	 * Determines whether the epsilon map has been built.
+	 */
+	private boolean indexed = false;
+
+	/**
+	 * The estimated number of bytes of an entry of the decoded values.
+	 */
+	private static final int ENTRY_BYTES = 48;
+
+	/**
+	 * The decoded weights, by records.
+	 */
+	private HashMap<Integer, Semiring> weights = new HashMap<Integer, Semiring>();
+
+	/**
+	 * The decoded diffs, by records.
+	 */
+	private HashMap<Integer, Semiring> diffs = new HashMap<Integer, Semiring>();
+
+	/**
+	 * Creates a new automaton backed by the block of <code>buf</code>
+	 * at <code>pos</code>, after its header.
+	 *
+	 * @param buf the file.
+	 * @param pos the position of the block.
+	 * @param codec the semiring codec.
+	 */
+	MappedFa(MappedFile buf, long pos, SemiringCodec codec) {
+		this.buf = buf;
+		this.codec = codec;
+		saturated = (buf.getInt(pos) & FaFile.SATURATED) != 0;
+		nsymbols = buf.getInt(pos + 4);
+		symbolPos = pos + 16;
+		long n = symbolPos + buf.getLong(pos + 8);
+		count = buf.getInt(n);
+		dirPos = n + 4;
+		recPos = dirPos + 8L * nsymbols;
+		weightPos = recPos + (long) FaFile.RECORD * count + 8;
+	}
+
+	/**
+	 * Returns the symbol table, decoding it on first use.
+	 */
+	private synchronized SymbolTable symbols() {
+		if (symbols != null) return symbols;
+
+		SymbolTable table = new SymbolTable();
+		long pos = symbolPos;
+		for (int id = 0; id < nsymbols; id++) {
+			int len = buf.getInt(pos);
+			byte[] b = new byte[len];
+			buf.buffer(pos + 4).get(b);
+			try {
+				table.intern(new String(b, "UTF-8").intern());
+			} catch (java.io.UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+			pos += 4 + len;
+		}
+		symbols = table;
+		return symbols;
+	}
+
+	protected Fa create() {
+		return new Fa();
+	}
+
+	private int field(int x, int f) {
+		return buf.getInt(recPos + (long) FaFile.RECORD * x + 4 * f);
+	}
+
+	/**
+	 * Returns the offset of the weight (<code>f = 0</code>) or 
+	 * of the diff (<code>f = 1</code>) of the record <code>x</code>.
+	 */
+	private long offset(int x, int f) {
+		return buf.getLong(recPos + (long) FaFile.RECORD * x + 12 + 8 * f);
+	}
+
+	/**
+	 * Finds the transition <code>t</code> by binary search.
+	 *
+	 * @return the index of the transition, or <code>-1</code>.
+	 */
+	private int find(Transition t) {
+		SymbolTable table = symbols();
+		int p = table.getId(t.p);
+		int a = table.getId(t.a);
+		int q = table.getId(t.q);
+		if (p < 0 || a < 0 || q < 0) return -1;
+
+		int lo = buf.getInt(dirPos + 8L * p);
+		int hi = lo + buf.getInt(dirPos + 8L * p + 4) - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = compare(field(mid, 1), field(mid, 2), a, q);
+			if (c < 0) lo = mid + 1;
+			else if (c > 0) hi = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	private static int compare(int a1, int q1, int a2, int q2) {
+		if (a1 != a2) return (a1 < a2) ? -1 : 1;
+		if (q1 != q2) return (q1 < q2) ? -1 : 1;
+		return 0;
+	}
+
+	/**
+	 * Materializes the transition at <code>x</code>.
+	 */
+	private Transition transition(int x) {
+		SymbolTable table = symbols();
+		return new Transition(table.getSymbol(field(x, 0)),
+				table.getSymbol(field(x, 1)), table.getSymbol(field(x, 2)));
+	}
+
+	/**
+	 * Decodes the semiring value at <code>off</code> in the value region.
+	 */
+	private Semiring decode(long off) {
+		return codec.read(buf.buffer(weightPos + off));
+	}
+
+	protected void put(Transition t, Semiring r, Semiring diff) {
+		throw new UnsupportedOperationException("Read-only automaton");
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public synchronized Semiring getWeight(Transition t) {
+		int x = find(t);
+		if (x < 0) return null;
+		Semiring d = weights.get(x);
+		if (d == null) {
+			d = decode(offset(x, 0));
+			weights.put(x, d);
+		}
+		return d;
+	}
+
+	public synchronized Semiring getDiff(Transition t) {
+		int x = find(t);
+		if (x < 0) return null;
+		long off = offset(x, 1);
+		if (off < 0) return null;
+		Semiring d = diffs.get(x);
+		if (d == null) {
+			d = decode(off);
+			diffs.put(x, d);
+		}
+		return d;
+	}
+
+	public void resetDiff(Transition t) {
+		throw new UnsupportedOperationException("Read-only automaton");
+	}
+
+	public Set<Transition> getTransitions() {
+		return new Range(0, count);
+	}
+
+	public Set<Transition> getTransitions(String q) {
+		int id = symbols().getId(q);
+		if (id < 0) return null;
+		int n = buf.getInt(dirPos + 8L * id + 4);
+		if (n == 0) return null;
+		int first = buf.getInt(dirPos + 8L * id);
+		return new Range(first, first + n);
+	}
+
+	public synchronized Set<Transition> getEpsilonTransitionsTo(String q) {
+		if (!indexed) {
+			int eps = symbols().getId(epsilon);
+			if (eps >= 0) {
+				for (int x = 0; x < count; x++) {
+					if (field(x, 1) != eps) continue;
+					Transition t = transition(x);
+					Set<Transition> set = emaps.get(t.q);
+					if (set == null) {
+						set = new HashSet<Transition>();
+						emaps.put(t.q, set);
+					}
+					set.add(t);
+				}
+			}
+			indexed = true;
+		}
+		return emaps.get(q);
+	}
+
+	/**
+	 * Returns the estimated number of bytes of the decoded semiring values.
+	 * The mapped block is not counted.
+	 * 
+	 * @return the estimated number of bytes.
+	 */
+	public synchronized long estimateSize() {
+		long bytes = (long) ENTRY_BYTES * (weights.size() + diffs.size());
+		for (Semiring d : weights.values()) bytes += estimateSize(d);
+		for (Semiring d : diffs.values()) bytes += estimateSize(d);
+		return bytes;
+	}
+
+	public synchronized void free() {
+		for (Semiring d : weights.values()) d.free();
+		weights.clear();
+		for (Semiring d : diffs.values()) d.free();
+		diffs.clear();
+	}
+
+	/**
+	 * A set view of a range of transition records.
+	 */
+	private class Range extends AbstractSet<Transition> {
+
+		private int from;
+		private int to;
+
+		Range(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		public Iterator<Transition> iterator() {
+			return new Iterator<Transition>() {
+				int x = from;
+				public boolean hasNext() {
+					return x < to;
+				}
+				public Transition next() {
+					if (x >= to) throw new NoSuchElementException();
+					return transition(x++);
+				}
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		public int size() {
+			return to - from;
+		}
+
+		public boolean contains(Object o) {
+			if (!(o instanceof Transition)) return false;
+			int x = find((Transition) o);
+			return x >= from && x < to;
+		}
+	}
+}
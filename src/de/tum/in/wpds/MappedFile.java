@@ -0,0 +1,208 @@
+package de.tum.in.wpds;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only file, memory-mapped in chunks so that it may exceed 2 GB,
+ * with a position for reading it sequentially.
+ *
+ * <p>Each chunk also maps the first {@link #OVERLAP} bytes of the next
+ * one, so that a value starting anywhere in a chunk can be read from
+ * that chunk alone, as long as it is not longer than the overlap.
+ * The chunk size is 1 GB, or the value of the system property
+ * <code>jwpds.map.chunk</code>.
+ */
+class MappedFile {
+
+	/**
+	 * The maximum length of a value, i.e. of a symbol or
+	 * an encoded semiring value.
+	 */
+	static final int OVERLAP = 1 << 26;
+
+	/**
+	 * The chunks.
+	 */
+	private ByteBuffer[] chunks;
+
+	/**
+	 * The size of a chunk, without the overlap.
+	 */
+	private long chunk;
+
+	/**
+	 * The start of this file in the chunks.
+	 */
+	private long base = 0;
+
+	/**
+	 * The size of the file.
+	 */
+	private long size;
+
+	/**
+	 * The position for sequential reads.
+	 */
+	private long position = 0;
+
+	/**
+	 * Maps the file of <code>channel</code>.
+	 *
+	 * @param channel the channel.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	MappedFile(FileChannel channel) throws IOException {
+		size = channel.size();
+		chunk = Math.max(1, Math.min(Long.getLong("jwpds.map.chunk", 1L << 30),
+				Integer.MAX_VALUE - OVERLAP));
+		int n = (int) Math.max(1, (size + chunk - 1) / chunk);
+		chunks = new ByteBuffer[n];
+		for (int i = 0; i < n; i++) {
+			long start = i * chunk;
+			chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+					start, Math.min(size, start + chunk + OVERLAP) - start);
+		}
+	}
+
+	/**
+	 * Wraps the remaining bytes of <code>buf</code> as a single chunk.
+	 *
+	 * @param buf the buffer.
+	 */
+	MappedFile(ByteBuffer buf) {
+		chunks = new ByteBuffer[] { buf.slice() };
+		size = buf.remaining();
+		chunk = Long.MAX_VALUE;
+	}
+
+	private MappedFile(MappedFile file, long start, long length) {
+		chunks = file.chunks;
+		chunk = file.chunk;
+		base = file.base + start;
+		size = length;
+	}
+
+	/**
+	 * Returns the <code>length</code> bytes from <code>start</code>
+	 * as a file of their own, sharing the content of this file.
+	 *
+	 * @param start the start.
+	 * @param length the length.
+	 * @return the slice.
+	 */
+	MappedFile slice(long start, long length) {
+		if (start < 0 || length < 0 || length > size - start)
+			throw new IndexOutOfBoundsException("Slice: " + start + "+" + length);
+		return new MappedFile(this, start, length);
+	}
+
+	long size() {
+		return size;
+	}
+
+	long position() {
+		return position;
+	}
+
+	void position(long position) {
+		this.position = position;
+	}
+
+	boolean hasRemaining() {
+		return position < size;
+	}
+
+	/**
+	 * Returns the chunk that contains <code>pos</code>.
+	 */
+	private ByteBuffer chunk(long pos) {
+		if (pos < 0 || pos >= size)
+			throw new IndexOutOfBoundsException("Position: " + pos);
+		return chunks[(int) ((base + pos) / chunk)];
+	}
+
+	private int offset(long pos) {
+		return (int) ((base + pos) % chunk);
+	}
+
+	byte get(long pos) {
+		return chunk(pos).get(offset(pos));
+	}
+
+	int getInt(long pos) {
+		return chunk(pos).getInt(offset(pos));
+	}
+
+	long getLong(long pos) {
+		return chunk(pos).getLong(offset(pos));
+	}
+
+	/**
+	 * Reads <code>len</code> bytes from <code>pos</code> into 
+	 * <code>b</code>, which may span any number of chunks.
+	 */
+	void get(long pos, byte[] b, int off, int len) {
+		if (len > size - pos)
+			throw new IndexOutOfBoundsException("Length: " + len);
+		while (len > 0) {
+			ByteBuffer buf = buffer(pos);
+			int n = Math.min(len, buf.remaining());
+			buf.get(b, off, n);
+			pos += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	byte get() {
+		return get(position++);
+	}
+
+	void get(byte[] b) {
+		get(position, b, 0, b.length);
+		position += b.length;
+	}
+
+	int getInt() {
+		int v = getInt(position);
+		position += 4;
+		return v;
+	}
+
+	long getLong() {
+		long v = getLong(position);
+		position += 8;
+		return v;
+	}
+
+	/**
+	 * Returns a buffer positioned at <code>pos</code> with at least
+	 * {@link #OVERLAP} bytes remaining, or the rest of the file.
+	 * The buffer shares the content of this file.
+	 *
+	 * @param pos the position.
+	 * @return the buffer.
+	 */
+	ByteBuffer buffer(long pos) {
+		ByteBuffer buf = chunk(pos).duplicate();
+		buf.position(offset(pos));
+		return buf;
+	}
+
+	/**
+	 * Reads a semiring value with <code>codec</code> at the position,
+	 * and advances the position past it.
+	 *
+	 * @param codec the semiring codec.
+	 * @return the semiring value.
+	 */
+	Semiring read(SemiringCodec codec) {
+		ByteBuffer buf = buffer(position);
+		int start = buf.position();
+		Semiring d = codec.read(buf);
+		position += buf.position() - start;
+		return d;
+	}
+}
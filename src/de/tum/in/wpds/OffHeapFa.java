@@ -0,0 +1,487 @@
+package de.tum.in.wpds;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Finite automaton whose transition structure and indexes are stored
+ * outside the Java heap. States and symbols are interned in a
+ * {@link SymbolTable}, and each transition is a record of six ints in
+ * direct buffers: the from-state, the label, the to-state, and the links
+ * of the hash chain, the list of transitions from the same state, and
+ * the list of epsilon-transitions to the same state. The heads of these
+ * lists are kept in a hash table of the states of this automaton, so
+ * that automata sharing a large symbol table stay small.
+ * All tables start small and grow as needed, and {@link #free()}
+ * releases the direct buffers.
+ * Only the semiring values are kept on the heap.
+ *
+ * <p>An <code>OffHeapFa</code> is a drop-in replacement for {@link Fa}:
+ * {@link PdsSat} and {@link DpnSat} create every automaton with
+ * {@link #create()}, so saturating an <code>OffHeapFa</code> yields
+ * <code>OffHeapFa</code>s sharing the same symbol table.
+ * Transitions are materialized when they are iterated.
+ * The inherited field {@link Fa#hmaps} is not used.
+ */
+public class OffHeapFa extends Fa {
+
+	private static final int P = 0;
+	private static final int A = 1;
+	private static final int Q = 2;
+	private static final int NEXT_HASH = 3;
+	private static final int NEXT_FROM = 4;
+	private static final int NEXT_EPS = 5;
+	private static final int REC = 6;
+
+	private static final int ID = 0;
+	private static final int FIRST = 1;
+	private static final int FIRST_EPS = 2;
+	private static final int SLOT = 3;
+
+	/**
+	 * The initial number of hash buckets and state slots.
+	 */
+	private static final int INITIAL = 1 << 4;
+
+	private static final int SHIFT = 12;
+	private static final int CHUNK = 1 << SHIFT;
+	private static final int MASK = CHUNK - 1;
+
+	/**
+	 * The symbol table.
+	 */
+	private SymbolTable symbols;
+
+	/**
+	 * The id of the epsilon symbol.
+	 */
+	private int eps;
+
+	/**
+	 * The transition records.
+	 */
+	private OffHeapInts records = new OffHeapInts(-1);
+
+	/**
+	 * The hash buckets: the first transition of each hash chain.
+	 */
+	private OffHeapInts buckets = new OffHeapInts(-1);
+
+	/**
+	 * The number of hash buckets, a power of two.
+	 */
+	private int capacity = INITIAL;
+
+	/**
+	 * The states, hashed by id with linear probing: each slot holds
+	 * the state id, the first transition leaving the state, and the
+	 * first epsilon-transition going to the state.
+	 */
+	private OffHeapInts states = new OffHeapInts(-1);
+
+	/**
+	 * The number of state slots, a power of two.
+	 */
+	private int stateCapacity = INITIAL;
+
+	/**
+	 * The number of states.
+	 */
+	private int stateCount = 0;
+
+	/**
+	 * The weights, in chunks indexed by transitions.
+	 */
+	private Semiring[][] weights = new Semiring[16][];
+
+	/**
+	 * The pending diffs, in chunks indexed by transitions.
+	 */
+	private Semiring[][] diffs = new Semiring[16][];
+
+	/**
+	 * The number of transitions.
+	 */
+	private int count = 0;
+
+	/**
+	 * Creates a new automaton with a new symbol table.
+	 */
+	public OffHeapFa() {
+		this(new SymbolTable());
+	}
+
+	/**
+	 * Creates a new automaton with the symbol table <code>symbols</code>.
+	 *
+	 * @param symbols the symbol table.
+	 */
+	public OffHeapFa(SymbolTable symbols) {
+		this.symbols = symbols;
+		this.eps = symbols.intern(epsilon);
+	}
+
+	/**
+	 * Returns the symbol table of this automaton.
+	 *
+	 * @return the symbol table.
+	 */
+	public SymbolTable getSymbolTable() {
+		return symbols;
+	}
+
+	protected Fa create() {
+		return new OffHeapFa(symbols);
+	}
+
+	private static int hash(int p, int a, int q) {
+		int h = (p * 31 + a) * 31 + q;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Finds the transition (p,a,q).
+	 *
+	 * @return the index of the transition, or <code>-1</code>.
+	 */
+	private int find(int p, int a, int q) {
+		int x = buckets.get(hash(p, a, q) & (capacity - 1));
+		while (x >= 0) {
+			long r = (long) x * REC;
+			if (records.get(r + P) == p && records.get(r + A) == a
+					&& records.get(r + Q) == q)
+				return x;
+			x = records.get(r + NEXT_HASH);
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the transition <code>t</code>.
+	 *
+	 * @return the index of the transition, or <code>-1</code>.
+	 */
+	private int find(Transition t) {
+		int p = symbols.getId(t.p);
+		int a = symbols.getId(t.a);
+		int q = symbols.getId(t.q);
+		if (p < 0 || a < 0 || q < 0) return -1;
+		return find(p, a, q);
+	}
+
+	/**
+	 * Inserts the new transition (p,a,q).
+	 *
+	 * @return the index of the transition.
+	 */
+	private int insert(int p, int a, int q) {
+
+		int x = count++;
+		long r = (long) x * REC;
+		records.set(r + P, p);
+		records.set(r + A, a);
+		records.set(r + Q, q);
+
+		// Hash chain
+		int h = hash(p, a, q) & (capacity - 1);
+		records.set(r + NEXT_HASH, buckets.get(h));
+		buckets.set(h, x);
+
+		// Transitions leaving p
+		records.set(r + NEXT_FROM, first(p, FIRST));
+		setFirst(p, FIRST, x);
+
+		// Epsilon-transitions going to q
+		if (a == eps) {
+			records.set(r + NEXT_EPS, first(q, FIRST_EPS));
+			setFirst(q, FIRST_EPS, x);
+		}
+
+		if (count > capacity - (capacity >>> 2))
+			rehash();
+		return x;
+	}
+
+	/**
+	 * Doubles the number of hash buckets.
+	 */
+	private void rehash() {
+		capacity <<= 1;
+		buckets.free();
+		buckets = new OffHeapInts(-1);
+		for (int x = 0; x < count; x++) {
+			long r = (long) x * REC;
+			int h = hash(records.get(r + P), records.get(r + A),
+					records.get(r + Q)) & (capacity - 1);
+			records.set(r + NEXT_HASH, buckets.get(h));
+			buckets.set(h, x);
+		}
+	}
+
+	/**
+	 * Returns the slot of the state <code>id</code>, or the empty slot
+	 * where it belongs.
+	 */
+	private long slot(int id) {
+		int h = id * 0x9e3779b9;
+		int i = (h ^ (h >>> 16)) & (stateCapacity - 1);
+		while (true) {
+			long s = (long) i * SLOT;
+			int k = states.get(s + ID);
+			if (k == id || k < 0) return s;
+			i = (i + 1) & (stateCapacity - 1);
+		}
+	}
+
+	/**
+	 * Returns the first transition of the list <code>link</code>
+	 * of the state <code>id</code>, or <code>-1</code>.
+	 */
+	private int first(int id, int link) {
+		long s = slot(id);
+		return (states.get(s + ID) < 0) ? -1 : states.get(s + link);
+	}
+
+	/**
+	 * Sets the first transition of the list <code>link</code>
+	 * of the state <code>id</code> to <code>x</code>.
+	 */
+	private void setFirst(int id, int link, int x) {
+		long s = slot(id);
+		if (states.get(s + ID) < 0) {
+			states.set(s + ID, id);
+			if (++stateCount > stateCapacity - (stateCapacity >>> 2)) {
+				rehashStates();
+				s = slot(id);
+			}
+		}
+		states.set(s + link, x);
+	}
+
+	/**
+	 * Doubles the number of state slots.
+	 */
+	private void rehashStates() {
+		OffHeapInts old = states;
+		int n = stateCapacity;
+		stateCapacity <<= 1;
+		states = new OffHeapInts(-1);
+		for (int i = 0; i < n; i++) {
+			long s = (long) i * SLOT;
+			int id = old.get(s + ID);
+			if (id < 0) continue;
+			long t = slot(id);
+			states.set(t + ID, id);
+			states.set(t + FIRST, old.get(s + FIRST));
+			states.set(t + FIRST_EPS, old.get(s + FIRST_EPS));
+		}
+		old.free();
+	}
+
+	/**
+	 * Materializes the transition at <code>x</code>.
+	 */
+	private Transition transition(int x) {
+		long r = (long) x * REC;
+		return new Transition(symbols.getSymbol(records.get(r + P)),
+				symbols.getSymbol(records.get(r + A)),
+				symbols.getSymbol(records.get(r + Q)));
+	}
+
+	private static Semiring get(Semiring[][] chunks, int x) {
+		return chunks[x >>> SHIFT][x & MASK];
+	}
+
+	private static Semiring[][] set(Semiring[][] chunks, int x, Semiring d) {
+		int c = x >>> SHIFT;
+		if (c >= chunks.length) {
+			Semiring[][] newChunks = new Semiring[2 * chunks.length][];
+			System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+			chunks = newChunks;
+		}
+		// The first chunk grows with the automaton
+		int i = x & MASK;
+		Semiring[] chunk = chunks[c];
+		if (chunk == null || i >= chunk.length) {
+			int n = CHUNK;
+			if (c == 0)
+				n = Math.min(CHUNK, Math.max(INITIAL, Integer.highestOneBit(i) << 1));
+			Semiring[] newChunk = new Semiring[n];
+			if (chunk != null)
+				System.arraycopy(chunk, 0, newChunk, 0, chunk.length);
+			chunks[c] = chunk = newChunk;
+		}
+		chunk[i] = d;
+		return chunks;
+	}
+
+	/**
+	 * Returns the number of elements of <code>chunks</code>.
+	 */
+	private static long length(Semiring[][] chunks) {
+		long n = 0;
+		for (Semiring[] chunk : chunks) {
+			if (chunk != null) n += chunk.length;
+		}
+		return n;
+	}
+
+	protected void put(Transition t, Semiring r, Semiring diff) {
+		int p = symbols.intern(t.p);
+		int a = symbols.intern(t.a);
+		int q = symbols.intern(t.q);
+		int x = find(p, a, q);
+		if (x < 0) x = insert(p, a, q);
+		weights = set(weights, x, r);
+		diffs = set(diffs, x, diff);
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public Semiring getWeight(Transition t) {
+		int x = find(t);
+		return (x < 0) ? null : get(weights, x);
+	}
+
+	public Semiring getDiff(Transition t) {
+		int x = find(t);
+		return (x < 0) ? null : get(diffs, x);
+	}
+
+	public void resetDiff(Transition t) {
+		int x = find(t);
+		if (x < 0) return;
+		Semiring d = get(diffs, x);
+		if (d != null) d.free();
+		diffs = set(diffs, x, null);
+	}
+
+	public Set<Transition> getTransitions() {
+		return new AbstractSet<Transition>() {
+			public Iterator<Transition> iterator() {
+				final int n = count;
+				return new Iterator<Transition>() {
+					int x = 0;
+					public boolean hasNext() {
+						return x < n;
+					}
+					public Transition next() {
+						if (x >= n) throw new NoSuchElementException();
+						return transition(x++);
+					}
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+			public int size() {
+				return count;
+			}
+			public boolean contains(Object o) {
+				return (o instanceof Transition) && find((Transition) o) >= 0;
+			}
+		};
+	}
+
+	public Set<Transition> getTransitions(String q) {
+		int id = symbols.getId(q);
+		int x = (id < 0) ? -1 : first(id, FIRST);
+		return (x < 0) ? null : new Chain(x, NEXT_FROM);
+	}
+
+	public Set<Transition> getEpsilonTransitionsTo(String q) {
+		int id = symbols.getId(q);
+		int x = (id < 0) ? -1 : first(id, FIRST_EPS);
+		return (x < 0) ? null : new Chain(x, NEXT_EPS);
+	}
+
+	/**
+	 * Frees the semiring values and releases the memory outside the heap.
+	 * The automaton is empty afterwards.
+	 */
+	public void free() {
+		for (int x = 0; x < count; x++) {
+			Semiring d = get(weights, x);
+			if (d != null) d.free();
+			d = get(diffs, x);
+			if (d != null) d.free();
+		}
+		records.free();
+		buckets.free();
+		states.free();
+		weights = new Semiring[16][];
+		diffs = new Semiring[16][];
+		count = 0;
+		capacity = INITIAL;
+		stateCount = 0;
+		stateCapacity = INITIAL;
+	}
+
+	/**
+	 * Returns the estimated number of bytes used by this automaton,
+	 * including the bytes outside the heap.
+	 * 
+	 * @return the estimated number of bytes.
+	 */
+	public long estimateSize() {
+		long bytes = 8L * (length(weights) + length(diffs)) + getOffHeapBytes();
+		for (int x = 0; x < count; x++) {
+			bytes += estimateSize(get(weights, x));
+			bytes += estimateSize(get(diffs, x));
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of bytes used by this automaton outside the heap.
+	 *
+	 * @return the number of bytes.
+	 */
+	public long getOffHeapBytes() {
+		return records.bytes() + buckets.bytes() + states.bytes();
+	}
+
+	/**
+	 * A set view of a linked list of transitions.
+	 * Transitions added after the list head was read are not included.
+	 */
+	private class Chain extends AbstractSet<Transition> {
+
+		private int head;
+		private int link;
+
+		Chain(int head, int link) {
+			this.head = head;
+			this.link = link;
+		}
+
+		public Iterator<Transition> iterator() {
+			return new Iterator<Transition>() {
+				int x = head;
+				public boolean hasNext() {
+					return x >= 0;
+				}
+				public Transition next() {
+					if (x < 0) throw new NoSuchElementException();
+					Transition t = transition(x);
+					x = records.get((long) x * REC + link);
+					return t;
+				}
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		public int size() {
+			int n = 0;
+			for (int x = head; x >= 0; x = records.get((long) x * REC + link))
+				n++;
+			return n;
+		}
+	}
+}
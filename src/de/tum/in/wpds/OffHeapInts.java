@@ -0,0 +1,177 @@
+package de.tum.in.wpds;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A growable array of ints stored outside the Java heap.
+ * The first chunk starts small and doubles as it fills, up to the
+ * chunk size, so that small arrays take little memory. Beyond it,
+ * the array is split into direct buffers of the chunk size,
+ * which are allocated when first written, so that it can grow
+ * beyond the size limit of a single buffer without copying.
+ * The buffers are released by {@link #free()}.
+ */
+class OffHeapInts {
+
+	private static final int SHIFT = 16;
+	private static final int CHUNK = 1 << SHIFT;
+	private static final int MASK = CHUNK - 1;
+
+	/**
+	 * The initial number of ints of the first chunk.
+	 */
+	private static final int INITIAL = 16;
+
+	/**
+	 * The chunks.
+	 */
+	private ByteBuffer[] chunks = new ByteBuffer[1];
+
+	/**
+	 * The value of elements that were never written.
+	 */
+	private int fill;
+
+	/**
+	 * The number of allocated ints.
+	 */
+	private long allocated = 0;
+
+	/**
+	 * Creates a new array whose elements are initially <code>fill</code>.
+	 *
+	 * @param fill the initial value.
+	 */
+	OffHeapInts(int fill) {
+		this.fill = fill;
+	}
+
+	/**
+	 * Returns the element at <code>i</code>.
+	 *
+	 * @param i the index.
+	 * @return the element.
+	 */
+	int get(long i) {
+		int c = (int) (i >>> SHIFT);
+		if (c >= chunks.length || chunks[c] == null) return fill;
+		int j = 4 * (int) (i & MASK);
+		ByteBuffer chunk = chunks[c];
+		return (j < chunk.capacity()) ? chunk.getInt(j) : fill;
+	}
+
+	/**
+	 * Sets the element at <code>i</code> to <code>v</code>.
+	 *
+	 * @param i the index.
+	 * @param v the value.
+	 */
+	void set(long i, int v) {
+		int c = (int) (i >>> SHIFT);
+		if (c >= chunks.length) {
+			ByteBuffer[] newChunks = new ByteBuffer[Math.max(2 * chunks.length, c + 1)];
+			System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+			chunks = newChunks;
+		}
+		int j = (int) (i & MASK);
+		ByteBuffer chunk = chunks[c];
+		if (chunk == null || 4 * j >= chunk.capacity()) {
+			int n = CHUNK;
+			if (c == 0) {
+				n = Math.max(INITIAL, Integer.highestOneBit(j) << 1);
+				if (chunk != null) n = Math.max(n, chunk.capacity() / 2);
+				n = Math.min(n, CHUNK);
+			}
+			chunk = chunks[c] = allocate(chunk, n);
+		}
+		chunk.putInt(4 * j, v);
+	}
+
+	/**
+	 * Allocates a chunk of <code>n</code> ints with the content of
+	 * <code>old</code>, which is released.
+	 */
+	private ByteBuffer allocate(ByteBuffer old, int n) {
+
+		ByteBuffer chunk = ByteBuffer.allocateDirect(4 * n).order(ByteOrder.nativeOrder());
+		int from = 0;
+		if (old != null) {
+			ByteBuffer src = old.duplicate();
+			src.clear();
+			chunk.put(src);
+			from = old.capacity() / 4;
+			release(old);
+		}
+		if (fill != 0) {
+			for (int j = from; j < n; j++)
+				chunk.putInt(4 * j, fill);
+		}
+		allocated += n - from;
+		return chunk;
+	}
+
+	/**
+	 * Returns the number of bytes allocated outside the heap.
+	 *
+	 * @return the number of bytes.
+	 */
+	long bytes() {
+		return 4 * allocated;
+	}
+
+	/**
+	 * Releases the buffers. The array is empty afterwards.
+	 */
+	void free() {
+		for (ByteBuffer chunk : chunks) {
+			if (chunk != null) release(chunk);
+		}
+		chunks = new ByteBuffer[1];
+		allocated = 0;
+	}
+
+	/**
+	 * The method that releases a direct buffer, and its receiver.
+	 */
+	private static Method cleaner;
+	private static Object unsafe;
+
+	static {
+		try {
+			// Java 9 and later
+			Class<?> c = Class.forName("sun.misc.Unsafe");
+			Field field = c.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			cleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (Exception e) {
+			unsafe = null;
+			cleaner = null;
+		}
+	}
+
+	/**
+	 * Releases the memory of the direct buffer <code>buf</code> now,
+	 * rather than when it is garbage collected.
+	 * If the JVM does not allow this, it is left to the garbage collector.
+	 */
+	private static void release(ByteBuffer buf) {
+		try {
+			if (cleaner != null) {
+				cleaner.invoke(unsafe, buf);
+				return;
+			}
+
+			// Java 8 and earlier
+			Method method = buf.getClass().getMethod("cleaner");
+			method.setAccessible(true);
+			Object c = method.invoke(buf);
+			if (c != null) c.getClass().getMethod("clean").invoke(c);
+		} catch (Exception e) {
+			// Left to the garbage collector
+		}
+	}
+}
@@ -1,21 +1,94 @@
 package de.tum.in.wpds;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * A pushdown system.
  * 
+ * <p>A pds built by adding rules is not thread-safe: even reading it
+ * may build its index. {@link #freeze()} returns an immutable copy
+ * that is fully indexed and can be shared by concurrent readers 
+ * without locks.
+ * 
  * @author suwimont
  *
  */
 public class Pds {
 
-	public HashSet<Rule> rules = new HashSet<Rule>();
+	/**
+	 * The rules. For a pds read by {@link PdsFile}, the set is filled 
+	 * when the rules are decoded, see {@link #getRules()}.
+	 * The set of a frozen pds is an unmodifiable view of its rules.
+	 */
+	public Set<Rule> rules = new HashSet<Rule>();
 	
 	HashMap<Config, Set<Rule>> leftMapper;
 	
+	/**
+	 * The snapshot whose rules are not yet decoded, or <code>null</code>.
+	 */
+	PdsSnapshot snapshot;
+	
+	/**
+	 * The index of a frozen pds, or <code>null</code>. The field is final,
+	 * so a frozen pds is safely published however it is shared.
+	 */
+	private final Frozen frozen;
+	
+	/**
+	 * Creates a new empty pds.
+	 */
+	public Pds() {
+		frozen = null;
+	}
+	
+	/**
+	 * Creates a frozen copy of <code>pds</code>.
+	 * 
+	 * @param pds the pds.
+	 * @see #freeze()
+	 */
+	protected Pds(Pds pds) {
+		frozen = new Frozen(pds);
+		rules = frozen.rules;
+	}
+	
+	/**
+	 * Returns an immutable copy of this pds, or this pds if it is frozen.
+	 * The copy shares the rules, is fully indexed, and is never modified
+	 * by reading it, so it can be shared by threads without locks.
+	 * Adding rules to it throws {@link UnsupportedOperationException}.
+	 * The rules and their weights must not be modified.
+	 * 
+	 * @return the frozen pds.
+	 */
+	public Pds freeze() {
+		return (frozen != null) ? this : new Pds(this);
+	}
+	
+	/**
+	 * Returns <code>true</code> if this pds is frozen.
+	 * 
+	 * @return <code>true</code> if this pds is immutable.
+	 * @see #freeze()
+	 */
+	public boolean isFrozen() {
+		return frozen != null;
+	}
+	
+	/**
+	 * Throws an exception if this pds is frozen.
+	 */
+	private void modify() {
+		if (frozen != null)
+			throw new UnsupportedOperationException("Frozen pds");
+	}
+	
 	/**
 	 * Adds rule py -&gt; qw (d) to this pds.
 	 * 
@@ -37,6 +110,8 @@ public class Pds {
 	 */
 	public void add(Rule r) {
 		
+		modify();
+		decode();
 		rules.add(r);
 		
 		if (leftMapper != null) {
@@ -44,22 +119,96 @@ public class Pds {
 		}
 	}
 	
+	/**
+	 * Adds all rules in <code>rules</code> to this pds.
+	 * 
+	 * @param rules the rules.
+	 */
+	public void addAll(Collection<Rule> rules) {
+		
+		modify();
+		decode();
+		this.rules.addAll(rules);
+		
+		if (leftMapper != null) {
+			for (Rule r : rules)
+				addRuleToMapper(leftMapper, r.left, r);
+		}
+	}
+	
 	/**
 	 * Returns the number of rules of this pds.
 	 * 
 	 * @return the number of rules of this pds.
 	 */
 	public int size() {
+		if (frozen != null) return frozen.rules.size();
+		if (snapshot != null) return snapshot.size();
 		return rules.size();
 	}
 	
+	/**
+	 * Returns the rules of this pds. 
+	 * The rules of a snapshot are decoded.
+	 * 
+	 * @return the rules.
+	 */
+	public Set<Rule> getRules() {
+		if (frozen != null) return frozen.rules;
+		decode();
+		return rules;
+	}
+	
+	/**
+	 * Returns the rules having <code>c</code> on the left-hand side,
+	 * or <code>null</code> if there is none.
+	 * For a snapshot, only these rules are decoded.
+	 * 
+	 * @param c the left-hand-side configuration.
+	 * @return the rules.
+	 */
+	public Set<Rule> getRules(Config c) {
+		if (frozen != null) return frozen.index.get(c);
+		if (snapshot != null) return snapshot.getRules(c);
+		return getLeftMapper().get(c);
+	}
+	
+	/**
+	 * Returns <code>true</code> if this pds has a dynamic rule.
+	 * 
+	 * @return <code>true</code> if there is a dynamic rule.
+	 */
+	public boolean hasDynamicRules() {
+		if (frozen != null) return frozen.dynamic;
+		if (snapshot != null) return snapshot.hasDynamicRules();
+		for (Rule rule : rules) {
+			if (rule.isDynamic()) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Decodes all rules of the snapshot, if any.
+	 */
+	private void decode() {
+		if (snapshot == null) return;
+		
+		leftMapper = snapshot.getAll();
+		for (Set<Rule> set : leftMapper.values())
+			rules.addAll(set);
+		snapshot = null;
+	}
+	
 	/**
 	 * Returns the set of stack symbols of this pds.
+	 * The set of a frozen pds is immutable.
 	 * 
 	 * @return the set of stack symbols.
 	 */
 	public Set<String> getStackSymbols() {
 		
+		if (frozen != null) return frozen.symbols;
+		if (snapshot != null) return snapshot.getStackSymbols();
 		HashSet<String> symbols = new HashSet<String>(rules.size());
 		for (Rule rule : rules) {
 			
@@ -78,20 +227,25 @@ public class Pds {
 	
 	private static void addRuleToMapper(HashMap<Config, Set<Rule>> mapper, Config c, Rule r) {
 		
-		Set<Rule> set = mapper.remove(c);
-		if (set == null) set = new HashSet<Rule>();
+		Set<Rule> set = mapper.get(c);
+		if (set == null) {
+			set = new HashSet<Rule>();
+			mapper.put(c, set);
+		}
 		set.add(r);
-		mapper.put(c, set);
 	}
 	
 	/**
 	 * Returns a mapper that maps configs to sets of rules having configs
-	 * on the left-hand side.
+	 * on the left-hand side. The mapper of a frozen pds and its sets
+	 * are unmodifiable.
 	 * 
 	 * @return the left mapper.
 	 */
-	public HashMap<Config, Set<Rule>> getLeftMapper() {
+	public Map<Config, Set<Rule>> getLeftMapper() {
 		
+		if (frozen != null) return frozen.index;
+		decode();
 		if (leftMapper != null) return leftMapper;
 		
 		leftMapper = new HashMap<Config, Set<Rule>>(rules.size());
@@ -111,10 +265,31 @@ public class Pds {
 	public String toString() {
 		
 		StringBuilder out = new StringBuilder();
-		for (Rule rule : rules) {
+		for (Rule rule : getRules()) {
 			out.append(rule);
 			out.append("\n");
 		}
 		return out.toString();
 	}
+	
+	/**
+	 * The immutable index of a frozen pds.
+	 */
+	private static class Frozen {
+		final Set<Rule> rules;
+		final Map<Config, Set<Rule>> index;
+		final Set<String> symbols;
+		final boolean dynamic;
+		
+		Frozen(Pds pds) {
+			rules = Collections.unmodifiableSet(new HashSet<Rule>(pds.getRules()));
+			Map<Config, Set<Rule>> mapper = pds.getLeftMapper();
+			HashMap<Config, Set<Rule>> map = new HashMap<Config, Set<Rule>>(mapper.size() * 4 / 3 + 1);
+			for (Map.Entry<Config, Set<Rule>> entry : mapper.entrySet())
+				map.put(entry.getKey(), new FrozenSet<Rule>(entry.getValue()));
+			index = Collections.unmodifiableMap(map);
+			symbols = Collections.unmodifiableSet(new HashSet<String>(pds.getStackSymbols()));
+			dynamic = pds.hasDynamicRules();
+		}
+	}
 }
@@ -0,0 +1,248 @@
+package de.tum.in.wpds;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Binary snapshot format of fully indexed pushdown systems and
+ * dynamic pushdown networks.
+ *
+ * <p>A snapshot is a block consisting of a header (magic number, version,
+ * length of the rest of the block), followed by flags, the interned
+ * symbol table, the set of stack symbols, the rule groups sorted by their
+ * left-hand-side configuration, a table of rule offsets, and the rules.
+ * A rule is stored with its global and dynamic flags, its right-hand side
+ * (whose length gives the kind of the rule), its dynamic right-hand side,
+ * and its weight encoded by a {@link SemiringCodec}.
+ *
+ * <p>Reading a snapshot does not decode it. The pds returned is backed
+ * by the memory-mapped file: {@link Pds#getRules(Config)} decodes
+ * the rules of a left-hand side on first use, and the size and the stack
+ * symbols are read directly from the snapshot, so a saturation starts
+ * without building the rule index. Processes mapping the same file
+ * share its pages. The rules are decoded all at once when the pds is
+ * modified or the whole rule set is requested.
+ */
+public class PdsFile {
+
+	/**
+	 * The magic number: "JWPD".
+	 */
+	static final int MAGIC = 0x4a575044;
+
+	/**
+	 * The version of the format.
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * The flags of the snapshot.
+	 */
+	static final int DPN = 1;
+	static final int DYNAMIC = 2;
+
+	/**
+	 * The flags of rules.
+	 */
+	static final int GLOBAL_RULE = 1;
+	static final int DYNAMIC_RULE = 2;
+
+	/**
+	 * The size of a group record in bytes:
+	 * control location, stack symbol, first rule, number of rules.
+	 */
+	static final int GROUP = 16;
+
+	/**
+	 * Writes the pds <code>pds</code> to <code>file</code>.
+	 *
+	 * @param pds the pds.
+	 * @param file the file.
+	 * @param codec the semiring codec.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static void write(Pds pds, File file, SemiringCodec codec) throws IOException {
+
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			write(pds, out, codec);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the pds <code>pds</code> as a block to <code>out</code>.
+	 *
+	 * @param pds the pds.
+	 * @param out the output.
+	 * @param codec the semiring codec.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static void write(Pds pds, DataOutput out, SemiringCodec codec) throws IOException {
+
+		// Interns the symbols and sorts the groups
+		final SymbolTable symbols = new SymbolTable();
+		Map<Config, Set<Rule>> mapper = pds.getLeftMapper();
+		List<Config> lefts = new ArrayList<Config>(mapper.keySet());
+		for (Config c : lefts) {
+			symbols.intern(c.p);
+			symbols.intern(c.w[0]);
+		}
+		Collections.sort(lefts, new Comparator<Config>() {
+			public int compare(Config c1, Config c2) {
+				int p1 = symbols.getId(c1.p), p2 = symbols.getId(c2.p);
+				if (p1 != p2) return (p1 < p2) ? -1 : 1;
+				int a1 = symbols.getId(c1.w[0]), a2 = symbols.getId(c2.w[0]);
+				return (a1 < a2) ? -1 : (a1 == a2) ? 0 : 1;
+			}
+		});
+
+		// Encodes the rules
+		ByteArrayOutputStream rbytes = new ByteArrayOutputStream();
+		DataOutputStream rout = new DataOutputStream(rbytes);
+		int[] offsets = new int[pds.size()];
+		int[] first = new int[lefts.size()];
+		int[] count = new int[lefts.size()];
+		int n = 0;
+		boolean dynamic = false;
+		for (int l = 0; l < lefts.size(); l++) {
+			first[l] = n;
+			for (Rule rule : mapper.get(lefts.get(l))) {
+				offsets[n++] = rout.size();
+				count[l]++;
+				int flags = 0;
+				if (rule.isGlobal()) flags |= GLOBAL_RULE;
+				if (rule.isDynamic()) flags |= DYNAMIC_RULE;
+				dynamic |= rule.isDynamic();
+				rout.writeByte(flags);
+				write(rout, rule.right, symbols);
+				if (rule.isDynamic()) write(rout, rule.dynamic, symbols);
+				codec.write(rule.d, rout);
+			}
+		}
+		rout.flush();
+
+		// Encodes the symbols
+		Set<String> stack = pds.getStackSymbols();
+		for (String s : stack) symbols.intern(s);
+		int m = symbols.size();
+		ByteArrayOutputStream sbytes = new ByteArrayOutputStream();
+		DataOutputStream sout = new DataOutputStream(sbytes);
+		for (int id = 0; id < m; id++) {
+			byte[] b = symbols.getSymbol(id).getBytes("UTF-8");
+			sout.writeInt(b.length);
+			sout.write(b);
+		}
+		sout.flush();
+
+		long length = 4 + 4 + 4 + (long) sbytes.size() + 4 + 4L * stack.size()
+				+ 4 + (long) GROUP * lefts.size() + 4 + 4L * n + 4 + rbytes.size();
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Pds too large: " + length + " bytes");
+
+		int flags = 0;
+		if (pds instanceof Dpn) flags |= DPN;
+		if (dynamic) flags |= DYNAMIC;
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt((int) length);
+		out.writeInt(flags);
+		out.writeInt(m);
+		out.writeInt(sbytes.size());
+		out.write(sbytes.toByteArray());
+		out.writeInt(stack.size());
+		for (String s : stack)
+			out.writeInt(symbols.getId(s));
+		out.writeInt(lefts.size());
+		for (int l = 0; l < lefts.size(); l++) {
+			Config c = lefts.get(l);
+			out.writeInt(symbols.getId(c.p));
+			out.writeInt(symbols.getId(c.w[0]));
+			out.writeInt(first[l]);
+			out.writeInt(count[l]);
+		}
+		out.writeInt(n);
+		for (int i = 0; i < n; i++)
+			out.writeInt(offsets[i]);
+		out.writeInt(rbytes.size());
+		out.write(rbytes.toByteArray());
+	}
+
+	private static void write(DataOutputStream out, Config c, SymbolTable symbols)
+			throws IOException {
+		out.writeInt(symbols.intern(c.p));
+		out.writeInt(c.w.length);
+		for (int i = 0; i < c.w.length; i++)
+			out.writeInt(symbols.intern(c.w[i]));
+	}
+
+	/**
+	 * Memory-maps <code>file</code> and returns the pds stored in it.
+	 * The result is a {@link Dpn} if a dpn was written.
+	 *
+	 * @param file the file.
+	 * @param codec the semiring codec.
+	 * @return the pds backed by the file.
+	 * @throws IOException if an I/O error occurs or the file is not
+	 * 		a pds snapshot.
+	 */
+	public static Pds read(File file, SemiringCodec codec) throws IOException {
+
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("File too large: " + file);
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), codec);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the pds block starting at the current position of
+	 * <code>in</code>. The position is advanced past the block.
+	 * The pds returned is backed by <code>in</code>.
+	 *
+	 * @param in the input.
+	 * @param codec the semiring codec.
+	 * @return the pds.
+	 * @throws IOException if the input is not a pds block.
+	 */
+	public static Pds read(ByteBuffer in, SemiringCodec codec) throws IOException {
+
+		if (in.remaining() < 12 || in.getInt() != MAGIC)
+			throw new IOException("Not a pds snapshot");
+		int version = in.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported version: " + version);
+		int length = in.getInt();
+		if (length > in.remaining())
+			throw new IOException("Truncated pds snapshot");
+
+		ByteBuffer buf = in.slice();
+		buf.limit(length);
+		in.position(in.position() + length);
+
+		PdsSnapshot snapshot = new PdsSnapshot(buf, codec);
+		Pds pds = snapshot.isDpn() ? new Dpn() : new Pds();
+		pds.snapshot = snapshot;
+		return pds;
+	}
+}
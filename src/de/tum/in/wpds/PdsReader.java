@@ -0,0 +1,356 @@
+package de.tum.in.wpds;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+
+/**
+ * Streaming reader of pushdown systems and dynamic pushdown networks
+ * in the textual format of {@link Rule#toString()}, one rule per line:
+ *
+ * <pre>
+ * &lt;p, a&gt; -&gt; &lt;q, b c&gt; |&gt; &lt;r, d&gt; (w) [global]
+ * </pre>
+ *
+ * The dynamic part <code>|&gt; &lt;r, d&gt;</code>, the weight
+ * <code>(w)</code> and the flag <code>[global]</code> are optional.
+ * Empty lines and lines starting with <code>#</code> are ignored.
+ *
+ * <p>The input is read in blocks from a channel and tokenized in place.
+ * Symbols are interned, so each distinct symbol is decoded only once and
+ * shared by all rules. They are interned with {@link String#intern()},
+ * since {@link Config#equals(Object)} compares control locations by reference.
+ * The rules are added to the pds in bulk, so that its rule index is
+ * built once.
+ */
+public class PdsReader {
+
+	/**
+	 * Parses weight tokens into semiring values.
+	 */
+	public static interface WeightParser {
+
+		/**
+		 * Returns the semiring value denoted by <code>token</code>,
+		 * the text between the parentheses, or by <code>null</code>
+		 * if the rule has no weight.
+		 *
+		 * @param token the weight token.
+		 * @return the semiring value.
+		 */
+		public Semiring parse(String token);
+	}
+
+	private static final int BLOCK = 1 << 16;
+
+	/**
+	 * The weight parser.
+	 */
+	private WeightParser parser;
+
+	/**
+	 * The input buffer.
+	 */
+	private ByteBuffer buf = ByteBuffer.allocate(BLOCK);
+
+	/**
+	 * Determines whether the end of the input has been reached.
+	 */
+	private boolean eof;
+
+	/**
+	 * The current line number.
+	 */
+	private int line;
+
+	/**
+	 * The current position and the end of the current line in the buffer.
+	 */
+	private int pos, end;
+
+	/**
+	 * The interned symbols: an open-addressing table keyed by
+	 * the UTF-8 bytes of the symbols.
+	 */
+	private byte[][] keys = new byte[1 << 10][];
+	private String[] values = new String[1 << 10];
+	private int nsymbols = 0;
+
+	/**
+	 * Creates a new reader parsing weights with <code>parser</code>.
+	 *
+	 * @param parser the weight parser.
+	 */
+	public PdsReader(WeightParser parser) {
+		this.parser = parser;
+	}
+
+	/**
+	 * Reads the rules from <code>file</code> into <code>pds</code>.
+	 *
+	 * @param file the file.
+	 * @param pds the pds.
+	 * @throws IOException if an I/O error occurs or the file is malformed.
+	 */
+	public void read(File file, Pds pds) throws IOException {
+
+		FileInputStream in = new FileInputStream(file);
+		try {
+			read(in.getChannel(), pds);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the rules from <code>in</code> into <code>pds</code>.
+	 * Dynamic rules require <code>pds</code> to be a {@link Dpn}.
+	 *
+	 * @param in the input.
+	 * @param pds the pds.
+	 * @throws IOException if an I/O error occurs or the input is malformed.
+	 */
+	public void read(ReadableByteChannel in, Pds pds) throws IOException {
+
+		ArrayList<Rule> rules = new ArrayList<Rule>();
+		buf.clear();
+		buf.limit(0);
+		eof = false;
+		line = 0;
+		while (nextLine(in)) {
+			skipSpaces();
+			if (pos == end || buf.get(pos) == '#') continue;
+
+			Rule rule = parseRule();
+			if (rule.isDynamic() && !(pds instanceof Dpn))
+				throw error("Dynamic rule in a pds that is not a dpn");
+			rules.add(rule);
+		}
+		pds.addAll(rules);
+	}
+
+	/**
+	 * Moves to the next line, reading from <code>in</code> if needed.
+	 *
+	 * @return <code>false</code> if there are no more lines.
+	 */
+	private boolean nextLine(ReadableByteChannel in) throws IOException {
+
+		// Skips the current line
+		if (line > 0) buf.position(Math.min(end + 1, buf.limit()));
+
+		while (true) {
+			for (int i = buf.position(); i < buf.limit(); i++) {
+				if (buf.get(i) == '\n') {
+					pos = buf.position();
+					end = i;
+					line++;
+					return true;
+				}
+			}
+
+			if (eof) {
+				if (!buf.hasRemaining()) return false;
+
+				// The last line without a newline
+				pos = buf.position();
+				end = buf.limit();
+				line++;
+				return true;
+			}
+
+			// Reads more
+			buf.compact();
+			if (!buf.hasRemaining()) {
+				ByteBuffer bigger = ByteBuffer.allocate(2 * buf.capacity());
+				buf.flip();
+				bigger.put(buf);
+				buf = bigger;
+			}
+			eof = in.read(buf) < 0;
+			buf.flip();
+		}
+	}
+
+	private IOException error(String message) {
+		return new IOException(String.format("Line %d: %s", line, message));
+	}
+
+	private void skipSpaces() {
+		while (pos < end) {
+			byte b = buf.get(pos);
+			if (b != ' ' && b != '\t' && b != '\r') break;
+			pos++;
+		}
+	}
+
+	private boolean accept(String s) {
+		skipSpaces();
+		int n = s.length();
+		if (pos + n > end) return false;
+		for (int i = 0; i < n; i++)
+			if (buf.get(pos + i) != s.charAt(i)) return false;
+		pos += n;
+		return true;
+	}
+
+	private void expect(String s) throws IOException {
+		if (!accept(s)) throw error(String.format("Expected '%s'", s));
+	}
+
+	/**
+	 * Parses <code>&lt;p, a&gt; -&gt; &lt;q, w&gt; [|&gt; &lt;r, v&gt;] [(d)] [[global]]</code>.
+	 */
+	private Rule parseRule() throws IOException {
+
+		Config left = parseConfig();
+		if (left.w.length != 1)
+			throw error("The left-hand side must have one stack symbol");
+		expect("->");
+		Config right = parseConfig();
+		Config dynamic = null;
+		if (accept("|>")) dynamic = parseConfig();
+
+		String token = null;
+		if (accept("(")) {
+			int start = pos;
+			int depth = 1;
+			while (pos < end) {
+				byte b = buf.get(pos);
+				if (b == '(') depth++;
+				else if (b == ')' && --depth == 0) break;
+				pos++;
+			}
+			if (pos == end) throw error("Expected ')'");
+			token = decode(start, pos).trim();
+			pos++;
+		}
+
+		Semiring d;
+		try {
+			d = parser.parse(token);
+		} catch (RuntimeException e) {
+			throw error(String.format("Invalid weight '%s': %s", token, e.getMessage()));
+		}
+		Rule rule = new Rule(d, left, right, dynamic);
+		if (accept("[")) {
+			expect("global");
+			expect("]");
+			rule.setGlobal(true);
+		}
+
+		skipSpaces();
+		if (pos != end) throw error("Unexpected input");
+		return rule;
+	}
+
+	/**
+	 * Parses <code>&lt;p&gt;</code> or <code>&lt;p, w&gt;</code>.
+	 */
+	private Config parseConfig() throws IOException {
+
+		expect("<");
+		String p = symbol();
+		if (accept(">")) return new Config(p, new String[0]);
+		expect(",");
+
+		int n = 0;
+		String[] w = new String[2];
+		while (!accept(">")) {
+			if (n == w.length) {
+				String[] bigger = new String[2 * n];
+				System.arraycopy(w, 0, bigger, 0, n);
+				w = bigger;
+			}
+			w[n++] = symbol();
+		}
+		if (n != w.length) {
+			String[] exact = new String[n];
+			System.arraycopy(w, 0, exact, 0, n);
+			w = exact;
+		}
+		return new Config(p, w);
+	}
+
+	/**
+	 * Reads a symbol: a maximal sequence of bytes other than spaces,
+	 * commas and angle brackets.
+	 */
+	private String symbol() throws IOException {
+
+		skipSpaces();
+		int start = pos;
+		int h = 0;
+		while (pos < end) {
+			byte b = buf.get(pos);
+			if (b == ' ' || b == '\t' || b == '\r' || b == ',' || b == '<' || b == '>')
+				break;
+			h = 31 * h + b;
+			pos++;
+		}
+		if (pos == start) throw error("Expected a symbol");
+		return intern(start, pos, h);
+	}
+
+	/**
+	 * Returns the interned symbol of the bytes from <code>start</code>
+	 * to <code>stop</code> with hash <code>h</code>.
+	 */
+	private String intern(int start, int stop, int h) throws IOException {
+
+		int len = stop - start;
+		int mask = keys.length - 1;
+		int i = (h ^ (h >>> 16)) & mask;
+		while (keys[i] != null) {
+			byte[] key = keys[i];
+			if (key.length == len) {
+				int j = 0;
+				while (j < len && key[j] == buf.get(start + j)) j++;
+				if (j == len) return values[i];
+			}
+			i = (i + 1) & mask;
+		}
+
+		byte[] key = new byte[len];
+		for (int j = 0; j < len; j++) key[j] = buf.get(start + j);
+		String s = decode(start, stop).intern();
+		keys[i] = key;
+		values[i] = s;
+		if (++nsymbols > keys.length / 2) rehash();
+		return s;
+	}
+
+	private void rehash() {
+
+		byte[][] oldKeys = keys;
+		String[] oldValues = values;
+		keys = new byte[2 * oldKeys.length][];
+		values = new String[2 * oldKeys.length];
+		int mask = keys.length - 1;
+		for (int k = 0; k < oldKeys.length; k++) {
+			byte[] key = oldKeys[k];
+			if (key == null) continue;
+			int h = 0;
+			for (int j = 0; j < key.length; j++) h = 31 * h + key[j];
+			int i = (h ^ (h >>> 16)) & mask;
+			while (keys[i] != null) i = (i + 1) & mask;
+			keys[i] = key;
+			values[i] = oldValues[k];
+		}
+	}
+
+	private String decode(int start, int stop) throws IOException {
+
+		byte[] b = new byte[stop - start];
+		for (int j = 0; j < b.length; j++) b[j] = buf.get(start + j);
+		try {
+			return new String(b, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+}
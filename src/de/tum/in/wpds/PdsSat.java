@@ -1,8 +1,21 @@
 package de.tum.in.wpds;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class PdsSat extends Sat {
 
@@ -10,94 +23,429 @@ public class PdsSat extends Sat {
 	private Fa sat;
 	private WorkSet<Transition> workset = new LifoWorkSet<Transition>();
 	
+	/**
+	 * The transitions changed since the last checkpoint,
+	 * or <code>null</code> if no checkpoint is written.
+	 */
+	private Set<Transition> dirty;
+	
+	/**
+	 * The size of the automaton when its memory was last estimated,
+	 * and the estimate.
+	 */
+	private int estimatedSize;
+	private long estimatedBytes;
+	
+	/**
+	 * The number of worker threads.
+	 */
+	private int threads = 1;
+	
+	/**
+	 * The queue shared by parallel workers, and the number of transitions
+	 * queued or being processed.
+	 */
+	private ConcurrentLinkedQueue<Transition> queue;
+	private AtomicInteger pending;
+	
+	/**
+	 * The lock and condition on which idle workers park until a transition
+	 * is queued or the run ends, and the number of parked workers.
+	 * The number is only changed with the lock held.
+	 */
+	private ReentrantLock idle;
+	private Condition ready;
+	private volatile int parked;
+	
+	/**
+	 * Determines whether the current run saturates in parallel.
+	 */
+	private boolean concurrent;
+	
+	/**
+	 * Determines whether parallel workers must stop.
+	 */
+	private volatile boolean halt;
+	
 	public PdsSat(Pds pds) {
 		this.pds = pds;
 	}
 	
+	public Pds getPds() {
+		return pds;
+	}
+	
 	/**
-	 * Updates the saturating automaton with the transition <code>t</code> 
-	 * and the semiring value <code>d</code>.
-	 * The method should add more elements to the worklist
-	 * if the transition is new or the semiring value is not already included.
-	 * The rule <code>r</code> and transitions <code>T</code>
-	 * are witnesses.
+	 * Sets the number of worker threads. If more than one thread is used,
+	 * the weights of the initial automaton and of the rules are 
+	 * {@link ThreadSafeSemiring}s, and neither a checkpoint nor a profiler 
+	 * is set, the workers drain a shared workset and add to a 
+	 * {@link ConcurrentFa}, which is returned. Otherwise the saturation 
+	 * runs sequentially. The default is one.
 	 * 
-	 * @param r the witness rule.
-	 * @param d the sermiring value.
-	 * @param t the transition.
-	 * @param T the witness transitions.
-	 * @return <code>true</code> iff the transition is new or the semiring
-	 * 			value is not already included.
+	 * @param threads the number of worker threads.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+	
+	/**
+	 * Repeatedly removes an element from the workset and saturates,
+	 * in parallel if enabled and possible.
+	 */
+	private void depleteWorkset() {
+		if (parallel()) depleteParallel();
+		else depleteSequential();
+	}
+	
+	/**
+	 * Repeatedly removes an element from the workset and saturates.
 	 */
-	private boolean update(Rule r, Semiring d, Transition t, Transition... T) {
-		if (d.isZero())
-			return false;
+	private void depleteSequential() {
 		
-		boolean updated = false;
-		if (sat.add(d, t)) {
-			workset.add(t);
-			updated = true;
+		Worker worker = new Worker(stats, false);
+		int steps = 0;
+		long start = (stats != null) ? System.nanoTime() : 0;
+		SatEvents.Batch batch = new SatEvents.Batch();
+		batch.begin();
+		while (!workset.isEmpty()) {
+			
+			if (monitor.isCanceled() || (budget != null && budget.timeUp())) {
+				if (Trace.ENABLED && monitor.isCanceled()) Trace.canceled();
+				break;
+			}
+			if ((++steps & 0xff) == 0) {
+				batch = SatEvents.next(batch, 0x100, workset.size(), sat.size());
+				if (budget != null) {
+					if (budget.limitsMemory()) budget.memory(estimateSize());
+					if (budget.check()) {
+						log("Budget exhausted: %s%n", budget);
+						break;
+					}
+				}
+				if (dirty != null && checkpoint.due()) {
+					if (stats != null) stats.stop(SatStatistics.Phase.SATURATE, start);
+					writeCheckpoint();
+					if (stats != null) start = System.nanoTime();
+				}
+			}
+			
+			Transition t = (Transition) workset.remove();
+			if (budget != null) budget.transition();
+			worker.process(t);
 		}
-		
-		return updated;
+		if (stats != null) stats.stop(SatStatistics.Phase.SATURATE, start);
+		SatEvents.next(batch, steps & 0xff, workset.size(), sat.size());
 	}
 	
 	/**
-	 * A convenient method for 
-	 * {@link #update(Rule, Semiring, Transition, Transition...)}.
+	 * Returns <code>true</code> if the saturation runs in parallel, i.e.
+	 * the run was started in parallel and, when it is continued, 
+	 * more than one thread is set and no profiler is set.
 	 * 
-	 * @param r the witness rule.
-	 * @param d the sermiring value.
-	 * @param p the transition's from-state
-	 * @param a the transition's letter.
-	 * @param q the transition's to-state
-	 * @param T the witness transitions.
-	 * @return <code>true</code> iff the transition is new or the semiring
-	 * 			value is not already included.
+	 * @return <code>true</code> if the saturation runs in parallel.
 	 */
-	private boolean update(Rule r, Semiring d, String p, String a, String q, 
-			Transition... T) {
-		return update(r, d, new Transition(p, a, q), T);
+	private boolean parallel() {
+		return concurrent && threads > 1 && profiler == null;
 	}
 	
 	/**
-	 * Repeatedly removes an element from the workset and saturates.
+	 * Saturates with a pool of workers draining a shared queue.
+	 * The run terminates when no transition is queued or being processed.
+	 * The transitions left by a canceled run go back to the workset.
 	 */
-	private void depleteWorkset() {
+	private void depleteParallel() {
 		
-		HashMap<Config, Set<Rule>> rmap = pds.getLeftMapper();
+		long start = (stats != null) ? System.nanoTime() : 0;
+		queue = new ConcurrentLinkedQueue<Transition>();
+		pending = new AtomicInteger();
+		idle = new ReentrantLock();
+		ready = idle.newCondition();
+		parked = 0;
+		halt = false;
 		while (!workset.isEmpty()) {
+			pending.incrementAndGet();
+			queue.add(workset.remove());
+		}
+		log("Saturating with %d threads%n", threads);
+		
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Worker> workers = new ArrayList<Worker>(threads);
+		List<Future<?>> results = new ArrayList<Future<?>>(threads);
+		for (int i = 0; i < threads; i++) {
+			Worker worker = new Worker((stats != null) ? new SatStatistics() : null, true);
+			workers.add(worker);
+			results.add(pool.submit(worker));
+		}
+		try {
+			for (Future<?> result : results)
+				result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			monitor.setCanceled(true);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			halt = true;
+			wake(true);
+			pool.shutdown();
+			try {
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
 			
-			if (monitor.isCanceled()) return;
+			// Keeps what is left for proceeding
+			Transition t;
+			while ((t = queue.poll()) != null)
+				workset.add(t);
+			queue = null;
+			pending = null;
+		}
+		
+		if (budget != null && budget.isExhausted())
+			log("Budget exhausted: %s%n", budget);
+		if (Trace.ENABLED && monitor.isCanceled()) Trace.canceled();
+		if (stats != null) {
+			for (Worker worker : workers)
+				stats.add(worker.stats);
+			stats.stop(SatStatistics.Phase.SATURATE, start);
+		}
+	}
+	
+	/**
+	 * Parks the calling worker until a transition is queued,
+	 * no transition is pending, or the run is halted.
+	 */
+	private void park() {
+		
+		idle.lock();
+		try {
+			parked++;
+			while (queue.isEmpty() && pending.get() > 0 && !halt)
+				ready.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			halt = true;
+			ready.signalAll();
+		} finally {
+			parked--;
+			idle.unlock();
+		}
+	}
+	
+	/**
+	 * Wakes one parked worker after a transition was queued, or all of
+	 * them when the run ends. The workers park after incrementing
+	 * {@link #parked} and checking the queue, so a worker that is not
+	 * woken sees the new transition.
+	 * 
+	 * @param all determines whether all workers are woken.
+	 */
+	private void wake(boolean all) {
+		
+		if (parked == 0) return;
+		idle.lock();
+		try {
+			if (all) ready.signalAll();
+			else ready.signal();
+		} finally {
+			idle.unlock();
+		}
+	}
+	
+	/**
+	 * Fires the rules on transitions and puts the changed transitions 
+	 * into the workset. The sequential saturation uses one worker, the 
+	 * parallel saturation one per thread with its own statistics.
+	 */
+	private class Worker implements Runnable {
+		
+		/**
+		 * The statistics, or <code>null</code>.
+		 */
+		SatStatistics stats;
+		
+		/**
+		 * Determines whether this worker runs in parallel with others.
+		 */
+		boolean concurrent;
+		
+		Worker(SatStatistics stats, boolean concurrent) {
+			this.stats = stats;
+			this.concurrent = concurrent;
+		}
+		
+		/**
+		 * Drains the shared queue until it is empty and no other worker 
+		 * is processing a transition, or the run is halted. While the
+		 * queue is empty but other workers are processing, the worker
+		 * parks instead of spinning.
+		 */
+		public void run() {
+			
+			int steps = 0;
+			SatEvents.Batch batch = new SatEvents.Batch();
+			batch.begin();
+			while (!halt) {
+				
+				Transition t = queue.poll();
+				if (t == null) {
+					if (pending.get() == 0) break;
+					park();
+					continue;
+				}
+				try {
+					process(t);
+				} finally {
+					if (pending.decrementAndGet() == 0) wake(true);
+				}
+				
+				if (monitor.isCanceled()) stop();
+				if ((++steps & 0xff) == 0) {
+					batch = SatEvents.next(batch, 0x100, pending.get(), sat.size());
+					if (budget != null && charge(0x100)) stop();
+				}
+			}
+			if (budget != null) charge(steps & 0xff);
+			SatEvents.next(batch, steps & 0xff, 0, sat.size());
+		}
+		
+		/**
+		 * Halts the run and wakes the parked workers.
+		 */
+		private void stop() {
+			halt = true;
+			wake(true);
+		}
+		
+		/**
+		 * Charges the budget with <code>n</code> transitions.
+		 * 
+		 * @param n the number of transitions.
+		 * @return <code>true</code> if the budget is exhausted.
+		 */
+		private boolean charge(int n) {
+			synchronized (budget) {
+				for (int i = 0; i < n; i++)
+					budget.transition();
+				if (budget.limitsMemory()) budget.memory(estimateSize());
+				return budget.check();
+			}
+		}
+		
+		/**
+		 * Updates the saturating automaton with the transition <code>t</code> 
+		 * and the semiring value <code>d</code>.
+		 * The method should add more elements to the worklist
+		 * if the transition is new or the semiring value is not already included.
+		 * The rule <code>r</code> and transitions <code>T</code>
+		 * are witnesses.
+		 * 
+		 * @param r the witness rule.
+		 * @param d the sermiring value.
+		 * @param t the transition.
+		 * @param T the witness transitions.
+		 * @return <code>true</code> iff the transition is new or the semiring
+		 * 			value is not already included.
+		 */
+		boolean update(Rule r, Semiring d, Transition t, Transition... T) {
+			if (d.isZero())
+				return false;
+			
+			int size = (profiler != null) ? sat.size() : 0;
+			if (!sat.add(d, t, stats))
+				return false;
+			
+			if (concurrent) {
+				pending.incrementAndGet();
+				queue.add(t);
+				wake(false);
+				if (stats != null) stats.transitionWorkset(pending.get());
+			} else {
+				workset.add(t);
+				if (stats != null) stats.transitionWorkset(workset.size());
+			}
+			if (profiler != null) profiler.update(sat.size() > size);
+			if (dirty != null) dirty.add(t);
+			return true;
+		}
+		
+		/**
+		 * A convenient method for 
+		 * {@link #update(Rule, Semiring, Transition, Transition...)}.
+		 * 
+		 * @param r the witness rule.
+		 * @param d the sermiring value.
+		 * @param p the transition's from-state
+		 * @param a the transition's letter.
+		 * @param q the transition's to-state
+		 * @param T the witness transitions.
+		 * @return <code>true</code> iff the transition is new or the semiring
+		 * 			value is not already included.
+		 */
+		boolean update(Rule r, Semiring d, String p, String a, String q, 
+				Transition... T) {
+			return update(r, d, new Transition(p, a, q), T);
+		}
+		
+		/**
+		 * Notifies the listener that the label is reached.
+		 * 
+		 * @param label the label.
+		 */
+		void reached(String label) {
+			if (!concurrent) {
+				updateListener(label);
+				return;
+			}
+			synchronized (PdsSat.this) {
+				updateListener(label);
+			}
+		}
+		
+		/**
+		 * Counts an extend operation.
+		 */
+		void extended() {
+			if (stats != null) stats.extendCalls++;
+			if (profiler != null) profiler.extend();
+		}
+		
+		/**
+		 * Fires the rules on the pending diff of the transition <code>t</code>
+		 * and clears the diff.
+		 * 
+		 * @param t the transition.
+		 */
+		void process(Transition t) {
 			
-			Transition t = (Transition) workset.remove();
 			Semiring d;
-			log("%nSaturating %s%n", t);
+			if (Trace.ENABLED) Trace.record(Trace.Event.TRANSITION, t, null);
+			if (stats != null) stats.transitions++;
 			
 			// For all rules beginning with <p,a>
-			Set<Rule> rules = rmap.get(new Config(t.p, t.a));
-			if (rules == null) {
-				log("\tNo matching rule found\n");
-				continue;
-			}
+			Config head = new Config(t.p, t.a);
+			Set<Rule> rules = pds.getRules(head);
+			if (rules == null) return;
 			
-			// Gets the diff weight
-			Semiring diff = sat.getDiff(t);
-			if (diff == null) {
-				log("\t\tZero diff at %s%n", t);
-				continue;
-			}
+			// Gets the diff weight; concurrent workers take it over
+			Semiring diff = concurrent ? ((ConcurrentFa) sat).takeDiff(t) : sat.getDiff(t);
+			if (diff == null) return;
 			
 			// Iterates for each matching rule
 			for (Rule rule : rules) {
 				
-				log("\tRule %s%n", rule);
+				if (Trace.ENABLED) Trace.record(Trace.Event.RULE, rule, t);
+				if (profiler != null) profiler.begin(rule, head);
 				String p = rule.right.p;
 				String[] w = rule.right.w;
 				
 				d = diff.extend(rule.d, monitor);
+				extended();
+				if (stats != null) fired(stats, w);
 				if (d.isZero()) {
-					log("\t\tZero after extended%n");
+					if (Trace.ENABLED) Trace.record(Trace.Event.ZERO, rule, t);
 					continue;
 				}
 				
@@ -108,13 +456,14 @@ public class PdsSat extends Sat {
 					update(rule, d, p, Fa.epsilon, t.q, t);
 					
 					// Adds transitions that are reachable from this epsilon transition
-					Set<Transition> trans = sat.hmaps.get(t.q);
+					Set<Transition> trans = sat.getTransitions(t.q);
 					if (trans == null) continue;
 					for (Transition tq : trans) {
-						log("\t\t\tTransition reached from epsilon %s%n", tq);
+						if (Trace.ENABLED) Trace.record(Trace.Event.EPSILON, tq, t);
+						extended();
 						if (update(rule, d.extendPop(sat.getWeight(tq), monitor), 
 								p, tq.a, tq.q, t, tq))
-							updateListener(tq.a);
+							reached(tq.a);
 					}
 					continue;
 				}
@@ -123,30 +472,71 @@ public class PdsSat extends Sat {
 				if (w.length == 1) {
 					
 					if(update(rule, d, p, w[0], t.q, t))
-						updateListener(w[0]);
+						reached(w[0]);
 					continue;
 				}
 				
 				// Push rule
-				String s = String.format("(%s,%s)", p, w[0]);
+				String s = "(" + p + "," + w[0] + ")";
+				extended();
 				if (update(rule, diff.extendPush(rule.d, monitor), p, w[0], s, t)) {
-					updateListener(w[0]);
+					reached(w[0]);
 				} 
+				
+				// Adds the transition from the mid-state before reading the 
+				// epsilon transitions into it, as a pop rule adds an epsilon 
+				// transition before reading the transitions from its target;
+				// concurrent workers then see at least one of each other's
+				update(rule, d, s, w[1], t.q, t);
 				Set<Transition> set = sat.getEpsilonTransitionsTo(s);
 				if (set != null) {
 					for (Transition ts : set) {
-						log("\t\t\tTransition reached from epsilon %s%n", ts);
+						if (Trace.ENABLED) Trace.record(Trace.Event.EPSILON, t, ts);
+						extended();
 						if (update(rule, sat.getWeight(ts).extendPop(d, monitor), 
 								ts.p, w[1], t.q, t, ts))
-							updateListener(w[1]);
+							reached(w[1]);
 					}
 				}
-				update(rule, d, s, w[1], t.q, t);
 			}
-			sat.resetDiff(t);
+			if (profiler != null) profiler.end();
+			if (concurrent) {
+				diff.free();
+			} else {
+				sat.resetDiff(t);
+				if (dirty != null) dirty.add(t);
+			}
 		}
 	}
 	
+	/**
+	 * Returns the estimated size of the saturating automaton.
+	 * The automaton is measured again when it has grown by an eighth,
+	 * and the estimate is extrapolated in between.
+	 * 
+	 * @return the estimated number of bytes.
+	 */
+	private long estimateSize() {
+		
+		int size = sat.size();
+		if (estimatedSize == 0 || size >= estimatedSize + (estimatedSize >> 3)) {
+			estimatedBytes = sat.estimateSize();
+			estimatedSize = size;
+		}
+		return (estimatedSize == 0) ? 0 : estimatedBytes * size / estimatedSize;
+	}
+	
+	/**
+	 * Counts the firing of a rule with the right-hand side <code>w</code>.
+	 * 
+	 * @param stats the statistics.
+	 * @param w the stack symbols of the right-hand side.
+	 */
+	private static void fired(SatStatistics stats, String[] w) {
+		stats.fire((w.length == 0) ? SatStatistics.RuleKind.POP 
+				: (w.length == 1) ? SatStatistics.RuleKind.NORMAL : SatStatistics.RuleKind.PUSH);
+	}
+	
 	/**
 	 * Computes post* of the given fa.
 	 * 
@@ -158,21 +548,191 @@ public class PdsSat extends Sat {
 		
 		log("Beginning post*%n");
 		this.monitor = monitor;
+		startRun();
+		SatEvents.Poststar event = new SatEvents.Poststar();
+		event.begin();
 		
-		// Creates new FA and adds all transitions to it.
-		sat = new Fa();
-		for (Map.Entry<Transition, Semiring> e : fa.trans.entrySet()) {
+		// Creates new FA with the same storage and adds all transitions to it.
+		// A parallel run needs a concurrent automaton and thread-safe weights.
+		concurrent = threads > 1 && checkpoint == null && profiler == null && threadSafe(fa) && threadSafe(pds);
+		sat = concurrent ? new ConcurrentFa(threads) : fa.create();
+		workset = new LifoWorkSet<Transition>();
+		estimatedSize = 0;
+		if (checkpoint != null) {
+			checkpoint.start(Checkpoint.PDS, false);
+			dirty = new HashSet<Transition>();
+		}
+		Worker worker = new Worker(stats, false);
+		for (Transition t : fa.getTransitions()) {
 			
-			update(null, e.getValue().id(), e.getKey());
+			worker.update(null, fa.getWeight(t).id(), t);
 		}
 		
 		// Depletes the workset
+		try {
+			if (dirty != null) writeCheckpoint();
+			depleteWorkset();
+			if (dirty != null) writeCheckpoint();
+		} finally {
+			if (dirty != null) {
+				checkpoint.close();
+				dirty = null;
+			}
+		}
+		
+		if (stats != null) stats.automatonBytes = sat.estimateSize();
+		if (event.shouldCommit()) {
+			event.rules = pds.size();
+			event.initialTransitions = fa.size();
+			event.transitions = sat.size();
+			event.canceled = monitor.isCanceled();
+			event.commit();
+		}
+		if (profiler != null) profiler.finish();
+		log("Ending post*%n");
+		return sat;
+	}
+	
+	/**
+	 * Continues the last run from where it stopped, e.g. because 
+	 * its budget was exhausted or it was canceled, and returns the same 
+	 * automaton, saturated further. The budget is started again. 
+	 * No checkpoint is written.
+	 * 
+	 * @param monitor the monitor.
+	 * @return the saturated automaton.
+	 * @see #isComplete()
+	 */
+	public Fa proceed(CancelMonitor monitor) {
+		
+		if (sat == null)
+			throw new IllegalStateException("No run to proceed");
+		
+		log("Proceeding post*%n");
+		this.monitor = monitor;
+		startRun();
 		depleteWorkset();
 		
+		if (stats != null) stats.automatonBytes = sat.estimateSize();
+		if (profiler != null) profiler.finish();
 		log("Ending post*%n");
 		return sat;
 	}
 	
+	/**
+	 * Returns the transitions left in the workset by the last run,
+	 * i.e. whose changes have not been propagated. The list is empty
+	 * if the run completed.
+	 * 
+	 * @return the unexplored transitions.
+	 */
+	public List<Transition> getUnexplored() {
+		
+		List<Transition> list = new ArrayList<Transition>();
+		Iterator<Transition> itr = workset.itr();
+		while (itr.hasNext())
+			list.add(itr.next());
+		return list;
+	}
+	
+	/**
+	 * Continues the run recorded in the checkpoint, 
+	 * which must have been set by {@link #setCheckpoint(Checkpoint)}.
+	 * The saturated automaton is created by <code>fa.create()</code>.
+	 * The checkpoint goes on being written.
+	 * 
+	 * @param fa the initial automaton of the recorded run.
+	 * @param monitor the monitor.
+	 * @return the saturated automaton.
+	 * @throws IOException if the checkpoint cannot be read.
+	 */
+	public Fa resume(Fa fa, CancelMonitor monitor) throws IOException {
+		
+		if (checkpoint == null)
+			throw new IllegalStateException("No checkpoint set");
+		
+		log("Resuming post*%n");
+		this.monitor = monitor;
+		startRun();
+		List<MappedFile> records = checkpoint.resume(Checkpoint.PDS, false);
+		try {
+			if (records.isEmpty())
+				throw new IOException("Nothing to resume in " + checkpoint.getFile());
+			
+			// Replays the changed transitions; the last workset wins
+			SemiringCodec codec = checkpoint.getCodec();
+			concurrent = false;
+			sat = fa.create();
+			for (MappedFile in : records) {
+				int n = in.getInt();
+				for (int i = 0; i < n; i++) {
+					Transition t = readTransition(in);
+					Semiring r = in.read(codec);
+					Semiring diff = (in.get() == 0) ? null : in.read(codec);
+					sat.put(t, r, diff);
+				}
+				workset = new LifoWorkSet<Transition>();
+				n = in.getInt();
+				for (int i = 0; i < n; i++)
+					workset.add(readTransition(in));
+			}
+			
+			dirty = new HashSet<Transition>();
+			estimatedSize = 0;
+			depleteWorkset();
+			writeCheckpoint();
+		} finally {
+			checkpoint.close();
+			dirty = null;
+		}
+		
+		if (profiler != null) profiler.finish();
+		log("Ending post*%n");
+		return sat;
+	}
+	
+	/**
+	 * Records the transitions changed since the last checkpoint
+	 * and the workset, and commits them.
+	 */
+	private void writeCheckpoint() {
+		
+		long start = (stats != null) ? System.nanoTime() : 0;
+		final SemiringCodec codec = checkpoint.getCodec();
+		
+		// Encoded now, since the automaton goes on changing
+		checkpoint.append(0, new Checkpoint.Record() {
+			public void write(FaFile.Buffer out) throws IOException {
+				out.writeInt(dirty.size());
+				for (Transition t : dirty) {
+					writeTransition(out, t);
+					codec.write(sat.getWeight(t), out);
+					Semiring diff = sat.getDiff(t);
+					out.writeByte((diff == null) ? 0 : 1);
+					if (diff != null) codec.write(diff, out);
+				}
+				out.writeInt(workset.size());
+				Iterator<Transition> itr = workset.itr();
+				while (itr.hasNext())
+					writeTransition(out, itr.next());
+			}
+		});
+		dirty.clear();
+		checkpoint.commit();
+		if (stats != null) stats.stop(SatStatistics.Phase.CHECKPOINT, start);
+	}
+	
+	private static void writeTransition(DataOutputStream out, Transition t) throws IOException {
+		Checkpoint.writeString(out, t.p);
+		Checkpoint.writeString(out, t.a);
+		Checkpoint.writeString(out, t.q);
+	}
+	
+	private static Transition readTransition(MappedFile in) throws IOException {
+		return new Transition(Checkpoint.readString(in), 
+				Checkpoint.readString(in), Checkpoint.readString(in));
+	}
+	
 //	public Fa addRuleAndSaturate(Rule r) {
 //		
 //		pds.add(r);
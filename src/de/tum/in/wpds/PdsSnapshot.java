@@ -0,0 +1,185 @@
+package de.tum.in.wpds;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A pds snapshot in the format of {@link PdsFile}, decoded on demand.
+ * The rules of each left-hand side are decoded once, so the same 
+ * {@link Rule} objects are returned on every lookup and when all rules
+ * are decoded.
+ */
+class PdsSnapshot {
+	
+	/**
+	 * The block.
+	 */
+	private ByteBuffer buf;
+	
+	/**
+	 * The semiring codec.
+	 */
+	private SemiringCodec codec;
+	
+	private int flags;
+	
+	/**
+	 * The symbols and their ids, decoded on first use.
+	 */
+	private String[] symbols;
+	private HashMap<String, Integer> ids;
+	
+	/**
+	 * The positions of the symbols, the stack symbols, the groups, 
+	 * the rule offsets and the rules in the block.
+	 */
+	private int symbolPos, stackPos, groupPos, offsetPos, rulePos;
+	
+	private int ngroups;
+	
+	private int nrules;
+	
+	/**
+	 * The decoded rules, indexed by groups.
+	 */
+	private Set<Rule>[] groups;
+	
+	@SuppressWarnings("unchecked")
+	PdsSnapshot(ByteBuffer buf, SemiringCodec codec) {
+		this.buf = buf;
+		this.codec = codec;
+		flags = buf.getInt(0);
+		symbolPos = 12;
+		stackPos = symbolPos + buf.getInt(8);
+		groupPos = stackPos + 4 + 4 * buf.getInt(stackPos);
+		ngroups = buf.getInt(groupPos);
+		offsetPos = groupPos + 4 + PdsFile.GROUP * ngroups;
+		nrules = buf.getInt(offsetPos);
+		rulePos = offsetPos + 4 + 4 * nrules + 4;
+		groups = (Set<Rule>[]) new Set<?>[ngroups];
+	}
+	
+	boolean isDpn() {
+		return (flags & PdsFile.DPN) != 0;
+	}
+	
+	boolean hasDynamicRules() {
+		return (flags & PdsFile.DYNAMIC) != 0;
+	}
+	
+	int size() {
+		return nrules;
+	}
+	
+	/**
+	 * Decodes the symbols on first use. 
+	 * They are interned, since {@link Config} compares control locations
+	 * by reference.
+	 */
+	private void symbols() {
+		if (symbols != null) return;
+		
+		int m = buf.getInt(4);
+		String[] s = new String[m];
+		HashMap<String, Integer> map = new HashMap<String, Integer>(2 * m);
+		ByteBuffer dup = buf.duplicate();
+		dup.position(symbolPos);
+		for (int id = 0; id < m; id++) {
+			byte[] b = new byte[dup.getInt()];
+			dup.get(b);
+			try {
+				s[id] = new String(b, "UTF-8").intern();
+			} catch (java.io.UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+			map.put(s[id], id);
+		}
+		ids = map;
+		symbols = s;
+	}
+	
+	synchronized Set<String> getStackSymbols() {
+		symbols();
+		int n = buf.getInt(stackPos);
+		Set<String> stack = new HashSet<String>(2 * n);
+		for (int i = 0; i < n; i++)
+			stack.add(symbols[buf.getInt(stackPos + 4 + 4 * i)]);
+		return stack;
+	}
+	
+	/**
+	 * Returns the rules with the left-hand side <code>c</code>,
+	 * or <code>null</code> if there is none.
+	 */
+	synchronized Set<Rule> getRules(Config c) {
+		symbols();
+		if (c.w.length != 1) return null;
+		Integer p = ids.get(c.p);
+		Integer a = ids.get(c.w[0]);
+		if (p == null || a == null) return null;
+		
+		// Binary search
+		int lo = 0, hi = ngroups - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int pos = groupPos + 4 + PdsFile.GROUP * mid;
+			int gp = buf.getInt(pos), ga = buf.getInt(pos + 4);
+			int cmp = (gp != p) ? ((gp < p) ? -1 : 1) : ((ga < a) ? -1 : (ga == a) ? 0 : 1);
+			if (cmp < 0) lo = mid + 1;
+			else if (cmp > 0) hi = mid - 1;
+			else return group(mid);
+		}
+		return null;
+	}
+	
+	/**
+	 * Decodes all rules.
+	 * 
+	 * @return the left mapper.
+	 */
+	synchronized HashMap<Config, Set<Rule>> getAll() {
+		symbols();
+		HashMap<Config, Set<Rule>> mapper = new HashMap<Config, Set<Rule>>(2 * ngroups);
+		for (int g = 0; g < ngroups; g++) {
+			Set<Rule> rules = group(g);
+			mapper.put(rules.iterator().next().left, rules);
+		}
+		return mapper;
+	}
+	
+	/**
+	 * Returns the rules of the group <code>g</code>, decoding them on first use.
+	 */
+	private Set<Rule> group(int g) {
+		if (groups[g] != null) return groups[g];
+		
+		int pos = groupPos + 4 + PdsFile.GROUP * g;
+		Config left = new Config(symbols[buf.getInt(pos)], symbols[buf.getInt(pos + 4)]);
+		int first = buf.getInt(pos + 8);
+		int count = buf.getInt(pos + 12);
+		
+		Set<Rule> rules = new HashSet<Rule>(2 * count);
+		ByteBuffer in = buf.duplicate();
+		for (int i = first; i < first + count; i++) {
+			in.position(rulePos + buf.getInt(offsetPos + 4 + 4 * i));
+			int flags = in.get();
+			Config right = config(in);
+			Config dynamic = ((flags & PdsFile.DYNAMIC_RULE) != 0) ? config(in) : null;
+			Rule rule = new Rule(codec.read(in), left, right, dynamic);
+			rule.setGlobal((flags & PdsFile.GLOBAL_RULE) != 0);
+			rules.add(rule);
+		}
+		groups[g] = rules;
+		return rules;
+	}
+	
+	private Config config(ByteBuffer in) {
+		String p = symbols[in.getInt()];
+		String[] w = new String[in.getInt()];
+		for (int i = 0; i < w.length; i++)
+			w[i] = symbols[in.getInt()];
+		return new Config(p, w);
+	}
+}
@@ -0,0 +1,87 @@
+package de.tum.in.wpds;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * A priority implementation of <code>WorkSet</code>.
+ * The least element according to the comparator is removed first.
+ * Elements with equal priority are removed in the order they were added.
+ * 
+ * @param <E>
+ */
+public class PriorityWorkSet<E> implements WorkSet<E> {
+
+	private PriorityQueue<Entry<E>> queue;
+	
+	/**
+	 * Counts the added elements, used for breaking ties.
+	 */
+	private long count = 0;
+	
+	/**
+	 * Creates a new workset ordered by <code>comparator</code>.
+	 * 
+	 * @param comparator the comparator.
+	 */
+	public PriorityWorkSet(final Comparator<? super E> comparator) {
+		queue = new PriorityQueue<Entry<E>>(11, new Comparator<Entry<E>>() {
+			public int compare(Entry<E> e1, Entry<E> e2) {
+				int c = comparator.compare(e1.e, e2.e);
+				if (c != 0) return c;
+				return (e1.seq < e2.seq) ? -1 : ((e1.seq == e2.seq) ? 0 : 1);
+			}
+		});
+	}
+	
+	public void add(E o) {
+		queue.add(new Entry<E>(o, count++));
+	}
+
+	public void addAll(WorkSet<E> s) {
+		Iterator<E> itr = s.itr();
+		while (itr.hasNext())
+			add(itr.next());
+	}
+
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	public Iterator<E> itr() {
+		final Iterator<Entry<E>> itr = queue.iterator();
+		return new Iterator<E>() {
+			public boolean hasNext() {
+				return itr.hasNext();
+			}
+			public E next() {
+				return itr.next().e;
+			}
+			public void remove() {
+				itr.remove();
+			}
+		};
+	}
+
+	public E remove() {
+		return queue.remove().e;
+	}
+
+	public int size() {
+		return queue.size();
+	}
+	
+	/**
+	 * An element with its insertion number.
+	 */
+	private static class Entry<E> {
+		E e;
+		long seq;
+		
+		Entry(E e, long seq) {
+			this.e = e;
+			this.seq = seq;
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package de.tum.in.wpds;
+
+/**
+ * The listener of reachable aggregates produced by {@link DpnSat}.
+ */
+public interface ReachListener {
+
+	/**
+	 * Notifies that the aggregate <code>A</code> with the global values
+	 * <code>g</code> is reachable.
+	 * The automata are owned by the saturation procedure and may be freed
+	 * after the work item is processed. A listener must therefore evaluate
+	 * the aggregate during this call, or copy what it needs.
+	 * 
+	 * @param g the global values, or <code>null</code> if the analysis is lazy.
+	 * @param A the automata.
+	 */
+	public void reach(Semiring g, Fa... A);
+}
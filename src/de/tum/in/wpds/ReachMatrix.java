@@ -0,0 +1,168 @@
+package de.tum.in.wpds;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * The all-pairs simultaneous-reachability matrix of a DPN.
+ * The entry (a,b) is set iff there is a reachable aggregate 
+ * where <code>a</code> and <code>b</code> are at the top of 
+ * two different threads.
+ * Symbols are interned and the rows are kept as bitsets,
+ * so that a query costs two lookups once the matrix is built.
+ * 
+ * <p>The matrix can be built from a {@link DpnReach} with
+ * {@link DpnReach#getMatrix()}, or incrementally by registering it
+ * as a {@link ReachListener}, which also works when aggregates are 
+ * not kept.
+ */
+public class ReachMatrix implements ReachListener {
+
+	/**
+	 * Maps a symbol to its id.
+	 */
+	private HashMap<String, Integer> ids = new HashMap<String, Integer>();
+	
+	/**
+	 * Maps an id to its symbol.
+	 */
+	private ArrayList<String> symbols = new ArrayList<String>();
+	
+	/**
+	 * The rows of the matrix, indexed by symbol ids.
+	 */
+	private ArrayList<BitSet> rows = new ArrayList<BitSet>();
+	
+	/**
+	 * Adds all pairs of the aggregate <code>A</code> to the matrix.
+	 * 
+	 * @param g the global values (unused).
+	 * @param A the automata.
+	 */
+	public void reach(Semiring g, Fa... A) {
+		
+		// Needs at least two threads
+		int j = A.length;
+		if (j < 2) return;
+		
+		// Collects the top symbols of every thread
+		BitSet[] tops = new BitSet[j];
+		for (int i = 0; i < j; i++) {
+			tops[i] = new BitSet();
+			Set<Transition> inits = A[i].getInitialTransitions();
+			if (inits == null) continue;
+			for (Transition t : inits)
+				tops[i].set(intern(t.a));
+		}
+		
+		// others[i] is the union of tops[l] for every l != i
+		BitSet[] others = new BitSet[j];
+		BitSet prefix = new BitSet();
+		for (int i = 0; i < j; i++) {
+			others[i] = (BitSet) prefix.clone();
+			prefix.or(tops[i]);
+		}
+		BitSet suffix = new BitSet();
+		for (int i = j - 1; i >= 0; i--) {
+			others[i].or(suffix);
+			suffix.or(tops[i]);
+		}
+		
+		// Adds the pairs
+		for (int i = 0; i < j; i++) {
+			if (others[i].isEmpty()) continue;
+			for (int a = tops[i].nextSetBit(0); a >= 0; a = tops[i].nextSetBit(a + 1))
+				rows.get(a).or(others[i]);
+		}
+	}
+	
+	/**
+	 * Returns the id of the symbol <code>a</code>, 
+	 * creating one if necessary.
+	 * 
+	 * @param a the symbol.
+	 * @return the id.
+	 */
+	private int intern(String a) {
+		Integer id = ids.get(a);
+		if (id != null) return id;
+		
+		id = symbols.size();
+		ids.put(a, id);
+		symbols.add(a);
+		rows.add(new BitSet());
+		return id;
+	}
+	
+	/**
+	 * Returns the id of the symbol <code>a</code>, or <code>-1</code> 
+	 * if <code>a</code> never appears at the top of a thread.
+	 * 
+	 * @param a the symbol.
+	 * @return the id.
+	 */
+	public int getId(String a) {
+		Integer id = ids.get(a);
+		return (id == null) ? -1 : id;
+	}
+	
+	/**
+	 * Returns the symbol with id <code>id</code>.
+	 * 
+	 * @param id the id.
+	 * @return the symbol.
+	 */
+	public String getSymbol(int id) {
+		return symbols.get(id);
+	}
+	
+	/**
+	 * Returns the number of interned symbols.
+	 * 
+	 * @return the number of symbols.
+	 */
+	public int size() {
+		return symbols.size();
+	}
+	
+	/**
+	 * Returns <code>true</code> if the symbols with ids <code>a</code>
+	 * and <code>b</code> are simultaneously reachable in different threads.
+	 * 
+	 * @param a the id of the first symbol.
+	 * @param b the id of the second symbol.
+	 * @return <code>true</code> if <code>a</code> and <code>b</code>
+	 * 		are reachable at the same time.
+	 */
+	public boolean reachable(int a, int b) {
+		if (a < 0 || b < 0) return false;
+		return rows.get(a).get(b);
+	}
+	
+	/**
+	 * Returns <code>true</code> if <code>a</code> and <code>b</code>
+	 * are simultaneously reachable in different threads.
+	 * 
+	 * @param a the first symbol.
+	 * @param b the second symbol.
+	 * @return <code>true</code> if <code>a</code> and <code>b</code>
+	 * 		are reachable at the same time.
+	 */
+	public boolean reachable(String a, String b) {
+		return reachable(getId(a), getId(b));
+	}
+	
+	/**
+	 * Returns the ids of the symbols that are simultaneously reachable
+	 * with the symbol with id <code>a</code>. The returned bitset
+	 * must not be modified.
+	 * 
+	 * @param a the id of the symbol.
+	 * @return the row of <code>a</code>.
+	 */
+	public BitSet getRow(int a) {
+		return rows.get(a);
+	}
+}
@@ -21,15 +21,50 @@ public abstract class Sat {
 	 */
 	protected CancelMonitor monitor;
 	
+	/**
+	 * The checkpoint, or <code>null</code>.
+	 */
+	protected Checkpoint checkpoint;
+	
+	/**
+	 * Determines whether statistics are collected.
+	 */
+	private boolean statistics = false;
+	
+	/**
+	 * The statistics of the current or last run, 
+	 * or <code>null</code> if they are not collected.
+	 */
+	protected SatStatistics stats;
+	
+	/**
+	 * The profiler, or <code>null</code>.
+	 */
+	protected SatProfiler profiler;
+	
+	/**
+	 * The budget, or <code>null</code>.
+	 */
+	protected Budget budget;
+	
 	/**
 	 * Determines whether to log debug information.
 	 */
 	private static int DEBUG = 0;
 	
 	/**
-	 * The logger.
+	 * The logger. Its log file is opened by {@link #setVerbosity(int)}.
 	 */
-	public static Logger logger = Utils.getLogger(Sat.class);
+	public static Logger logger = Logger.getLogger(Sat.class.getName());
+	
+	static {
+		logger.setLevel(Level.WARNING);
+	}
+	
+	/**
+	 * Determines whether the log file has been opened.
+	 */
+	private static boolean logFile = false;
 
 	/**
 	 * Sets the listener.
@@ -50,6 +85,153 @@ public abstract class Sat {
 		listener.reach(label);
 	}
 
+	/**
+	 * Sets the checkpoint to which the state of subsequent runs is
+	 * written periodically. A run interrupted by a crash or canceled
+	 * can be continued from the checkpoint by the <code>resume</code>
+	 * method of the engine.
+	 * 
+	 * @param checkpoint the checkpoint, or <code>null</code>.
+	 */
+	public void setCheckpoint(Checkpoint checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+	
+	/**
+	 * Determines whether statistics are collected in subsequent runs.
+	 * The default is <code>false</code>.
+	 * 
+	 * @param enabled determines whether statistics are collected.
+	 */
+	public void setStatistics(boolean enabled) {
+		this.statistics = enabled;
+	}
+	
+	/**
+	 * Returns the statistics of the last run.
+	 * 
+	 * @return the statistics, or <code>null</code> if they are not collected.
+	 */
+	public SatStatistics getStatistics() {
+		return stats;
+	}
+	
+	/**
+	 * Sets the profiler that attributes the effort of subsequent runs
+	 * to rules and heads.
+	 * 
+	 * @param profiler the profiler, or <code>null</code>.
+	 */
+	public void setProfiler(SatProfiler profiler) {
+		this.profiler = profiler;
+	}
+	
+	/**
+	 * Sets the budget that limits the resources of subsequent runs.
+	 * 
+	 * @param budget the budget, or <code>null</code>.
+	 */
+	public void setBudget(Budget budget) {
+		this.budget = budget;
+	}
+	
+	/**
+	 * Returns the budget.
+	 * 
+	 * @return the budget, or <code>null</code>.
+	 */
+	public Budget getBudget() {
+		return budget;
+	}
+	
+	/**
+	 * Counts an extend operation.
+	 */
+	protected final void extended() {
+		if (stats != null) stats.extendCalls++;
+		if (profiler != null) profiler.extend();
+	}
+	
+	/**
+	 * Starts a new run: collects its statistics, if enabled,
+	 * and starts the budget, if any.
+	 */
+	protected void startRun() {
+		stats = statistics ? new SatStatistics() : null;
+		if (budget != null) budget.start();
+	}
+	
+	/**
+	 * Returns <code>true</code> if the rule weights of <code>pds</code>
+	 * are {@link ThreadSafeSemiring}s.
+	 * 
+	 * @param pds the pds.
+	 * @return <code>true</code> if the rules can be used concurrently.
+	 */
+	static boolean threadSafe(Pds pds) {
+		for (Rule rule : pds.getRules()) {
+			if (!(rule.d instanceof ThreadSafeSemiring))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns <code>true</code> if the weights of <code>fa</code>
+	 * are {@link ThreadSafeSemiring}s.
+	 * 
+	 * @param fa the automaton.
+	 * @return <code>true</code> if the weights can be used concurrently.
+	 */
+	static boolean threadSafe(Fa fa) {
+		for (Transition t : fa.getTransitions()) {
+			if (!(fa.getWeight(t) instanceof ThreadSafeSemiring))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the pushdown system analyzed by this procedure.
+	 * 
+	 * @return the pds.
+	 */
+	public abstract Pds getPds();
+	
+	/**
+	 * Returns the parameters of this procedure that affect its result,
+	 * besides the pds and the initial automaton. 
+	 * The parameters identify cached results; see {@link SatCache}.
+	 * 
+	 * @return the parameters.
+	 */
+	public Object[] getParameters() {
+		return new Object[0];
+	}
+	
+	/**
+	 * Returns <code>true</code> if the last call to 
+	 * {@link #poststar(Fa, CancelMonitor)} ran to completion.
+	 * 
+	 * @return <code>true</code> if the last run completed.
+	 */
+	boolean completed() {
+		return monitor != null && !monitor.isCanceled() 
+				&& (budget == null || !budget.isExhausted());
+	}
+	
+	/**
+	 * Returns <code>true</code> if the last run completed, i.e. it was 
+	 * neither canceled nor stopped by its budget, so that its result is
+	 * complete.
+	 * 
+	 * @return <code>true</code> if the result of the last run is complete.
+	 * @see #setBudget(Budget)
+	 */
+	public boolean isComplete() {
+		return completed();
+	}
+	
 	/**
 	 * Computes post* of the given fa.
 	 * 
@@ -70,12 +252,18 @@ public abstract class Sat {
 	}
 	
 	/**
-	 * Sets the verbosity level.
+	 * Sets the verbosity level. At level one and above, messages are 
+	 * written to a log file in the machine-dependent temporary folder.
+	 * Per-transition events are not logged; see {@link Trace}.
 	 * 
 	 * @param level the verbosity level.
 	 */
-	public static void setVerbosity(int level) {
+	public static synchronized void setVerbosity(int level) {
 		DEBUG = level;
+		if (level >= 1 && !logFile) {
+			Utils.addFileHandler(logger, "%t/" + Sat.class.getSimpleName() + "%g.log");
+			logFile = true;
+		}
 		if (level >= 2)
 			logger.setLevel(Level.ALL);
 		else if (level == 1)
@@ -115,6 +303,16 @@ public abstract class Sat {
 		return DEBUG >=2;
 	}
 	
+	/**
+	 * Returns <code>true</code> if {@link #log(String, Object...)} logs,
+	 * so that call sites in loops can skip building the arguments.
+	 * 
+	 * @return <code>true</code> if logging is enabled.
+	 */
+	public static boolean logging() {
+		return logger.isLoggable(Level.FINE);
+	}
+	
 	public static void info(String msg, Object... args) {
 		if (logger.getLevel().equals(Level.INFO))
 			logger.info(String.format(msg, args));
@@ -127,6 +325,7 @@ public abstract class Sat {
 	 * @param args Arguments referenced by the format specifiers in the format string.
 	 */
 	public static void log(String msg, Object... args) {
-		logger.fine(String.format(msg, args));
+		if (logger.isLoggable(Level.FINE))
+			logger.fine(String.format(msg, args));
 	}
 }
\ No newline at end of file
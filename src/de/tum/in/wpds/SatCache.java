@@ -0,0 +1,405 @@
+package de.tum.in.wpds;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+
+/**
+ * An on-disk cache of saturation results.
+ *
+ * <p>A result is keyed by the SHA-256 digest of the rules of the pds,
+ * the initial automaton, and the parameters of the procedure
+ * (see {@link Sat#getParameters()}). Rules and transitions are digested
+ * one by one and in sorted order, so the key does not depend on the order
+ * in which they were added; semiring values are digested through their
+ * {@link SemiringCodec} encoding.
+ *
+ * <p>Results of {@link PdsSat} are stored with {@link FaFile}.
+ * Results of {@link DpnSat} are stored as a sequence of aggregates,
+ * written as they are produced since the engine frees aggregates
+ * once they are explored. On a hit, the stored result is memory-mapped
+ * and returned without saturating. Runs that are canceled or stopped
+ * by queries are not cached.
+ *
+ * <p>The total size of the cache files is bounded; the least recently
+ * used files are evicted first.
+ */
+public class SatCache {
+
+	/**
+	 * The magic number of aggregate files: "JWDR".
+	 */
+	private static final int REACH_MAGIC = 0x4a574452;
+
+	/**
+	 * The version of the key and of the aggregate format.
+	 */
+	private static final int VERSION = 2;
+
+	private static final String FA_SUFFIX = ".fa";
+	private static final String REACH_SUFFIX = ".reach";
+
+	/**
+	 * The cache directory.
+	 */
+	private File dir;
+
+	/**
+	 * The maximal total size of the cache files in bytes.
+	 */
+	private long maxBytes;
+
+	/**
+	 * The semiring codec.
+	 */
+	private SemiringCodec codec;
+
+	/**
+	 * Creates a new cache in the directory <code>dir</code>.
+	 *
+	 * @param dir the cache directory.
+	 * @param maxBytes the maximal total size of the cache files.
+	 * @param codec the semiring codec.
+	 */
+	public SatCache(File dir, long maxBytes, SemiringCodec codec) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		this.codec = codec;
+		dir.mkdirs();
+	}
+
+	/**
+	 * Computes post* of <code>fa</code> with <code>sat</code>,
+	 * or returns the cached result. A cached result is a read-only
+	 * {@link MappedFa}.
+	 *
+	 * @param sat the saturation procedure.
+	 * @param fa the initial automaton.
+	 * @param monitor the cancel monitor.
+	 * @return the saturated automaton.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public Fa poststar(PdsSat sat, Fa fa, CancelMonitor monitor) throws IOException {
+
+		File file = new File(dir, key(sat, fa) + FA_SUFFIX);
+		if (file.exists()) {
+			try {
+				Fa result = FaFile.read(file, codec);
+				file.setLastModified(System.currentTimeMillis());
+				Sat.log("Cache hit: %s%n", file);
+				return result;
+			} catch (IOException e) {
+				Sat.logger.warning("Discarding corrupt cache file " + file);
+				file.delete();
+			}
+		}
+
+		Fa result = sat.poststar(fa, monitor);
+		if (!sat.completed()) return result;
+
+		File tmp = File.createTempFile("sat", ".tmp", dir);
+		try {
+			FaFile.write(result, tmp, codec);
+			store(tmp, file);
+		} finally {
+			tmp.delete();
+		}
+		return result;
+	}
+
+	/**
+	 * Performs the bounded context-switch analysis with <code>sat</code>,
+	 * or returns the cached result. The automata of a cached result
+	 * are read-only {@link MappedFa}s. Listeners of <code>sat</code>
+	 * are not notified on a hit.
+	 *
+	 * @param sat the saturation procedure.
+	 * @param fa the initial automaton.
+	 * @param monitor the cancel monitor.
+	 * @return the set of reachable aggregates.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public DpnReach poststar(DpnSat sat, Fa fa, CancelMonitor monitor) throws IOException {
+
+		File file = new File(dir, key(sat, fa) + REACH_SUFFIX);
+		if (file.exists()) {
+			try {
+				DpnReach result = readReach(file);
+				file.setLastModified(System.currentTimeMillis());
+				Sat.log("Cache hit: %s%n", file);
+				return result;
+			} catch (IOException e) {
+				Sat.logger.warning("Discarding corrupt cache file " + file);
+				file.delete();
+			}
+		}
+
+		File tmp = File.createTempFile("sat", ".tmp", dir);
+		ReachWriter writer = new ReachWriter(tmp);
+		sat.addReachListener(writer);
+		try {
+			DpnReach result = sat.poststar(fa, monitor);
+			writer.close();
+			if (sat.completed() && writer.error == null)
+				store(tmp, file);
+			return result;
+		} finally {
+			sat.removeReachListener(writer);
+			writer.close();
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Moves the completed file <code>tmp</code> to <code>file</code>
+	 * and evicts old files.
+	 */
+	private void store(File tmp, File file) throws IOException {
+
+		file.delete();
+		if (!tmp.renameTo(file))
+			throw new IOException("Cannot create " + file);
+		Sat.log("Cached: %s%n", file);
+		evict();
+	}
+
+	/**
+	 * Deletes the least recently used cache files until their total size
+	 * is within the bound.
+	 */
+	public void evict() {
+
+		File[] files = dir.listFiles(new FileFilter() {
+			public boolean accept(File f) {
+				String name = f.getName();
+				return name.endsWith(FA_SUFFIX) || name.endsWith(REACH_SUFFIX);
+			}
+		});
+		if (files == null) return;
+
+		long total = 0;
+		final long[] modified = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			total += files[i].length();
+			modified[i] = files[i].lastModified();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer x, Integer y) {
+				return (modified[x] < modified[y]) ? -1 : (modified[x] > modified[y]) ? 1 : 0;
+			}
+		});
+
+		for (int i = 0; i < order.length && total > maxBytes; i++) {
+			File f = files[order[i]];
+			long length = f.length();
+			if (f.delete()) {
+				Sat.log("Evicted: %s%n", f);
+				total -= length;
+			}
+		}
+	}
+
+	/**
+	 * Returns the cache key of the result of <code>sat</code>
+	 * on <code>fa</code>.
+	 *
+	 * @param sat the saturation procedure.
+	 * @param fa the initial automaton.
+	 * @return the key in hexadecimal.
+	 * @throws IOException if a semiring value cannot be encoded.
+	 */
+	public String key(Sat sat, Fa fa) throws IOException {
+
+		Digester digester = new Digester();
+		DataOutputStream out = digester.out;
+		out.writeInt(VERSION);
+		out.writeUTF(sat.getClass().getName());
+		out.writeUTF(codec.getClass().getName());
+
+		// Parameters
+		Object[] params = sat.getParameters();
+		out.writeInt(params.length);
+		for (Object param : params) {
+			if (param instanceof Semiring) {
+				out.writeByte(1);
+				codec.write((Semiring) param, out);
+			} else {
+				out.writeByte(0);
+				out.writeUTF(String.valueOf(param));
+			}
+		}
+
+		// Rules
+		Digester rd = new Digester();
+		Set<Rule> rules = sat.getPds().getRules();
+		byte[][] digests = new byte[rules.size()][];
+		int i = 0;
+		for (Rule rule : rules) {
+			write(rd.out, rule.left);
+			write(rd.out, rule.right);
+			rd.out.writeBoolean(rule.isDynamic());
+			if (rule.isDynamic()) write(rd.out, rule.dynamic);
+			rd.out.writeBoolean(rule.isGlobal());
+			codec.write(rule.d, rd.out);
+			digests[i++] = rd.digest();
+		}
+		write(out, digests);
+
+		// Initial automaton
+		digests = new byte[fa.size()][];
+		i = 0;
+		for (Transition t : fa.getTransitions()) {
+			rd.out.writeUTF(t.p);
+			rd.out.writeUTF(t.a);
+			rd.out.writeUTF(t.q);
+			codec.write(fa.getWeight(t), rd.out);
+			digests[i++] = rd.digest();
+		}
+		write(out, digests);
+		out.writeBoolean(fa.saturated);
+
+		StringBuilder key = new StringBuilder();
+		for (byte b : digester.digest())
+			key.append(String.format("%02x", b));
+		return key.toString();
+	}
+
+	private static void write(DataOutputStream out, Config c) throws IOException {
+		out.writeUTF(c.p);
+		out.writeInt(c.w.length);
+		for (int i = 0; i < c.w.length; i++)
+			out.writeUTF(c.w[i]);
+	}
+
+	/**
+	 * Writes the digests in sorted order.
+	 */
+	private static void write(DataOutputStream out, byte[][] digests) throws IOException {
+		Arrays.sort(digests, new Comparator<byte[]>() {
+			public int compare(byte[] x, byte[] y) {
+				for (int i = 0; i < x.length; i++) {
+					if (x[i] != y[i]) return (x[i] < y[i]) ? -1 : 1;
+				}
+				return 0;
+			}
+		});
+		out.writeInt(digests.length);
+		for (byte[] d : digests)
+			out.write(d);
+	}
+
+	/**
+	 * Reads the aggregates stored in <code>file</code>.
+	 */
+	private DpnReach readReach(File file) throws IOException {
+
+		FileInputStream in = new FileInputStream(file);
+		try {
+			MappedFile buf = new MappedFile(in.getChannel());
+			if (buf.size() < 8 || buf.getInt() != REACH_MAGIC || buf.getInt() != VERSION)
+				throw new IOException("Not an aggregate file: " + file);
+
+			DpnReach reach = new DpnReach();
+			while (true) {
+				if (!buf.hasRemaining()) throw new IOException("Truncated file: " + file);
+				if (buf.get() == 0) break;
+				Semiring g = (buf.get() == 0) ? null : buf.read(codec);
+				Fa[] A = new Fa[buf.getInt()];
+				for (int i = 0; i < A.length; i++)
+					A[i] = FaFile.read(buf, codec);
+				reach.add(g, A);
+			}
+			return reach;
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupt file: " + file);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes aggregates to a file as they are produced.
+	 */
+	private class ReachWriter implements ReachListener {
+
+		DataOutputStream out;
+
+		/**
+		 * The first error, if any.
+		 */
+		IOException error;
+
+		ReachWriter(File file) throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			out.writeInt(REACH_MAGIC);
+			out.writeInt(VERSION);
+		}
+
+		public void reach(Semiring g, Fa... A) {
+			if (error != null || out == null) return;
+			try {
+				out.writeByte(1);
+				out.writeByte((g == null) ? 0 : 1);
+				if (g != null) codec.write(g, out);
+				out.writeInt(A.length);
+				for (int i = 0; i < A.length; i++)
+					FaFile.write(A[i], out, codec);
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+
+		void close() {
+			if (out == null) return;
+			try {
+				if (error == null) out.writeByte(0);
+				out.close();
+			} catch (IOException e) {
+				if (error == null) error = e;
+			}
+			out = null;
+		}
+	}
+
+	/**
+	 * A SHA-256 digest fed through a data output stream.
+	 */
+	private static class Digester {
+
+		MessageDigest md;
+		DataOutputStream out;
+
+		Digester() {
+			try {
+				md = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+			out = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+				public void write(int b) {}
+				public void write(byte[] b, int off, int len) {}
+			}, md));
+		}
+
+		/**
+		 * Returns the digest of the data written so far and resets it.
+		 */
+		byte[] digest() throws IOException {
+			out.flush();
+			return md.digest();
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package de.tum.in.wpds;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of the saturation procedures.
+ *
+ * <p>The events are recorded in the category "jwpds" and are disabled
+ * unless enabled in the recording settings. A disabled event costs
+ * an allocation the JIT compiler can usually eliminate; its fields are
+ * only computed if {@link Event#shouldCommit()} returns <code>true</code>.
+ */
+class SatEvents {
+
+	/**
+	 * A run of {@link PdsSat#poststar(Fa, CancelMonitor)}.
+	 */
+	@Name("de.tum.in.wpds.Poststar")
+	@Label("Poststar")
+	@Category("jwpds")
+	static class Poststar extends Event {
+
+		@Label("Rules")
+		int rules;
+
+		@Label("Initial Transitions")
+		int initialTransitions;
+
+		@Label("Transitions")
+		int transitions;
+
+		@Label("Canceled")
+		boolean canceled;
+	}
+
+	/**
+	 * A batch of transitions processed by the saturation loop of {@link PdsSat}.
+	 */
+	@Name("de.tum.in.wpds.SaturationBatch")
+	@Label("Saturation Batch")
+	@Category("jwpds")
+	static class Batch extends Event {
+
+		@Label("Transitions Processed")
+		int processed;
+
+		@Label("Workset Size")
+		int workset;
+
+		@Label("Automaton Size")
+		int transitions;
+	}
+
+	/**
+	 * Commits <code>batch</code> if enabled and starts the next batch.
+	 *
+	 * @param batch the current batch.
+	 * @param processed the number of transitions processed in the batch.
+	 * @param workset the size of the workset.
+	 * @param transitions the size of the automaton.
+	 * @return the next batch.
+	 */
+	static Batch next(Batch batch, int processed, int workset, int transitions) {
+		if (batch.shouldCommit()) {
+			batch.processed = processed;
+			batch.workset = workset;
+			batch.transitions = transitions;
+			batch.commit();
+		}
+		Batch next = new Batch();
+		next.begin();
+		return next;
+	}
+
+	/**
+	 * The exploration of a work item by {@link DpnSat}.
+	 */
+	@Name("de.tum.in.wpds.WorkItem")
+	@Label("Work Item")
+	@Category("jwpds")
+	static class WorkItem extends Event {
+
+		@Label("Id")
+		int id;
+
+		@Label("Level")
+		int level;
+
+		@Label("Automata")
+		int automata;
+
+		@Label("Transitions")
+		long transitions;
+
+		@Label("Workset Size")
+		int workset;
+	}
+
+	/**
+	 * The saturation of one automaton of an aggregate by {@link DpnSat}.
+	 */
+	@Name("de.tum.in.wpds.ThreadSat")
+	@Label("Thread Saturation")
+	@Category("jwpds")
+	static class ThreadSat extends Event {
+
+		@Label("Level")
+		int level;
+
+		@Label("Thread")
+		@Description("The index of the automaton in the aggregate")
+		int thread;
+
+		@Label("Automata")
+		int automata;
+
+		@Label("Transitions Processed")
+		int processed;
+
+		@Label("Transitions")
+		int transitions;
+	}
+
+	/**
+	 * A lazy splitting of an aggregate by {@link DpnSat}.
+	 */
+	@Name("de.tum.in.wpds.LazySplit")
+	@Label("Lazy Split")
+	@Category("jwpds")
+	static class LazySplit extends Event {
+
+		@Label("Level")
+		int level;
+
+		@Label("Automata")
+		int automata;
+
+		@Label("Equivalence Classes")
+		int classes;
+
+		@Label("Equivalence Relation")
+		@Timespan(Timespan.NANOSECONDS)
+		long eqrel;
+
+		@Label("Equivalence Classes Picked")
+		@Timespan(Timespan.NANOSECONDS)
+		long eqclass;
+
+		@Label("Globals Extracted")
+		@Timespan(Timespan.NANOSECONDS)
+		long extract;
+
+		@Label("Globals Updated")
+		@Timespan(Timespan.NANOSECONDS)
+		long update;
+
+		@Label("Relation Sliced")
+		@Timespan(Timespan.NANOSECONDS)
+		long slice;
+	}
+
+	/**
+	 * An eager splitting of an automaton by {@link Fa#split(int, CancelMonitor, java.util.concurrent.ExecutorService)}.
+	 */
+	@Name("de.tum.in.wpds.EagerSplit")
+	@Label("Eager Split")
+	@Category("jwpds")
+	static class EagerSplit extends Event {
+
+		@Label("Transitions")
+		int transitions;
+
+		@Label("Initial Transitions")
+		int initialTransitions;
+
+		@Label("Splits")
+		int splits;
+	}
+
+	/**
+	 * An aggregate added to a {@link DpnReach}.
+	 */
+	@Name("de.tum.in.wpds.Reach")
+	@Label("Reachable Aggregate")
+	@Category("jwpds")
+	static class Reach extends Event {
+
+		@Label("Aggregates")
+		int aggregates;
+
+		@Label("Automata")
+		int automata;
+
+		@Label("Retained")
+		boolean retained;
+	}
+}
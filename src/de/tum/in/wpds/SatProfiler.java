@@ -0,0 +1,277 @@
+package de.tum.in.wpds;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * A profiler that attributes the effort of a saturation run to
+ * individual rules and to the heads (p,a) of the transitions they fire on.
+ *
+ * <p>For every rule and every head, the profiler records the time spent
+ * firing rules, the number of extend operations, the number of transitions
+ * produced, and the number of weight changes of existing transitions.
+ * A profiler is attached with {@link Sat#setProfiler(SatProfiler)};
+ * it accumulates over all runs until {@link #reset()} is called.
+ * At the end of every run, the hot spots are logged at the info level.
+ *
+ * <p>Profiling adds two calls to {@link System#nanoTime()} per rule
+ * firing and should not be enabled in production runs.
+ */
+public class SatProfiler {
+
+	/**
+	 * The number of entries reported at the end of a run.
+	 */
+	private int top;
+
+	/**
+	 * The profiles of rules.
+	 */
+	private HashMap<Rule, Entry> rules = new HashMap<Rule, Entry>();
+
+	/**
+	 * The profiles of heads.
+	 */
+	private HashMap<Config, Entry> heads = new HashMap<Config, Entry>();
+
+	/**
+	 * The entries of the rule being fired and its head,
+	 * or <code>null</code>.
+	 */
+	private Entry rule, head;
+
+	/**
+	 * The head of the entry <code>head</code>.
+	 */
+	private Config current;
+
+	/**
+	 * The time when the rule being fired was started.
+	 */
+	private long start;
+
+	/**
+	 * Creates a new profiler that reports the ten hottest rules and heads.
+	 */
+	public SatProfiler() {
+		this(10);
+	}
+
+	/**
+	 * Creates a new profiler that reports the <code>top</code> hottest
+	 * rules and heads at the end of a run.
+	 *
+	 * @param top the number of entries reported.
+	 */
+	public SatProfiler(int top) {
+		this.top = top;
+	}
+
+	/**
+	 * Starts firing the rule <code>r</code> on a transition with
+	 * the head <code>c</code>. The rule being fired, if any, is ended.
+	 *
+	 * @param r the rule.
+	 * @param c the head.
+	 */
+	void begin(Rule r, Config c) {
+
+		long now = System.nanoTime();
+		if (rule != null) stop(now);
+
+		rule = rules.get(r);
+		if (rule == null) {
+			rule = new Entry(r);
+			rules.put(r, rule);
+		}
+		if (c != current) {
+			current = c;
+			head = heads.get(c);
+			if (head == null) {
+				head = new Entry(c);
+				heads.put(c, head);
+			}
+		}
+		start = now;
+	}
+
+	/**
+	 * Ends firing the rule, if any.
+	 */
+	void end() {
+		if (rule == null) return;
+		stop(System.nanoTime());
+		rule = null;
+	}
+
+	private void stop(long now) {
+		long elapsed = now - start;
+		rule.nanos += elapsed;
+		head.nanos += elapsed;
+	}
+
+	/**
+	 * Counts an extend operation of the rule being fired.
+	 */
+	void extend() {
+		if (rule == null) return;
+		rule.extendCalls++;
+		head.extendCalls++;
+	}
+
+	/**
+	 * Counts a transition added or changed by the rule being fired.
+	 *
+	 * @param added <code>true</code> if the transition is new.
+	 */
+	void update(boolean added) {
+		if (rule == null) return;
+		if (added) {
+			rule.transitions++;
+			head.transitions++;
+		} else {
+			rule.changes++;
+			head.changes++;
+		}
+	}
+
+	/**
+	 * Logs the hot spots at the end of a run.
+	 */
+	void finish() {
+		end();
+		head = null;
+		current = null;
+		if (Sat.logger.isLoggable(Level.INFO))
+			Sat.logger.info(report(top));
+	}
+
+	/**
+	 * Clears all profiles.
+	 */
+	public void reset() {
+		rules.clear();
+		heads.clear();
+		rule = head = null;
+		current = null;
+	}
+
+	/**
+	 * Returns the <code>n</code> rules with the largest time,
+	 * in decreasing order of time.
+	 *
+	 * @param n the number of rules.
+	 * @return the profiles of the rules.
+	 */
+	public List<Entry> getHotRules(int n) {
+		return hottest(rules.values(), n);
+	}
+
+	/**
+	 * Returns the <code>n</code> heads (p,a) with the largest time,
+	 * in decreasing order of time.
+	 *
+	 * @param n the number of heads.
+	 * @return the profiles of the heads.
+	 */
+	public List<Entry> getHotHeads(int n) {
+		return hottest(heads.values(), n);
+	}
+
+	private static List<Entry> hottest(Collection<Entry> entries, int n) {
+		List<Entry> list = new ArrayList<Entry>(entries);
+		Collections.sort(list, new Comparator<Entry>() {
+			public int compare(Entry e1, Entry e2) {
+				return (e1.nanos > e2.nanos) ? -1 : ((e1.nanos == e2.nanos) ? 0 : 1);
+			}
+		});
+		return (list.size() > n) ? list.subList(0, n) : list;
+	}
+
+	/**
+	 * Returns a report of the <code>n</code> hottest rules and heads.
+	 *
+	 * @param n the number of entries of each kind.
+	 * @return the report.
+	 */
+	public String report(int n) {
+		StringBuilder out = new StringBuilder();
+		out.append(String.format("Hot rules:%n"));
+		for (Entry e : getHotRules(n))
+			out.append(String.format("\t%s%n", e));
+		out.append(String.format("Hot heads:%n"));
+		for (Entry e : getHotHeads(n))
+			out.append(String.format("\t%s%n", e));
+		return out.toString();
+	}
+
+	/**
+	 * The profile of a rule or a head.
+	 */
+	public static class Entry {
+		Object key;
+		long nanos;
+		long extendCalls;
+		long transitions;
+		long changes;
+
+		Entry(Object key) {
+			this.key = key;
+		}
+
+		/**
+		 * Returns the profiled {@link Rule} or head {@link Config}.
+		 *
+		 * @return the rule or the head.
+		 */
+		public Object getKey() {
+			return key;
+		}
+
+		/**
+		 * Returns the time spent firing rules.
+		 *
+		 * @return the time in nanoseconds.
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * Returns the number of extend operations.
+		 *
+		 * @return the number of extends.
+		 */
+		public long getExtendCalls() {
+			return extendCalls;
+		}
+
+		/**
+		 * Returns the number of new transitions produced.
+		 *
+		 * @return the number of transitions.
+		 */
+		public long getTransitions() {
+			return transitions;
+		}
+
+		/**
+		 * Returns the number of changed weights of existing transitions.
+		 *
+		 * @return the number of weight changes.
+		 */
+		public long getChanges() {
+			return changes;
+		}
+
+		public String toString() {
+			return String.format("%s: %.3fms, %d extends, %d transitions, %d changes",
+					key, nanos / 1e6, extendCalls, transitions, changes);
+		}
+	}
+}
@@ -0,0 +1,378 @@
+package de.tum.in.wpds;
+
+/**
+ * Counters and phase timings of a saturation run.
+ *
+ * <p>Statistics are collected only if enabled by
+ * {@link Sat#setStatistics(boolean)}; otherwise the engines skip
+ * every update with a single null check. A new object is created
+ * for every run and can be read with {@link Sat#getStatistics()}
+ * once the run returns.
+ *
+ * <p>Timings are measured with {@link System#nanoTime()}.
+ * The phases {@link Phase#EQREL} to {@link Phase#SLICE} are
+ * the steps of the lazy splitting and are included in {@link Phase#SPLIT}.
+ * The other phases are disjoint.
+ */
+public class SatStatistics {
+
+	/**
+	 * The timed phases of a run.
+	 */
+	public enum Phase {
+
+		/**
+		 * Saturating automata.
+		 */
+		SATURATE,
+
+		/**
+		 * Lifting automata with the global values of a work item.
+		 */
+		LIFT,
+
+		/**
+		 * Splitting aggregates by global values.
+		 */
+		SPLIT,
+
+		/**
+		 * Computing the equivalence relation of a lazy split.
+		 */
+		EQREL,
+
+		/**
+		 * Picking equivalence classes.
+		 */
+		EQCLASS,
+
+		/**
+		 * Extracting the global values of an equivalence class.
+		 */
+		EXTRACT,
+
+		/**
+		 * Updating the global values of the automata.
+		 */
+		UPDATE_GLOBAL,
+
+		/**
+		 * Removing equivalence classes from the relation.
+		 */
+		SLICE,
+
+		/**
+		 * Writing checkpoints.
+		 */
+		CHECKPOINT
+	}
+
+	/**
+	 * The kinds of rules, by the length of the right-hand side.
+	 */
+	public enum RuleKind {
+		POP, NORMAL, PUSH, DYNAMIC
+	}
+
+	long transitions;
+	long[] firings = new long[RuleKind.values().length];
+	long extendCalls;
+	long combineCalls;
+	long diffCalls;
+	int maxTransitionWorkset;
+	int maxAggregateWorkset;
+	long aggregatesCreated;
+	long aggregatesSplit;
+	long aggregatesPruned;
+	long aggregatesProcessed;
+	long aggregatesSpilled;
+	long aggregatesShed;
+	long automatonBytes;
+	long worklistBytes;
+	long peakWorklistBytes;
+	long reachBytes;
+	long peakReachBytes;
+	long peakBytes;
+	long[] nanos = new long[Phase.values().length];
+
+	/**
+	 * Counts a firing of a rule of the kind <code>kind</code>.
+	 */
+	void fire(RuleKind kind) {
+		firings[kind.ordinal()]++;
+	}
+
+	/**
+	 * Records the size of the transition workset.
+	 */
+	void transitionWorkset(int size) {
+		if (size > maxTransitionWorkset) maxTransitionWorkset = size;
+	}
+
+	/**
+	 * Records the size of the aggregate workset.
+	 */
+	void aggregateWorkset(int size) {
+		if (size > maxAggregateWorkset) maxAggregateWorkset = size;
+	}
+
+	/**
+	 * Records the estimated sizes of the worklist and the reachable set.
+	 */
+	void memory(long worklist, long reach) {
+		worklistBytes = worklist;
+		reachBytes = reach;
+		if (worklist > peakWorklistBytes) peakWorklistBytes = worklist;
+		if (reach > peakReachBytes) peakReachBytes = reach;
+		long live = Math.max(worklist, reach);
+		if (live > peakBytes) peakBytes = live;
+	}
+
+	/**
+	 * Adds the counters of <code>other</code>, e.g. of a parallel worker,
+	 * to these statistics. High-water marks are maximized.
+	 * 
+	 * @param other the statistics to add.
+	 */
+	void add(SatStatistics other) {
+		transitions += other.transitions;
+		for (int i = 0; i < firings.length; i++)
+			firings[i] += other.firings[i];
+		extendCalls += other.extendCalls;
+		combineCalls += other.combineCalls;
+		diffCalls += other.diffCalls;
+		transitionWorkset(other.maxTransitionWorkset);
+	}
+	
+	/**
+	 * Adds the time elapsed since <code>start</code> to the phase
+	 * <code>phase</code>.
+	 *
+	 * @param phase the phase.
+	 * @param start the start time from {@link System#nanoTime()}.
+	 */
+	void stop(Phase phase, long start) {
+		nanos[phase.ordinal()] += System.nanoTime() - start;
+	}
+
+	/**
+	 * Returns the number of transitions removed from the workset.
+	 *
+	 * @return the number of transitions processed.
+	 */
+	public long getTransitionsProcessed() {
+		return transitions;
+	}
+
+	/**
+	 * Returns the number of times rules of the kind <code>kind</code>
+	 * were fired, i.e. their weights were extended.
+	 *
+	 * @param kind the kind of rules.
+	 * @return the number of firings.
+	 */
+	public long getRuleFirings(RuleKind kind) {
+		return firings[kind.ordinal()];
+	}
+
+	/**
+	 * Returns the number of calls to the extend operations of the semiring.
+	 *
+	 * @return the number of extends.
+	 */
+	public long getExtendCalls() {
+		return extendCalls;
+	}
+
+	/**
+	 * Returns the number of calls to {@link Semiring#combine(Semiring)}
+	 * when adding transitions.
+	 *
+	 * @return the number of combines.
+	 */
+	public long getCombineCalls() {
+		return combineCalls;
+	}
+
+	/**
+	 * Returns the number of calls to {@link Semiring#diff(Semiring)}
+	 * when adding transitions.
+	 *
+	 * @return the number of diffs.
+	 */
+	public long getDiffCalls() {
+		return diffCalls;
+	}
+
+	/**
+	 * Returns the largest size of a transition workset.
+	 *
+	 * @return the high-water mark of transition worksets.
+	 */
+	public int getMaxTransitionWorkset() {
+		return maxTransitionWorkset;
+	}
+
+	/**
+	 * Returns the largest size of the aggregate workset of {@link DpnSat}.
+	 *
+	 * @return the high-water mark of the aggregate workset.
+	 */
+	public int getMaxAggregateWorkset() {
+		return maxAggregateWorkset;
+	}
+
+	/**
+	 * Returns the number of aggregates put into the workset.
+	 *
+	 * @return the number of aggregates created.
+	 */
+	public long getAggregatesCreated() {
+		return aggregatesCreated;
+	}
+
+	/**
+	 * Returns the number of aggregates that were split.
+	 *
+	 * @return the number of aggregates split.
+	 */
+	public long getAggregatesSplit() {
+		return aggregatesSplit;
+	}
+
+	/**
+	 * Returns the number of aggregates discarded, i.e. cut off by
+	 * the context bound or without global values.
+	 *
+	 * @return the number of aggregates pruned.
+	 */
+	public long getAggregatesPruned() {
+		return aggregatesPruned;
+	}
+
+	/**
+	 * Returns the number of aggregates removed from the workset.
+	 *
+	 * @return the number of aggregates processed.
+	 */
+	public long getAggregatesProcessed() {
+		return aggregatesProcessed;
+	}
+
+	/**
+	 * Returns the number of aggregates written to disk because 
+	 * the memory limit was exceeded.
+	 *
+	 * @return the number of aggregates spilled.
+	 * @see DpnSat#setMemoryLimit(long, SemiringCodec)
+	 */
+	public long getAggregatesSpilled() {
+		return aggregatesSpilled;
+	}
+
+	/**
+	 * Returns the number of aggregates dropped because 
+	 * the memory limit was exceeded.
+	 *
+	 * @return the number of aggregates shed.
+	 * @see DpnSat#setMemoryLimit(long, SemiringCodec)
+	 */
+	public long getAggregatesShed() {
+		return aggregatesShed;
+	}
+
+	/**
+	 * Returns the estimated size of the automaton saturated by {@link PdsSat}.
+	 *
+	 * @return the estimated number of bytes.
+	 * @see Fa#estimateSize()
+	 */
+	public long getAutomatonBytes() {
+		return automatonBytes;
+	}
+
+	/**
+	 * Returns the estimated size of the aggregates in the workset
+	 * of {@link DpnSat} at the end of the run.
+	 *
+	 * @return the estimated number of bytes.
+	 */
+	public long getWorklistBytes() {
+		return worklistBytes;
+	}
+
+	/**
+	 * Returns the largest estimated size of the aggregates in the workset.
+	 *
+	 * @return the estimated number of bytes.
+	 */
+	public long getPeakWorklistBytes() {
+		return peakWorklistBytes;
+	}
+
+	/**
+	 * Returns the estimated size of the aggregates kept in the 
+	 * reachable set at the end of the run.
+	 *
+	 * @return the estimated number of bytes.
+	 */
+	public long getReachBytes() {
+		return reachBytes;
+	}
+
+	/**
+	 * Returns the largest estimated size of the aggregates kept in the 
+	 * reachable set.
+	 *
+	 * @return the estimated number of bytes.
+	 */
+	public long getPeakReachBytes() {
+		return peakReachBytes;
+	}
+
+	/**
+	 * Returns the largest estimated size of the live aggregates, i.e.
+	 * of the workset, or of the reachable set if aggregates are kept.
+	 *
+	 * @return the estimated number of bytes.
+	 */
+	public long getPeakBytes() {
+		return peakBytes;
+	}
+
+	/**
+	 * Returns the time spent in the phase <code>phase</code>.
+	 *
+	 * @param phase the phase.
+	 * @return the time in nanoseconds.
+	 */
+	public long getNanos(Phase phase) {
+		return nanos[phase.ordinal()];
+	}
+
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		out.append(String.format("transitions=%d", transitions));
+		for (RuleKind kind : RuleKind.values())
+			out.append(String.format(", %s=%d", kind.name().toLowerCase(), firings[kind.ordinal()]));
+		out.append(String.format(", extend=%d, combine=%d, diff=%d",
+				extendCalls, combineCalls, diffCalls));
+		out.append(String.format(", maxTransitions=%d, maxAggregates=%d",
+				maxTransitionWorkset, maxAggregateWorkset));
+		out.append(String.format(", created=%d, split=%d, pruned=%d, processed=%d",
+				aggregatesCreated, aggregatesSplit, aggregatesPruned, aggregatesProcessed));
+		if (aggregatesSpilled > 0 || aggregatesShed > 0)
+			out.append(String.format(", spilled=%d, shed=%d", aggregatesSpilled, aggregatesShed));
+		if (automatonBytes > 0)
+			out.append(String.format(", automaton=%dB", automatonBytes));
+		if (peakBytes > 0)
+			out.append(String.format(", peakWorklist=%dB, peakReach=%dB, peak=%dB",
+					peakWorklistBytes, peakReachBytes, peakBytes));
+		for (Phase phase : Phase.values()) {
+			long t = nanos[phase.ordinal()];
+			if (t > 0)
+				out.append(String.format(", %s=%.3fs", phase.name().toLowerCase(), t / 1e9));
+		}
+		return out.toString();
+	}
+}
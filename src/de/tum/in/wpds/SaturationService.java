@@ -0,0 +1,353 @@
+package de.tum.in.wpds;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+
+/**
+ * A thread-safe service that answers saturation queries against
+ * shared models concurrently.
+ *
+ * <p>Models are registered once under a name and frozen when they are
+ * registered (see {@link Pds#freeze()}), so that queries share them
+ * without locks. Initial automata are frozen when a query is submitted
+ * (see {@link Fa#freeze()}), so the caller may go on modifying them.
+ * Every query runs a new engine on the shared model, on a virtual
+ * thread if the runtime supports them (Java 21 and later) and on
+ * a pool thread otherwise.
+ * At most <code>maxConcurrent</code> queries run at the same time;
+ * the others wait for a permit.
+ *
+ * <p>The rules of a model are read by concurrent queries. If some weight
+ * of the rules, the initial automaton or the initial global values of
+ * a query is not a {@link ThreadSafeSemiring}, the query is exclusive:
+ * the exclusive queries of a model run one at a time, while queries of
+ * other models still run concurrently.
+ * The exclusive queries of a model wait in a queue of the model, not on
+ * the executor: they hold neither a permit nor a pool thread, so they
+ * do not delay the queries of other models.
+ *
+ * <p>Cancelling a returned future cancels the engine through the
+ * {@link CancelMonitor} of the query. A query stopped by its budget
+ * completes normally with a partial result; see {@link Budget}.
+ */
+public class SaturationService {
+
+	/**
+	 * The registered models by name.
+	 */
+	private final ConcurrentHashMap<String, Model> models = new ConcurrentHashMap<String, Model>();
+
+	/**
+	 * The executor running the queries.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The permits of running queries.
+	 */
+	private final Semaphore permits;
+
+	/**
+	 * Creates a new service that runs at most <code>maxConcurrent</code>
+	 * queries at the same time.
+	 *
+	 * @param maxConcurrent the maximum number of running queries.
+	 */
+	public SaturationService(int maxConcurrent) {
+		this(newExecutor(maxConcurrent), maxConcurrent);
+	}
+
+	/**
+	 * Creates a new service that runs its queries on <code>executor</code>,
+	 * at most <code>maxConcurrent</code> at the same time.
+	 * The executor is shut down by {@link #shutdown()}.
+	 *
+	 * @param executor the executor.
+	 * @param maxConcurrent the maximum number of running queries.
+	 */
+	public SaturationService(ExecutorService executor, int maxConcurrent) {
+		if (maxConcurrent < 1)
+			throw new IllegalArgumentException("maxConcurrent must be positive");
+		this.executor = executor;
+		this.permits = new Semaphore(maxConcurrent, true);
+	}
+
+	/**
+	 * Returns an executor of virtual threads if the runtime supports them,
+	 * or a pool of <code>threads</code> threads otherwise.
+	 *
+	 * @param threads the number of pool threads.
+	 * @return the executor.
+	 */
+	private static ExecutorService newExecutor(int threads) {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (Exception e) {
+			return Executors.newFixedThreadPool(Math.max(1, threads));
+		}
+	}
+
+	/**
+	 * Registers a frozen copy of the model <code>pds</code> under 
+	 * <code>name</code>, replacing the model registered under the same 
+	 * name, if any.
+	 *
+	 * @param name the name.
+	 * @param pds the model.
+	 */
+	public void register(String name, Pds pds) {
+		models.put(name, new Model(pds.freeze()));
+	}
+
+	/**
+	 * Removes the model registered under <code>name</code>.
+	 * Running queries of the model are not affected.
+	 *
+	 * @param name the name.
+	 */
+	public void unregister(String name) {
+		models.remove(name);
+	}
+
+	/**
+	 * Returns the frozen model registered under <code>name</code>.
+	 *
+	 * @param name the name.
+	 * @return the model, or <code>null</code> if there is none.
+	 */
+	public Pds getModel(String name) {
+		Model model = models.get(name);
+		return (model == null) ? null : model.pds;
+	}
+
+	/**
+	 * Computes post* of <code>fa</code> in the model <code>name</code>
+	 * with {@link PdsSat}.
+	 *
+	 * @param name the name of the model.
+	 * @param fa the initial automaton.
+	 * @return the future saturated automaton.
+	 */
+	public CompletableFuture<Fa> poststar(String name, Fa fa) {
+		return poststar(name, fa, null);
+	}
+
+	/**
+	 * Computes post* of <code>fa</code> in the model <code>name</code>
+	 * with {@link PdsSat} under the budget <code>budget</code>.
+	 * The budget must not be shared with other queries.
+	 *
+	 * @param name the name of the model.
+	 * @param fa the initial automaton.
+	 * @param budget the budget, or <code>null</code>.
+	 * @return the future saturated automaton.
+	 */
+	public CompletableFuture<Fa> poststar(String name, Fa fa, final Budget budget) {
+
+		final Model model = model(name);
+		final Fa init = fa.freeze();
+		final CancelMonitor monitor = new DefaultMonitor();
+		boolean exclusive = !model.threadSafe || !Sat.threadSafe(init);
+		return submit(model, exclusive, monitor, new Callable<Fa>() {
+			public Fa call() {
+				PdsSat sat = new PdsSat(model.pds);
+				sat.setBudget(budget);
+				return sat.poststar(init, monitor);
+			}
+		});
+	}
+
+	/**
+	 * Performs the bounded context-switch analysis of <code>fa</code>
+	 * in the model <code>name</code>, which must be a {@link Dpn},
+	 * with {@link DpnSat}.
+	 *
+	 * @param name the name of the model.
+	 * @param fa the initial automaton.
+	 * @param g0 the initial global values.
+	 * @param n the thread bound.
+	 * @param k the context bound.
+	 * @param lazy determines if the splitting is lazy.
+	 * @param budget the budget, or <code>null</code>.
+	 * @return the future set of reachable aggregates.
+	 */
+	public CompletableFuture<DpnReach> poststar(String name, Fa fa,
+			final Semiring g0, final int n, final int k, final boolean lazy, final Budget budget) {
+
+		final Model model = model(name);
+		if (!(model.pds instanceof Dpn))
+			throw new IllegalArgumentException("Not a DPN: " + name);
+		final Fa init = fa.freeze();
+		final CancelMonitor monitor = new DefaultMonitor();
+		boolean exclusive = !model.threadSafe || !Sat.threadSafe(init)
+				|| (g0 != null && !(g0 instanceof ThreadSafeSemiring));
+		return submit(model, exclusive, monitor, new Callable<DpnReach>() {
+			public DpnReach call() {
+				DpnSat sat = new DpnSat((Dpn) model.pds, g0, n, k, lazy);
+				sat.setBudget(budget);
+				return sat.poststar(init, monitor);
+			}
+		});
+	}
+
+	/**
+	 * Returns the model registered under <code>name</code>.
+	 *
+	 * @param name the name.
+	 * @return the model.
+	 * @throws IllegalArgumentException if there is no such model.
+	 */
+	private Model model(String name) {
+		Model model = models.get(name);
+		if (model == null)
+			throw new IllegalArgumentException("Unknown model: " + name);
+		return model;
+	}
+
+	/**
+	 * Runs <code>query</code> on the executor once a permit is available.
+	 * An exclusive query is queued on its model while another exclusive
+	 * query of the model runs, and the queue is run on one executor
+	 * thread, so that queries waiting for a model hold no pool threads.
+	 * Cancelling the returned future cancels <code>monitor</code>.
+	 *
+	 * @param model the model of the query.
+	 * @param exclusive determines whether the query is exclusive on the model.
+	 * @param monitor the cancel monitor of the query.
+	 * @param query the query.
+	 * @return the future result.
+	 */
+	private <T> CompletableFuture<T> submit(final Model model, boolean exclusive,
+			final CancelMonitor monitor, Callable<T> query) {
+
+		final Query<T> task = new Query<T>(query);
+		task.future.whenComplete(new BiConsumer<T, Throwable>() {
+			public void accept(T result, Throwable e) {
+				if (task.future.isCancelled())
+					monitor.setCanceled(true);
+			}
+		});
+
+		try {
+			if (!exclusive) {
+				executor.execute(task);
+				return task.future;
+			}
+
+			synchronized (model) {
+				if (model.running) {
+					model.queue.add(task);
+					return task.future;
+				}
+				model.running = true;
+			}
+			executor.execute(new Runnable() {
+				public void run() {
+					Query<?> next = task;
+					while (next != null) {
+						next.run();
+						synchronized (model) {
+							next = model.queue.poll();
+							if (next == null) model.running = false;
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			task.future.completeExceptionally(e);
+			if (exclusive) {
+
+				// Fails the queries queued meanwhile
+				List<Query<?>> queued;
+				synchronized (model) {
+					queued = new ArrayList<Query<?>>(model.queue);
+					model.queue.clear();
+					model.running = false;
+				}
+				for (Query<?> q : queued)
+					q.future.completeExceptionally(e);
+			}
+		}
+		return task.future;
+	}
+
+	/**
+	 * Stops accepting queries. Queries already submitted are completed.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * A submitted query, which runs once a permit is available.
+	 */
+	private class Query<T> implements Runnable {
+
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+
+		private final Callable<T> query;
+
+		Query(Callable<T> query) {
+			this.query = query;
+		}
+
+		public void run() {
+			if (future.isDone()) return;
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				future.completeExceptionally(e);
+				return;
+			}
+			try {
+				if (future.isDone()) return;
+				future.complete(query.call());
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			} finally {
+				permits.release();
+			}
+		}
+	}
+
+	/**
+	 * A registered model.
+	 */
+	private static class Model {
+		final Pds pds;
+
+		/**
+		 * Determines whether the rule weights are thread-safe.
+		 */
+		final boolean threadSafe;
+
+		/**
+		 * The exclusive queries waiting for the running one.
+		 * Guarded by the model.
+		 */
+		final Queue<Query<?>> queue = new ArrayDeque<Query<?>>();
+
+		/**
+		 * Determines whether an exclusive query of the model is running.
+		 * Guarded by the model.
+		 */
+		boolean running = false;
+
+		Model(Pds pds) {
+			this.pds = pds;
+			this.threadSafe = Sat.threadSafe(pds);
+		}
+	}
+}
@@ -4,6 +4,9 @@ import java.util.Set;
 
 /**
  * A semiring.
+ * Implementations must override {@link Object#equals(Object)} and
+ * {@link Object#hashCode()} consistently, since semiring values 
+ * are compared for changes and grouped in hash indexes.
  * 
  * @author suwimont
  *
@@ -76,6 +79,14 @@ public interface Semiring {
 	/**
 	 * [Eager & Lazy] Lifts this semiring value with <code>a</code>.
 	 * 
+	 * <p>With {@link DpnSat#setIncremental(boolean)}, a saturated thread
+	 * is saturated again only from the transitions whose weights change,
+	 * reusing the weights derived from the others.
+	 * This is exact only if lifting distributes over extension, i.e.
+	 * <code>d.extend(r).lift(a)</code> equals <code>d.lift(a).extend(r)</code>,
+	 * and likewise for {@link #andWith(Semiring)} and 
+	 * {@link #updateGlobal(Semiring)} in the lazy analysis.
+	 * 
 	 * @param a the semiring to be lifted with.
 	 * @return the lifted semiring.
 	 */
@@ -124,6 +135,7 @@ public interface Semiring {
 	 * [Lazy] Updates this semiring value to the new value specified by <code>a</code>
 	 * 
 	 * @param a the new semiring value.
+	 * @see #lift(Semiring)
 	 */
 	public void updateGlobal(Semiring a);
 	
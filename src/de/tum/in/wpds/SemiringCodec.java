@@ -0,0 +1,32 @@
+package de.tum.in.wpds;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A binary encoding of semiring values, supplied by the semiring 
+ * implementation. It is used for persisting automata and models.
+ * The encoding of a value must be canonical, i.e. equal values 
+ * must have equal encodings, since encodings are also used as digests.
+ */
+public interface SemiringCodec {
+
+	/**
+	 * Writes the semiring value <code>d</code> to <code>out</code>.
+	 * 
+	 * @param d the semiring value.
+	 * @param out the output.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void write(Semiring d, DataOutput out) throws IOException;
+	
+	/**
+	 * Reads a semiring value from <code>in</code>, starting at its 
+	 * current position. The position is advanced past the value.
+	 * 
+	 * @param in the input.
+	 * @return the semiring value.
+	 */
+	public Semiring read(ByteBuffer in);
+}
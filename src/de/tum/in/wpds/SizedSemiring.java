@@ -0,0 +1,18 @@
+package de.tum.in.wpds;
+
+/**
+ * A semiring whose values can estimate their memory footprint.
+ * The estimates are used by {@link Fa#estimateSize()} and the memory
+ * accounting of {@link DpnSat}. Values of other semirings are
+ * assumed to be small objects.
+ */
+public interface SizedSemiring extends Semiring {
+
+	/**
+	 * Returns the estimated number of bytes used by this value,
+	 * including the data it refers to exclusively.
+	 * 
+	 * @return the estimated number of bytes.
+	 */
+	public long estimateSize();
+}
@@ -0,0 +1,92 @@
+package de.tum.in.wpds;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A table that interns symbols, i.e. states and stack symbols,
+ * as consecutive integer ids.
+ *
+ * <p>A table is thread-safe, since the automata of parallel
+ * saturations share it: looking up a symbol or an id does not lock,
+ * only interning a new symbol does.
+ */
+public class SymbolTable {
+
+	/**
+	 * Maps a symbol to its id.
+	 */
+	private ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Maps an id to its symbol. An id is published in {@link #ids}
+	 * only after its symbol was stored here.
+	 */
+	private volatile String[] symbols = new String[16];
+
+	/**
+	 * The number of symbols.
+	 */
+	private volatile int size = 0;
+
+	/**
+	 * Returns the id of the symbol <code>s</code>, creating one if necessary.
+	 *
+	 * @param s the symbol.
+	 * @return the id.
+	 */
+	public int intern(String s) {
+		Integer id = ids.get(s);
+		if (id != null) return id;
+
+		synchronized (this) {
+			id = ids.get(s);
+			if (id != null) return id;
+
+			id = size;
+			String[] table = symbols;
+			if (id == table.length) {
+				String[] newTable = new String[2 * table.length];
+				System.arraycopy(table, 0, newTable, 0, table.length);
+				table = newTable;
+			}
+			table[id] = s;
+			symbols = table;
+			size = id + 1;
+			ids.put(s, id);
+			return id;
+		}
+	}
+
+	/**
+	 * Returns the id of the symbol <code>s</code>, or <code>-1</code>
+	 * if <code>s</code> is not in this table.
+	 *
+	 * @param s the symbol.
+	 * @return the id.
+	 */
+	public int getId(String s) {
+		Integer id = ids.get(s);
+		return (id == null) ? -1 : id;
+	}
+
+	/**
+	 * Returns the symbol with id <code>id</code>.
+	 *
+	 * @param id the id.
+	 * @return the symbol.
+	 */
+	public String getSymbol(int id) {
+		if (id < 0 || id >= size)
+			throw new IndexOutOfBoundsException("Id: " + id);
+		return symbols[id];
+	}
+
+	/**
+	 * Returns the number of symbols in this table.
+	 *
+	 * @return the number of symbols.
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,11 @@
+package de.tum.in.wpds;
+
+/**
+ * A semiring whose operations may be called concurrently from several
+ * threads, as long as no semiring value is modified by one thread while 
+ * being used by another.
+ * Parallel modes of the saturation procedures are only used if the
+ * semiring implements this interface; otherwise they run sequentially.
+ */
+public interface ThreadSafeSemiring extends Semiring {
+}
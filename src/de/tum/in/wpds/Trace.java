@@ -0,0 +1,247 @@
+package de.tum.in.wpds;
+
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Structured tracing of the saturation procedures.
+ *
+ * <p>Events are typed records written into a fixed-size ring buffer
+ * of the current thread, so only the most recent events are kept.
+ * Nothing is formatted when an event is recorded.
+ * Tracing is enabled by the system property <code>jwpds.trace</code>;
+ * the size of the buffers is given by <code>jwpds.trace.size</code>
+ * (4096 events by default). Every call site is guarded by the constant
+ * {@link #ENABLED}, so the JIT compiler removes tracing entirely
+ * when it is disabled.
+ *
+ * <p>The buffers are dumped by {@link #dump(PrintStream)}, and to
+ * the standard error stream when a run is canceled. Buffers of
+ * other threads are read without synchronization, so their most
+ * recent events may be missing from a dump. The buffers of the
+ * {@value #RETIRED} most recently terminated threads are kept for dumps;
+ * older ones are dropped when a thread starts recording, and all of them
+ * by {@link #clear()}, so that short-lived worker threads do not
+ * accumulate buffers.
+ */
+public class Trace {
+
+	/**
+	 * Determines whether tracing is enabled.
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean("jwpds.trace");
+
+	/**
+	 * The number of events kept per thread, a power of two.
+	 */
+	private static final int SIZE =
+			Integer.highestOneBit(Math.max(2, Integer.getInteger("jwpds.trace.size", 4096)));
+
+	/**
+	 * The number of buffers of terminated threads that are kept.
+	 */
+	static final int RETIRED = 16;
+
+	/**
+	 * The types of events.
+	 */
+	public enum Event {
+
+		/**
+		 * A transition is removed from the workset.
+		 */
+		TRANSITION,
+
+		/**
+		 * A rule is fired on a transition.
+		 */
+		RULE,
+
+		/**
+		 * A transition is reached through an epsilon transition.
+		 */
+		EPSILON,
+
+		/**
+		 * A new transition is added.
+		 */
+		ADD,
+
+		/**
+		 * The weight of a transition is changed.
+		 */
+		CHANGE,
+
+		/**
+		 * A transition is not changed by a weight.
+		 */
+		IGNORE,
+
+		/**
+		 * A weight is zero and nothing is added.
+		 */
+		ZERO,
+
+		/**
+		 * An aggregate is removed from the workset.
+		 */
+		AGGREGATE,
+
+		/**
+		 * An aggregate is put into the workset.
+		 */
+		ENQUEUE
+	}
+
+	/**
+	 * The buffers of all threads.
+	 */
+	private static final List<Ring> rings = new ArrayList<Ring>();
+
+	/**
+	 * The buffer of the current thread.
+	 */
+	private static final ThreadLocal<Ring> ring = new ThreadLocal<Ring>() {
+		protected Ring initialValue() {
+			Ring r = new Ring(Thread.currentThread());
+			synchronized (rings) {
+				prune(RETIRED);
+				rings.add(r);
+			}
+			return r;
+		}
+	};
+
+	/**
+	 * Drops the oldest buffers of terminated threads, so that at most 
+	 * <code>keep</code> of them are left. The caller holds the lock of
+	 * {@link #rings}.
+	 *
+	 * @param keep the number of buffers of terminated threads to keep.
+	 */
+	private static void prune(int keep) {
+		int dead = 0;
+		for (Ring r : rings) {
+			if (!r.alive()) dead++;
+		}
+		Iterator<Ring> it = rings.iterator();
+		while (dead > keep && it.hasNext()) {
+			if (!it.next().alive()) {
+				it.remove();
+				dead--;
+			}
+		}
+	}
+
+	/**
+	 * Records the event <code>event</code> with its subjects.
+	 * The call must be guarded by {@link #ENABLED}.
+	 *
+	 * @param event the event.
+	 * @param a the first subject, or <code>null</code>.
+	 * @param b the second subject, or <code>null</code>.
+	 */
+	public static void record(Event event, Object a, Object b) {
+		ring.get().add(event, a, b);
+	}
+
+	/**
+	 * Writes the events of all threads to <code>out</code>,
+	 * the oldest first.
+	 *
+	 * @param out the output.
+	 */
+	public static void dump(PrintStream out) {
+		synchronized (rings) {
+			for (Ring r : rings)
+				r.dump(out);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Discards the events of all threads, and the buffers of
+	 * terminated threads.
+	 */
+	public static void clear() {
+		synchronized (rings) {
+			prune(0);
+			for (Ring r : rings)
+				r.clear();
+		}
+	}
+
+	/**
+	 * Dumps the events when a run is canceled.
+	 */
+	static void canceled() {
+		System.err.println("Run canceled, trace follows:");
+		dump(System.err);
+	}
+
+	/**
+	 * A ring buffer of events.
+	 */
+	private static class Ring {
+
+		String thread;
+
+		/**
+		 * The thread recording into this buffer, weakly referenced so that
+		 * the buffer does not keep a terminated thread alive.
+		 */
+		WeakReference<Thread> owner;
+
+		long[] time = new long[SIZE];
+		Event[] events = new Event[SIZE];
+		Object[] first = new Object[SIZE];
+		Object[] second = new Object[SIZE];
+
+		/**
+		 * The number of events recorded.
+		 */
+		long count;
+
+		Ring(Thread owner) {
+			this.thread = owner.getName();
+			this.owner = new WeakReference<Thread>(owner);
+		}
+
+		boolean alive() {
+			Thread t = owner.get();
+			return t != null && t.isAlive();
+		}
+
+		void add(Event event, Object a, Object b) {
+			int i = (int) count & (SIZE - 1);
+			time[i] = System.nanoTime();
+			events[i] = event;
+			first[i] = a;
+			second[i] = b;
+			count++;
+		}
+
+		void clear() {
+			count = 0;
+			Arrays.fill(first, null);
+			Arrays.fill(second, null);
+		}
+
+		void dump(PrintStream out) {
+			long n = count;
+			long from = Math.max(0, n - SIZE);
+			out.printf("Thread %s: %d events, last %d:%n", thread, n, n - from);
+			for (long l = from; l < n; l++) {
+				int i = (int) l & (SIZE - 1);
+				out.printf("\t%d %s", time[i], events[i]);
+				if (first[i] != null) out.printf(" %s", first[i]);
+				if (second[i] != null) out.printf(" %s", second[i]);
+				out.println();
+			}
+		}
+	}
+}
@@ -36,21 +36,36 @@ public class Utils {
 	 */
 	public static Logger getLogger(Class<? extends Object> c, String pattern) {
 		
+		// Creates logger
+		Logger logger = Logger.getLogger(c.getName());
+		if (!addFileHandler(logger, pattern))
+			return null;
+		logger.setLevel(Level.ALL);
+		
+		return logger;
+	}
+	
+	/**
+	 * Adds a log file with the pattern <code>pattern</code> to 
+	 * the logger <code>logger</code>.
+	 * 
+	 * @param logger the logger.
+	 * @param pattern the pattern.
+	 * @return <code>true</code> if the file is opened.
+	 */
+	public static boolean addFileHandler(Logger logger, String pattern) {
+		
 		// Creates a log handler
 		Handler handler;
 		try {
 			handler = new FileHandler(pattern);
 		} catch (IOException e) {
-			return null;
+			return false;
 		}
 		handler.setFormatter(new VerySimpleFormatter());
-		
-		// Creates logger
-		Logger logger = Logger.getLogger(c.getName());
 		logger.addHandler(handler);
-		logger.setLevel(Level.ALL);
 		
-		return logger;
+		return true;
 	}
 	
 	/**
@@ -0,0 +1,112 @@
+package de.tum.in.wpds.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.tum.in.wpds.Checkpoint;
+import de.tum.in.wpds.DefaultMonitor;
+import de.tum.in.wpds.DpnReach;
+import de.tum.in.wpds.DpnSat;
+import de.tum.in.wpds.Fa;
+import de.tum.in.wpds.Pds;
+import de.tum.in.wpds.PdsSat;
+import de.tum.in.wpds.Transition;
+
+
+public class CheckpointTest {
+
+	/**
+	 * A monitor that cancels after a number of checks.
+	 */
+	static class CountingMonitor extends DefaultMonitor {
+		int left;
+		CountingMonitor(int left) {
+			this.left = left;
+		}
+		public boolean isCanceled() {
+			return --left < 0 || super.isCanceled();
+		}
+	}
+
+	private static Pds pds() {
+		Pds pds = new Pds();
+		for (int i = 0; i < 1000; i++) {
+			pds.add(new MinSemiring(1), "p", "a" + i, "p", "a" + (i + 1));
+			pds.add(new MinSemiring(2), "p", "a" + i, "p", "b" + i, "a" + (i + 1));
+			pds.add(new MinSemiring(3), "p", "b" + i, "p");
+		}
+		return pds;
+	}
+
+	@Test public void testResume() throws IOException {
+
+		Fa fa = new Fa();
+		fa.add(new MinSemiring(0), "p", "a0", "s");
+		Fa expected = new PdsSat(pds()).poststar(fa, new DefaultMonitor());
+
+		File file = File.createTempFile("jwpds", ".ckpt");
+		file.deleteOnExit();
+		Checkpoint checkpoint = new Checkpoint(file, FaFileTest.codec);
+		checkpoint.setInterval(0);
+
+		PdsSat sat = new PdsSat(pds());
+		sat.setCheckpoint(checkpoint);
+		Fa partial = sat.poststar(fa, new CountingMonitor(1500));
+		Assert.assertTrue(partial.size() < expected.size());
+		Assert.assertTrue(checkpoint.exists());
+		Assert.assertNull(checkpoint.getError());
+
+		sat = new PdsSat(pds());
+		sat.setCheckpoint(checkpoint);
+		Fa resumed = sat.resume(fa, new DefaultMonitor());
+		Assert.assertEquals(expected.getTransitions(), new HashSet<Transition>(resumed.getTransitions()));
+		for (Transition t : expected.getTransitions())
+			Assert.assertEquals(expected.getWeight(t), resumed.getWeight(t));
+		file.delete();
+	}
+
+	@Test public void testResumeDpn() throws IOException {
+
+		DpnReach expected = DpnSatTest.sat(4, false).poststar(DpnSatTest.init(), new DefaultMonitor());
+		for (boolean retain : new boolean[] { true, false }) {
+			File file = File.createTempFile("jwpds", ".ckpt");
+			file.deleteOnExit();
+			Checkpoint checkpoint = new Checkpoint(file, GlobalSemiring.CODEC);
+			checkpoint.setInterval(0);
+
+			DpnSat sat = DpnSatTest.sat(4, false);
+			sat.setRetainReach(retain);
+			sat.setCheckpoint(checkpoint);
+			DpnReach partial = sat.poststar(DpnSatTest.init(), new CountingMonitor(50));
+			Assert.assertFalse(partial.isComplete());
+			Assert.assertTrue(partial.size() < expected.size());
+			Assert.assertTrue(checkpoint.exists());
+			Assert.assertNull(checkpoint.getError());
+			long length = file.length();
+
+			// Maps the checkpoint in many chunks
+			System.setProperty("jwpds.map.chunk", "4096");
+			DpnReach resumed;
+			try {
+				sat = DpnSatTest.sat(4, false);
+				sat.setRetainReach(retain);
+				sat.setCheckpoint(checkpoint);
+				resumed = sat.resume(new DefaultMonitor());
+			} finally {
+				System.clearProperty("jwpds.map.chunk");
+			}
+			Assert.assertNull(checkpoint.getError());
+			Assert.assertTrue(resumed.isComplete());
+			Assert.assertEquals(expected.size(), resumed.size());
+			if (retain) DpnSatTest.assertSameReach("resumed", expected, resumed);
+
+			// Explored work items are released unless their aggregates are kept
+			if (!retain) Assert.assertTrue(file.length() < length);
+			file.delete();
+		}
+	}
+}
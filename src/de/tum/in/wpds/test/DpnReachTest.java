@@ -0,0 +1,40 @@
+package de.tum.in.wpds.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.tum.in.wpds.DpnReach;
+import de.tum.in.wpds.Fa;
+import de.tum.in.wpds.ReachMatrix;
+
+
+public class DpnReachTest {
+
+	private static Fa thread(String... tops) {
+		
+		Fa fa = new Fa();
+		for (String a : tops)
+			fa.add(new MinSemiring(0), Fa.q_i, a, Fa.q_f);
+		fa.add(new MinSemiring(0), "(p,x)0", "y", Fa.q_f);
+		return fa;
+	}
+	
+	@Test public void testMatrix() {
+		
+		DpnReach reach = new DpnReach();
+		reach.add(null, thread("a", "b"), thread("c"));
+		reach.add(null, thread("d"), thread("a"), thread("e"));
+		reach.add(null, thread("f"));
+		
+		ReachMatrix matrix = reach.getMatrix();
+		String[] symbols = { "a", "b", "c", "d", "e", "f", "y", "z" };
+		for (String a : symbols) {
+			for (String b : symbols) {
+				Assert.assertEquals(a + "," + b, 
+						reach.reachable(a, b), matrix.reachable(a, b));
+			}
+		}
+		Assert.assertTrue(matrix.reachable("a", "e"));
+		Assert.assertFalse(matrix.reachable("a", "b"));
+	}
+}
@@ -0,0 +1,349 @@
+package de.tum.in.wpds.test;
+
+import java.util.Comparator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.tum.in.wpds.Config;
+import de.tum.in.wpds.DefaultMonitor;
+import de.tum.in.wpds.Dpn;
+import de.tum.in.wpds.DpnQuery;
+import de.tum.in.wpds.DpnReach;
+import de.tum.in.wpds.DpnSat;
+import de.tum.in.wpds.Fa;
+import de.tum.in.wpds.PriorityWorkSet;
+import de.tum.in.wpds.ReachListener;
+import de.tum.in.wpds.ReachMatrix;
+import de.tum.in.wpds.Rule;
+import de.tum.in.wpds.Semiring;
+
+
+public class DpnSatTest {
+
+	/**
+	 * The stack symbols of the model.
+	 */
+	static final String[] SYMBOLS = {
+		"a0", "a1", "a2", "a3", "a4", "a5", "b0", "b1", "b2", "b3" };
+
+	private static void add(Dpn dpn, boolean global, Semiring d, String y, String... w) {
+		
+		Rule rule = new Rule(d, "p", y, "p", w);
+		rule.setGlobal(global);
+		dpn.add(rule);
+	}
+
+	/**
+	 * Returns a dpn with one global variable, initially 0.
+	 * The main thread sets it to 1, calls a procedure that spawns
+	 * thread b, and waits for 2. Thread b waits for 1 and sets it to 2.
+	 * So a3 and b1 are reachable at the same time from three contexts on,
+	 * and a5 and b3 from four contexts on, but a5 and b0 never.
+	 */
+	static Dpn model() {
+		
+		Dpn dpn = new Dpn();
+		add(dpn, true, GlobalSemiring.set(1), "a0", "a1");
+		add(dpn, false, GlobalSemiring.skip(), "a1", "a2", "a3");
+		dpn.add(GlobalSemiring.skip(), new Config("p", "a2"),
+				new Config("p", "a4"), new Config("p", "b0"));
+		add(dpn, false, GlobalSemiring.skip(), "a4");
+		add(dpn, true, GlobalSemiring.test(2), "a3", "a5");
+		add(dpn, true, GlobalSemiring.test(1), "b0", "b1");
+		add(dpn, true, GlobalSemiring.set(2), "b1", "b2");
+		add(dpn, false, GlobalSemiring.skip(), "b2", "b3");
+		return dpn;
+	}
+
+	static Fa init() {
+		
+		Fa fa = new Fa();
+		fa.add(GlobalSemiring.skip(), Fa.q_i, "a0", Fa.q_f);
+		return fa;
+	}
+
+	static DpnSat sat(int k, boolean lazy) {
+		return new DpnSat(model(), GlobalSemiring.set(0), 3, k, lazy);
+	}
+
+	/**
+	 * Asserts that both sets have the same number of aggregates and
+	 * the same pairs of simultaneously reachable symbols.
+	 */
+	static void assertSameReach(String message, DpnReach expected, DpnReach actual) {
+		
+		Assert.assertEquals(message, expected.size(), actual.size());
+		ReachMatrix matrix = expected.getMatrix();
+		ReachMatrix other = actual.getMatrix();
+		for (String a : SYMBOLS) {
+			for (String b : SYMBOLS) {
+				Assert.assertEquals(message + ": " + a + "," + b, 
+						matrix.reachable(a, b), other.reachable(a, b));
+			}
+		}
+	}
+
+	@Test public void testModel() {
+		
+		for (boolean lazy : new boolean[] { false, true }) {
+			DpnReach reach = sat(4, lazy).poststar(init(), new DefaultMonitor());
+			Assert.assertTrue(reach.isComplete());
+			Assert.assertTrue(reach.reachable("a3", "b1"));
+			Assert.assertTrue(reach.reachable("a5", "b3"));
+			Assert.assertFalse(reach.reachable("a5", "b0"));
+			Assert.assertFalse(reach.reachable("a0", "b0"));
+		}
+	}
+
+	@Test public void testQuery() {
+		
+		int all = sat(4, false).poststar(init(), new DefaultMonitor()).size();
+		
+		// Stops as soon as the query is decided
+		DpnSat sat = sat(4, false);
+		DpnQuery query = sat.addQuery("b0", "a3");
+		DpnReach reach = sat.poststar(init(), new DefaultMonitor());
+		Assert.assertTrue(query.isReachable());
+		Assert.assertFalse(reach.isComplete());
+		Assert.assertTrue(reach.size() < all);
+		
+		// An unreachable query is never decided, so the run goes on
+		sat = sat(4, false);
+		query = sat.addQuery("b0", "a3");
+		DpnQuery never = sat.addQuery("a5", "b0");
+		reach = sat.poststar(init(), new DefaultMonitor());
+		Assert.assertTrue(query.isReachable());
+		Assert.assertFalse(never.isReachable());
+		Assert.assertTrue(reach.isComplete());
+		Assert.assertEquals(all, reach.size());
+		
+		// The queries are checked again in the next run
+		reach = sat.poststar(init(), new DefaultMonitor());
+		Assert.assertTrue(query.isReachable());
+		Assert.assertFalse(never.isReachable());
+		Assert.assertEquals(all, reach.size());
+	}
+
+	@Test public void testStreaming() {
+		
+		DpnReach all = sat(4, false).poststar(init(), new DefaultMonitor());
+		
+		final int[] count = new int[2];
+		DpnSat sat = sat(4, false);
+		sat.setRetainReach(false);
+		sat.addReachListener(new ReachListener() {
+			public void reach(Semiring g, Fa... A) {
+				count[0]++;
+				for (int i = 0; i < A.length; i++) {
+					for (int j = 0; j < A.length; j++) {
+						if (i != j && A[i].reachable("a5") && A[j].reachable("b3"))
+							count[1]++;
+					}
+				}
+			}
+		});
+		DpnReach reach = sat.poststar(init(), new DefaultMonitor());
+		Assert.assertFalse(reach.isRetained());
+		Assert.assertTrue(reach.isComplete());
+		Assert.assertEquals(all.size(), reach.size());
+		Assert.assertEquals(all.size(), count[0]);
+		Assert.assertTrue(count[1] > 0);
+		try {
+			reach.reachable("a5", "b3");
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// Aggregates are not kept
+		}
+	}
+
+	@Test public void testMatrix() {
+		
+		for (boolean lazy : new boolean[] { false, true }) {
+			DpnReach reach = sat(4, lazy).poststar(init(), new DefaultMonitor());
+			ReachMatrix matrix = reach.getMatrix();
+			
+			// The same matrix is built incrementally in streaming mode
+			DpnSat sat = sat(4, lazy);
+			ReachMatrix streamed = new ReachMatrix();
+			sat.setRetainReach(false);
+			sat.addReachListener(streamed);
+			DpnReach streaming = sat.poststar(init(), new DefaultMonitor());
+			
+			for (String a : SYMBOLS) {
+				for (String b : SYMBOLS) {
+					Assert.assertEquals(a + "," + b, 
+							reach.reachable(a, b), matrix.reachable(a, b));
+					Assert.assertEquals(a + "," + b, 
+							matrix.reachable(a, b), streamed.reachable(a, b));
+				}
+			}
+			Assert.assertTrue(matrix.reachable("b3", "a5"));
+			Assert.assertFalse(matrix.reachable("a5", "b0"));
+			try {
+				streaming.getMatrix();
+				Assert.fail();
+			} catch (IllegalStateException e) {
+				// Aggregates are not kept
+			}
+		}
+	}
+
+	@Test public void testPriorityWorkSet() {
+		
+		// Orders by tens, ties in the order added
+		PriorityWorkSet<Integer> set = new PriorityWorkSet<Integer>(new Comparator<Integer>() {
+			public int compare(Integer i1, Integer i2) {
+				return i1 / 10 - i2 / 10;
+			}
+		});
+		int[] added = { 31, 12, 35, 10, 3, 17, 30, 1 };
+		for (int i : added)
+			set.add(i);
+		Assert.assertEquals(added.length, set.size());
+		int[] removed = { 3, 1, 12, 10, 17, 31, 35, 30 };
+		for (int i : removed)
+			Assert.assertEquals(i, (int) set.remove());
+		Assert.assertTrue(set.isEmpty());
+	}
+
+	@Test public void testStrategies() {
+		
+		for (boolean lazy : new boolean[] { false, true }) {
+			DpnReach bfs = sat(4, lazy).poststar(init(), new DefaultMonitor());
+			for (DpnSat.Strategy strategy : DpnSat.Strategy.values()) {
+				DpnSat sat = sat(4, lazy);
+				if (strategy == DpnSat.Strategy.PRIORITY) {
+					
+					// The latest work item first
+					sat.setPriority(new Comparator<DpnSat.WorkItem>() {
+						public int compare(DpnSat.WorkItem w1, DpnSat.WorkItem w2) {
+							return w2.getId() - w1.getId();
+						}
+					});
+				} else {
+					sat.setStrategy(strategy);
+				}
+				DpnReach reach = sat.poststar(init(), new DefaultMonitor());
+				assertSameReach(strategy.toString(), bfs, reach);
+			}
+		}
+	}
+
+	@Test public void testStrategyComparison() {
+		
+		// Compares the built-in strategies: the aggregates processed until
+		// a query is decided, and the peak memory of the workset in a full
+		// streaming run, which processes the same aggregates in any order
+		StringBuilder out = new StringBuilder("strategy     lazy  decided  processed  peak workset\n");
+		for (boolean lazy : new boolean[] { false, true }) {
+			long all = -1;
+			for (DpnSat.Strategy strategy : DpnSat.Strategy.values()) {
+				if (strategy == DpnSat.Strategy.PRIORITY) continue;
+				
+				DpnSat sat = sat(4, lazy);
+				sat.setStrategy(strategy);
+				sat.setStatistics(true);
+				DpnQuery query = sat.addQuery("a5", "b3");
+				sat.poststar(init(), new DefaultMonitor());
+				Assert.assertTrue(strategy.toString(), query.isReachable());
+				long decided = sat.getStatistics().getAggregatesProcessed();
+				
+				DpnSat full = sat(4, lazy);
+				full.setStrategy(strategy);
+				full.setStatistics(true);
+				full.setRetainReach(false);
+				Assert.assertTrue(full.poststar(init(), new DefaultMonitor()).isComplete());
+				long processed = full.getStatistics().getAggregatesProcessed();
+				if (all < 0) all = processed;
+				Assert.assertEquals(strategy.toString(), all, processed);
+				Assert.assertTrue(strategy.toString(), decided <= processed);
+				
+				out.append(String.format("%-12s %-5b %7d  %9d  %11dB%n", strategy, lazy, 
+						decided, processed, full.getStatistics().getPeakWorklistBytes()));
+			}
+		}
+		System.out.print(out);
+	}
+	
+	@Test public void testIncremental() {
+		
+		// With two threads, the thread bound is reached by the spawn
+		for (boolean lazy : new boolean[] { false, true }) {
+			DpnSat sat = new DpnSat(model(), GlobalSemiring.set(0), 2, 5, lazy);
+			sat.setIncremental(false);
+			DpnReach full = sat.poststar(init(), new DefaultMonitor());
+			
+			sat = new DpnSat(model(), GlobalSemiring.set(0), 2, 5, lazy);
+			sat.setIncremental(true);
+			DpnReach reach = sat.poststar(init(), new DefaultMonitor());
+			assertSameReach("lazy=" + lazy, full, reach);
+			Assert.assertTrue(reach.reachable("a5", "b3"));
+		}
+	}
+
+	@Test public void testDeepen() {
+		
+		for (boolean lazy : new boolean[] { false, true }) {
+			DpnSat sat = sat(1, lazy);
+			sat.setIterativeDeepening(true);
+			DpnReach reach = sat.poststar(init(), new DefaultMonitor());
+			for (int k = 2; k <= 4; k++) {
+				reach = sat.deepen(k, new DefaultMonitor());
+				Assert.assertTrue(reach.isComplete());
+				assertSameReach("k=" + k, 
+						sat(k, lazy).poststar(init(), new DefaultMonitor()), reach);
+			}
+			Assert.assertTrue(reach.reachable("a5", "b3"));
+		}
+	}
+
+	@Test public void testThreads() {
+		
+		// The lazy splitting has two equivalence classes after thread b runs
+		for (boolean lazy : new boolean[] { false, true }) {
+			DpnSat sat = sat(4, lazy);
+			sat.setThreads(4);
+			assertSameReach("lazy=" + lazy, 
+					sat(4, lazy).poststar(init(), new DefaultMonitor()),
+					sat.poststar(init(), new DefaultMonitor()));
+		}
+	}
+
+	@Test public void testSharedMidStates() {
+		
+		for (boolean lazy : new boolean[] { false, true }) {
+			DpnSat sat = sat(4, lazy);
+			sat.setSharedMidStates(true);
+			assertSameReach("lazy=" + lazy, 
+					sat(4, lazy).poststar(init(), new DefaultMonitor()),
+					sat.poststar(init(), new DefaultMonitor()));
+		}
+	}
+
+	@Test public void testSpill() {
+		
+		// Spills every work item, into a new file every few items
+		DpnReach all = sat(4, false).poststar(init(), new DefaultMonitor());
+		String size = System.getProperty("jwpds.spill.size");
+		System.setProperty("jwpds.spill.size", "256");
+		try {
+			DpnSat sat = sat(4, false);
+			sat.setRetainReach(false);
+			sat.setMemoryLimit(1, GlobalSemiring.CODEC);
+			sat.setStatistics(true);
+			ReachMatrix matrix = new ReachMatrix();
+			sat.addReachListener(matrix);
+			DpnReach reach = sat.poststar(init(), new DefaultMonitor());
+			Assert.assertFalse(sat.isShed());
+			Assert.assertTrue(sat.getStatistics().getAggregatesSpilled() > 1);
+			Assert.assertTrue(reach.isComplete());
+			Assert.assertEquals(all.size(), reach.size());
+			Assert.assertTrue(matrix.reachable("a5", "b3"));
+			Assert.assertFalse(matrix.reachable("a5", "b0"));
+		} finally {
+			if (size == null) System.clearProperty("jwpds.spill.size");
+			else System.setProperty("jwpds.spill.size", size);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package de.tum.in.wpds.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.tum.in.wpds.Fa;
+import de.tum.in.wpds.FaFile;
+import de.tum.in.wpds.MappedFa;
+import de.tum.in.wpds.Semiring;
+import de.tum.in.wpds.SemiringCodec;
+import de.tum.in.wpds.Transition;
+
+
+public class FaFileTest {
+
+	static final SemiringCodec codec = new SemiringCodec() {
+		public void write(Semiring d, DataOutput out) throws IOException {
+			out.writeInt(((MinSemiring) d).v);
+		}
+		public Semiring read(ByteBuffer in) {
+			return new MinSemiring(in.getInt());
+		}
+	};
+
+	private static Fa random(long seed) {
+
+		Fa fa = new Fa();
+		Random random = new Random(seed);
+		for (int i = 0; i < 2000; i++) {
+			String p = "q" + random.nextInt(30);
+			String a = (random.nextInt(10) == 0) ? Fa.epsilon : "a" + random.nextInt(100);
+			String q = "q" + random.nextInt(30);
+			fa.add(new MinSemiring(random.nextInt(1000)), p, a, q);
+			if (random.nextInt(3) == 0)
+				fa.resetDiff(new Transition(p, a, q));
+		}
+		return fa;
+	}
+
+	private static void assertSame(Fa fa, Fa mapped) {
+
+		Assert.assertEquals(fa.size(), mapped.size());
+		Assert.assertEquals(fa.getTransitions(), new HashSet<Transition>(mapped.getTransitions()));
+		for (Transition t : fa.getTransitions()) {
+			Assert.assertEquals(fa.getWeight(t), mapped.getWeight(t));
+			Assert.assertEquals(fa.getDiff(t), mapped.getDiff(t));
+		}
+		for (int i = 0; i < 30; i++) {
+			String q = "q" + i;
+			Assert.assertEquals(fa.getTransitions(q), mapped.getTransitions(q));
+			Assert.assertEquals(fa.getEpsilonTransitionsTo(q), mapped.getEpsilonTransitionsTo(q));
+		}
+		Assert.assertNull(mapped.getTransitions("r"));
+		Assert.assertNull(mapped.getWeight(new Transition("q0", "b", "q1")));
+	}
+
+	@Test public void testFile() throws IOException {
+
+		Fa fa = random(0);
+		File file = File.createTempFile("jwpds", ".fa");
+		file.deleteOnExit();
+		FaFile.write(fa, file, codec);
+
+		MappedFa mapped = FaFile.read(file, codec);
+		assertSame(fa, mapped);
+
+		// The file has the same block as a stream
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		FaFile.write(fa, out, codec);
+		out.close();
+		byte[] b = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		in.readFully(b);
+		in.close();
+		Assert.assertArrayEquals(bytes.toByteArray(), b);
+	}
+
+	@Test public void testChunks() throws IOException {
+
+		Fa fa = random(3);
+		File file = File.createTempFile("jwpds", ".fa");
+		file.deleteOnExit();
+		FaFile.write(fa, file, codec);
+
+		// Maps the file in many chunks
+		System.setProperty("jwpds.map.chunk", "4096");
+		try {
+			assertSame(fa, FaFile.read(file, codec));
+		} finally {
+			System.clearProperty("jwpds.map.chunk");
+		}
+	}
+
+	@Test public void testBlocks() throws IOException {
+
+		Fa fa1 = random(1);
+		Fa fa2 = random(2);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		FaFile.write(fa1, out, codec);
+		FaFile.write(fa2, out, codec);
+		out.writeInt(42);
+		out.close();
+
+		ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+		assertSame(fa1, FaFile.read(in, codec));
+		assertSame(fa2, FaFile.read(in, codec));
+		Assert.assertEquals(42, in.getInt());
+	}
+}
@@ -1,10 +1,23 @@
 package de.tum.in.wpds.test;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import de.tum.in.wpds.DefaultMonitor;
+import de.tum.in.wpds.DpnSat;
 import de.tum.in.wpds.Fa;
+import de.tum.in.wpds.FrozenFa;
+import de.tum.in.wpds.OffHeapFa;
+import de.tum.in.wpds.Pds;
+import de.tum.in.wpds.PdsSat;
 import de.tum.in.wpds.Semiring;
+import de.tum.in.wpds.SizedSemiring;
 import de.tum.in.wpds.Transition;
 
 
@@ -21,4 +34,91 @@ public class FaTest {
 		Assert.assertNotNull(r);
 		Assert.assertTrue(((MinSemiring) r).v.intValue() == 1);
 	}
+
+	static class SizedMin extends MinSemiring implements SizedSemiring {
+		SizedMin(Integer v) {
+			super(v);
+		}
+		public long estimateSize() {
+			return 1000;
+		}
+	}
+	
+	@Test public void testEstimateSize() {
+		
+		Fa fa = new Fa();
+		Assert.assertEquals(0, fa.estimateSize());
+		fa.add(new MinSemiring(1), "p", "a", "q");
+		long small = fa.estimateSize();
+		Assert.assertTrue(small > 0);
+		
+		Fa sized = new Fa();
+		sized.add(new SizedMin(1), "p", "a", "q");
+		Assert.assertTrue(sized.estimateSize() > small + 900);
+		
+		OffHeapFa offheap = new OffHeapFa();
+		offheap.add(new SizedMin(1), "p", "a", "q");
+		Assert.assertTrue(offheap.estimateSize() >= offheap.getOffHeapBytes() + 1000);
+	}
+
+	@Test public void testFreeze() {
+		
+		Fa fa = new Fa();
+		fa.add(new MinSemiring(1), "p", "a", "q");
+		fa.add(new MinSemiring(2), "p", "b", "q");
+		fa.add(new MinSemiring(3), "q", Fa.epsilon, "s");
+		fa.add(new MinSemiring(4), "q", "c", "s");
+		
+		FrozenFa frozen = fa.freeze();
+		Assert.assertSame(frozen, frozen.freeze());
+		Assert.assertEquals(fa.getTransitions(), frozen.getTransitions());
+		for (Transition t : fa.getTransitions())
+			Assert.assertEquals(fa.getWeight(t), frozen.getWeight(t));
+		Assert.assertEquals(fa.getTransitions("p"), frozen.getTransitions("p"));
+		Assert.assertNull(frozen.getTransitions("s"));
+		Assert.assertEquals(1, frozen.getEpsilonTransitionsTo("s").size());
+		Assert.assertNull(frozen.getWeight(new Transition("p", "c", "q")));
+		try {
+			frozen.add(new MinSemiring(5), "p", "c", "q");
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+		}
+		
+		// The copy is independent of the original
+		fa.add(new MinSemiring(0), "p", "a", "q");
+		Assert.assertEquals(new MinSemiring(1), frozen.getWeight(new Transition("p", "a", "q")));
+		
+		// Saturates the frozen automaton
+		Pds pds = new Pds();
+		pds.add(new MinSemiring(1), "p", "a", "p", "b", "c");
+		pds.add(new MinSemiring(1), "p", "b", "p");
+		Fa expected = new PdsSat(pds).poststar(frozen.id(), new DefaultMonitor());
+		Fa post = new PdsSat(pds).poststar(frozen, new DefaultMonitor());
+		Assert.assertEquals(expected.getTransitions(), post.getTransitions());
+	}
+
+	@Test public void testSplitThreadId() {
+		
+		// The workers restricting in parallel run as the active thread
+		final Set<Integer> ids = Collections.synchronizedSet(new HashSet<Integer>());
+		Fa fa = new Fa();
+		for (int i = 0; i < 8; i++) {
+			fa.add(new MinSemiring(i) {
+				public Set<Semiring> getGlobals() {
+					return Collections.<Semiring>singleton(new MinSemiring(0));
+				}
+				public Semiring restrict(Semiring a) {
+					ids.add(DpnSat.getCurrentThreadId());
+					return id();
+				}
+			}, Fa.q_i, "a" + i, "q");
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			Assert.assertEquals(1, fa.split(3, new DefaultMonitor(), pool).size());
+		} finally {
+			pool.shutdown();
+		}
+		Assert.assertEquals(Collections.singleton(3), ids);
+	}
 }
@@ -0,0 +1,268 @@
+package de.tum.in.wpds.test;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import de.tum.in.wpds.CancelMonitor;
+import de.tum.in.wpds.Semiring;
+import de.tum.in.wpds.SemiringCodec;
+import de.tum.in.wpds.ThreadSafeSemiring;
+
+/**
+ * A semiring of relations over the values 0..3 of one shared global
+ * variable, for testing {@link de.tum.in.wpds.DpnSat}.
+ *
+ * <p>A rule weight relates the global value before the rule to the value
+ * after it. A transition weight relates the value at the start of the
+ * current context to the current value. Both the equivalence classes of
+ * the lazy splitting and the global values of the eager splitting are the
+ * current values. Popping only checks that the caller is reachable,
+ * so procedure returns over-approximate.
+ *
+ * <p>The weights of threads that do not control the context are shared:
+ * they only constrain the value at the start of the context, on the
+ * diagonal. Updating the global values makes a weight shared, lifting
+ * makes it a relation again, and spawned threads start shared.
+ */
+public class GlobalSemiring implements ThreadSafeSemiring {
+
+	/**
+	 * The number of global values.
+	 */
+	public static final int N = 4;
+
+	private static final int ROW = (1 << N) - 1;
+
+	/**
+	 * The codec.
+	 */
+	public static final SemiringCodec CODEC = new SemiringCodec() {
+		public void write(Semiring d, DataOutput out) throws IOException {
+			GlobalSemiring g = (GlobalSemiring) d;
+			out.writeInt(g.r);
+			out.writeBoolean(g.shared);
+		}
+		public Semiring read(ByteBuffer in) {
+			int r = in.getInt();
+			return new GlobalSemiring(r, in.get() != 0);
+		}
+	};
+
+	/**
+	 * The relation: bit x * N + y is set if (x,y) is in the relation.
+	 */
+	private int r;
+
+	/**
+	 * Determines whether the weight only constrains the start value.
+	 */
+	private boolean shared;
+
+	private GlobalSemiring(int r) {
+		this(r, false);
+	}
+
+	private GlobalSemiring(int r, boolean shared) {
+		this.r = r;
+		this.shared = shared;
+	}
+
+	/**
+	 * Returns the relation that keeps the global value.
+	 */
+	public static GlobalSemiring skip() {
+		int r = 0;
+		for (int x = 0; x < N; x++)
+			r |= bit(x, x);
+		return new GlobalSemiring(r);
+	}
+
+	/**
+	 * Returns the relation that assigns <code>v</code>.
+	 */
+	public static GlobalSemiring set(int v) {
+		int r = 0;
+		for (int x = 0; x < N; x++)
+			r |= bit(x, v);
+		return new GlobalSemiring(r);
+	}
+
+	/**
+	 * Returns the relation that blocks unless the value is <code>v</code>.
+	 */
+	public static GlobalSemiring test(int v) {
+		return new GlobalSemiring(bit(v, v));
+	}
+
+	private static int bit(int x, int y) {
+		return 1 << (x * N + y);
+	}
+
+	private int row(int x) {
+		return (r >>> (x * N)) & ROW;
+	}
+
+	/**
+	 * Returns the set of start values as a bit mask.
+	 */
+	private int domain() {
+		int m = 0;
+		for (int x = 0; x < N; x++) {
+			if (row(x) != 0)
+				m |= 1 << x;
+		}
+		return m;
+	}
+
+	/**
+	 * Returns the set of current values as a bit mask.
+	 */
+	private int range() {
+		int m = 0;
+		for (int x = 0; x < N; x++)
+			m |= row(x);
+		return m;
+	}
+
+	private static int diag(int mask) {
+		int r = 0;
+		for (int x = 0; x < N; x++) {
+			if ((mask & (1 << x)) != 0)
+				r |= bit(x, x);
+		}
+		return r;
+	}
+
+	public boolean isZero() {
+		return r == 0;
+	}
+
+	public Semiring extend(Semiring a, CancelMonitor monitor) {
+		GlobalSemiring b = (GlobalSemiring) a;
+		int s = 0;
+		for (int x = 0; x < N; x++) {
+			int row = row(x);
+			for (int y = 0; y < N; y++) {
+				if ((row & (1 << y)) != 0)
+					s |= b.row(y) << (x * N);
+			}
+		}
+		return new GlobalSemiring(s, shared);
+	}
+
+	public Semiring extendPop(Semiring a, CancelMonitor monitor) {
+		return a.isZero() ? new GlobalSemiring(0, shared) : id();
+	}
+
+	public Semiring extendPush(Semiring a, CancelMonitor monitor) {
+		return extend(a, monitor);
+	}
+
+	public Semiring extendDynamic(Semiring a, CancelMonitor monitor) {
+		GlobalSemiring d = (GlobalSemiring) extend(a, monitor);
+		return new GlobalSemiring(diag(d.domain()), true);
+	}
+
+	public Semiring combine(Semiring a) {
+		GlobalSemiring b = (GlobalSemiring) a;
+		return new GlobalSemiring(r | b.r, shared && b.shared);
+	}
+
+	public Semiring diff(Semiring a) {
+		return new GlobalSemiring(r & ~((GlobalSemiring) a).r, shared);
+	}
+
+	public Semiring lift(Semiring a) {
+		if (a == null) return new GlobalSemiring(r);
+		return new GlobalSemiring((r == 0) ? 0 : diag(((GlobalSemiring) a).range()));
+	}
+
+	public Semiring restrict(Semiring a) {
+		int m = ((GlobalSemiring) a).range();
+		int s = 0;
+		for (int x = 0; x < N; x++)
+			s |= (row(x) & m) << (x * N);
+		return new GlobalSemiring(s, shared);
+	}
+
+	public Set<Semiring> getGlobals() {
+		Set<Semiring> set = new HashSet<Semiring>();
+		int m = range();
+		for (int y = 0; y < N; y++) {
+			if ((m & (1 << y)) != 0)
+				set.add(new GlobalSemiring(bit(y, y)));
+		}
+		return set;
+	}
+
+	public Semiring getEqRel(int approach) {
+		return id();
+	}
+
+	public Semiring getEqClass(int approach) {
+		int m = range();
+		return restrict(new GlobalSemiring(diag(m & -m)));
+	}
+
+	public Semiring getGlobal() {
+		return id();
+	}
+
+	public void updateGlobal(Semiring a) {
+		if (r == 0) return;
+		r = diag(((GlobalSemiring) a).range());
+		shared = true;
+	}
+
+	public void sliceWith(Semiring eqclass, int approach) {
+		r &= ~((GlobalSemiring) eqclass).r;
+	}
+
+	public Semiring andWith(Semiring a) {
+		GlobalSemiring b = (GlobalSemiring) a;
+		if (shared) r &= diag(b.domain());
+		else r &= b.r;
+		return this;
+	}
+
+	public Semiring orWith(Semiring a) {
+		r |= ((GlobalSemiring) a).r;
+		return this;
+	}
+
+	public Semiring id() {
+		return new GlobalSemiring(r, shared);
+	}
+
+	public void free() {
+	}
+
+	public String toRawString() {
+		return toString();
+	}
+
+	public boolean equals(Object o) {
+		if (!(o instanceof GlobalSemiring)) return false;
+		GlobalSemiring b = (GlobalSemiring) o;
+		return r == b.r && shared == b.shared;
+	}
+
+	public int hashCode() {
+		return r;
+	}
+
+	public String toString() {
+		StringBuilder out = new StringBuilder("{");
+		for (int x = 0; x < N; x++) {
+			for (int y = 0; y < N; y++) {
+				if ((r & bit(x, y)) == 0) continue;
+				if (out.length() > 1) out.append(", ");
+				out.append(x).append("->").append(y);
+			}
+		}
+		return out.append("}").toString();
+	}
+}
@@ -4,8 +4,9 @@ import java.util.Set;
 
 import de.tum.in.wpds.CancelMonitor;
 import de.tum.in.wpds.Semiring;
+import de.tum.in.wpds.ThreadSafeSemiring;
 
-public class MinSemiring implements Semiring {
+public class MinSemiring implements ThreadSafeSemiring {
 
 	public Integer v;
 	
@@ -21,6 +22,7 @@ public class MinSemiring implements Semiring {
 
 	public Semiring extend(Semiring a, CancelMonitor monitor) {
 		
+		if (isZero() || a.isZero()) return zero();
 		return new MinSemiring(v + ((MinSemiring) a).v);
 	}
 	
@@ -39,6 +41,11 @@ public class MinSemiring implements Semiring {
 		return v.intValue() == r.v.intValue();
 	}
 	
+	public int hashCode() {
+		
+		return v.intValue();
+	}
+	
 	public String toString() {
 		
 		return v.toString();
@@ -100,8 +107,8 @@ public class MinSemiring implements Semiring {
 	}
 
 	public boolean isZero() {
-		// TODO Auto-generated method stub
-		return false;
+		
+		return v.intValue() == Integer.MAX_VALUE;
 	}
 
 	public Semiring lift(Semiring a) {
@@ -135,7 +142,7 @@ public class MinSemiring implements Semiring {
 	}
 
 	public Semiring diff(Semiring a) {
-		// TODO Auto-generated method stub
-		return null;
+		
+		return (v < ((MinSemiring) a).v) ? id() : zero();
 	}
 }
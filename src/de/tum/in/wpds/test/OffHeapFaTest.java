@@ -0,0 +1,107 @@
+package de.tum.in.wpds.test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.tum.in.wpds.Fa;
+import de.tum.in.wpds.OffHeapFa;
+import de.tum.in.wpds.SymbolTable;
+import de.tum.in.wpds.Transition;
+
+
+public class OffHeapFaTest {
+
+	@Test public void testSameAsFa() {
+		
+		Fa fa = new Fa();
+		OffHeapFa off = new OffHeapFa();
+		
+		Random random = new Random(0);
+		for (int i = 0; i < 20000; i++) {
+			String p = "q" + random.nextInt(50);
+			String a = (random.nextInt(10) == 0) ? Fa.epsilon : "a" + random.nextInt(200);
+			String q = "q" + random.nextInt(50);
+			int v = random.nextInt(1000);
+			Assert.assertEquals(fa.add(new MinSemiring(v), p, a, q), 
+					off.add(new MinSemiring(v), p, a, q));
+		}
+		
+		Assert.assertEquals(fa.size(), off.size());
+		Assert.assertEquals(fa.getTransitions(), new HashSet<Transition>(off.getTransitions()));
+		for (Transition t : fa.getTransitions())
+			Assert.assertEquals(fa.getWeight(t), off.getWeight(t));
+		for (int i = 0; i < 50; i++) {
+			String q = "q" + i;
+			Assert.assertEquals(fa.getTransitions(q), off.getTransitions(q));
+			Assert.assertEquals(fa.getEpsilonTransitionsTo(q), off.getEpsilonTransitionsTo(q));
+		}
+		Assert.assertNull(off.getTransitions("r"));
+		Assert.assertNull(off.getWeight(new Transition("q0", "b", "q1")));
+	}
+
+	@Test public void testSmall() {
+		
+		// A small automaton stays small, even with a large symbol table
+		SymbolTable symbols = new SymbolTable();
+		for (int i = 0; i < 100000; i++)
+			symbols.intern("s" + i);
+		OffHeapFa off = new OffHeapFa(symbols);
+		off.add(new MinSemiring(1), "s99999", "a", "s99998");
+		off.add(new MinSemiring(2), "s99998", Fa.epsilon, "s99997");
+		Assert.assertTrue(off.getOffHeapBytes() < 1024);
+		Assert.assertEquals(1, off.getTransitions("s99999").size());
+		Assert.assertEquals(1, off.getEpsilonTransitionsTo("s99997").size());
+		
+		// Freeing releases the buffers and empties the automaton
+		off.free();
+		Assert.assertEquals(0, off.getOffHeapBytes());
+		Assert.assertEquals(0, off.size());
+		Assert.assertNull(off.getTransitions("s99999"));
+		off.add(new MinSemiring(3), "s1", "a", "s2");
+		Assert.assertEquals(new MinSemiring(3), off.getWeight(new Transition("s1", "a", "s2")));
+	}
+	
+	@Test public void testSharedSymbols() throws InterruptedException {
+		
+		// Automata of several threads intern into the same table
+		final SymbolTable symbols = new SymbolTable();
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int seed = t;
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						Fa fa = new Fa();
+						OffHeapFa off = new OffHeapFa(symbols);
+						Random random = new Random(seed);
+						for (int i = 0; i < 5000; i++) {
+							String p = "q" + random.nextInt(500);
+							String a = "a" + random.nextInt(2000);
+							String q = "q" + random.nextInt(500);
+							int v = random.nextInt(1000);
+							fa.add(new MinSemiring(v), p, a, q);
+							off.add(new MinSemiring(v), p, a, q);
+						}
+						Assert.assertEquals(fa.getTransitions(), 
+								new HashSet<Transition>(off.getTransitions()));
+						off.free();
+					} catch (Throwable e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		if (error.get() != null) throw new AssertionError(error.get());
+		
+		for (int i = 0; i < symbols.size(); i++)
+			Assert.assertEquals(i, symbols.getId(symbols.getSymbol(i)));
+	}
+}
@@ -0,0 +1,72 @@
+package de.tum.in.wpds.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.tum.in.wpds.Config;
+import de.tum.in.wpds.DefaultMonitor;
+import de.tum.in.wpds.Dpn;
+import de.tum.in.wpds.Fa;
+import de.tum.in.wpds.Pds;
+import de.tum.in.wpds.PdsFile;
+import de.tum.in.wpds.PdsSat;
+import de.tum.in.wpds.Rule;
+import de.tum.in.wpds.Transition;
+
+
+public class PdsFileTest {
+
+	private static Set<String> strings(Set<Rule> rules) {
+		Set<String> set = new HashSet<String>();
+		for (Rule rule : rules)
+			set.add(rule.toString());
+		return set;
+	}
+
+	@Test public void testSnapshot() throws IOException {
+
+		Dpn dpn = new Dpn();
+		dpn.add(new MinSemiring(5), "p", "a", "q", "b");
+		dpn.add(new MinSemiring(4), "p", "a", "p", "c");
+		dpn.add(new MinSemiring(3), "q", "b", "p", "d");
+		dpn.add(new MinSemiring(2), "p", "c", "p", "a", "d");
+		dpn.add(new MinSemiring(1), "p", "d", "p");
+		dpn.add(new MinSemiring(0), new Config("p", "d"), new Config("p", "e"),
+				new Config("r", "f"));
+		Rule global = new Rule(new MinSemiring(7), "r", "f", "r", "g");
+		global.setGlobal(true);
+		dpn.add(global);
+
+		File file = File.createTempFile("jwpds", ".pds");
+		file.deleteOnExit();
+		PdsFile.write(dpn, file, FaFileTest.codec);
+
+		Pds read = PdsFile.read(file, FaFileTest.codec);
+		Assert.assertTrue(read instanceof Dpn);
+		Assert.assertEquals(dpn.size(), read.size());
+		Assert.assertTrue(read.hasDynamicRules());
+		Assert.assertEquals(dpn.getStackSymbols(), read.getStackSymbols());
+		for (Config c : dpn.getLeftMapper().keySet())
+			Assert.assertEquals(strings(dpn.getRules(c)), strings(read.getRules(c)));
+		Assert.assertNull(read.getRules(new Config("q", "z")));
+
+		// Saturates with the snapshot
+		Fa fa = new Fa();
+		fa.add(new MinSemiring(0), "p", "a", "s");
+		Fa expected = new PdsSat(dpn).poststar(fa, new DefaultMonitor());
+		Fa post = new PdsSat(read).poststar(fa, new DefaultMonitor());
+		Assert.assertEquals(expected.getTransitions(), post.getTransitions());
+		for (Transition t : expected.getTransitions())
+			Assert.assertEquals(expected.getWeight(t), post.getWeight(t));
+
+		// Decodes everything
+		Assert.assertEquals(strings(dpn.getRules()), strings(read.getRules()));
+		Assert.assertSame(read.getRules(new Config("p", "a")),
+				read.getLeftMapper().get(new Config("p", "a")));
+	}
+}
@@ -0,0 +1,87 @@
+package de.tum.in.wpds.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.tum.in.wpds.Config;
+import de.tum.in.wpds.Dpn;
+import de.tum.in.wpds.Pds;
+import de.tum.in.wpds.PdsReader;
+import de.tum.in.wpds.Rule;
+import de.tum.in.wpds.Semiring;
+
+
+public class PdsReaderTest {
+
+	static final PdsReader.WeightParser parser = new PdsReader.WeightParser() {
+		public Semiring parse(String token) {
+			return new MinSemiring((token == null) ? 0 : Integer.parseInt(token));
+		}
+	};
+
+	private static void read(String text, Pds pds) throws IOException {
+		new PdsReader(parser).read(Channels.newChannel(
+				new ByteArrayInputStream(text.getBytes("UTF-8"))), pds);
+	}
+
+	private static Set<String> strings(Pds pds) {
+		Set<String> set = new HashSet<String>();
+		for (Rule rule : pds.rules)
+			set.add(rule.toString());
+		return set;
+	}
+
+	@Test public void testRoundTrip() throws IOException {
+
+		// Enough rules for lines to span input blocks
+		Dpn dpn = new Dpn();
+		for (int i = 0; i < 5000; i++) {
+			dpn.add(new MinSemiring(i), "p", "a" + i, "q", "b" + i, "c");
+			dpn.add(new MinSemiring(i), "q", "b" + i, "p");
+			dpn.add(new MinSemiring(i), new Config("p", "c"), new Config("p", "a" + i),
+					new Config("r", "d" + (i % 7)));
+		}
+		Rule global = new Rule(new MinSemiring(3), "r", "d0", "r", "d1");
+		global.setGlobal(true);
+		dpn.add(global);
+
+		Dpn read = new Dpn();
+		read("# comment\n\n" + dpn, read);
+		Assert.assertEquals(dpn.size(), read.size());
+		Assert.assertEquals(strings(dpn), strings(read));
+
+		Set<Rule> set = read.getLeftMapper().get(new Config("p", "c"));
+		Assert.assertEquals(5000, set.size());
+	}
+
+	@Test public void testNoWeight() throws IOException {
+
+		Pds pds = new Pds();
+		read("<p, a> -> <q, b c>\r\n<q, b> -> <p>", pds);
+		Assert.assertEquals(2, pds.size());
+		Assert.assertEquals(1, pds.getLeftMapper().get(new Config("q", "b")).size());
+	}
+
+	@Test public void testErrors() {
+
+		try {
+			read("<p, a> -> <q, b> (1)\n<p, a> -> <q, b> |> <r, c> (1)\n", new Pds());
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().startsWith("Line 2:"));
+		}
+
+		try {
+			read("<p, a> -> <q, b> (x)\n", new Pds());
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().startsWith("Line 1:"));
+		}
+	}
+}
@@ -1,13 +1,14 @@
 package de.tum.in.wpds.test;
 
 
-import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 import de.tum.in.wpds.Config;
+import de.tum.in.wpds.Dpn;
 import de.tum.in.wpds.Pds;
 import de.tum.in.wpds.Rule;
 
@@ -22,10 +23,67 @@ public class PdsTest {
 		pds.add(new MinSemiring(3), "q", "b", "r");
 		System.out.println(pds);
 		
-		HashMap<Config, Set<Rule>> map = pds.getLeftMapper();
+		Map<Config, Set<Rule>> map = pds.getLeftMapper();
 		Set<Rule> set = map.get(new Config("p", "a"));
 		Assert.assertNotNull(set);
 		Assert.assertTrue(set.size() == 2);
 		System.out.println(set);
 	}
+
+	@Test public void testFreeze() {
+		
+		Dpn dpn = new Dpn();
+		dpn.add(new MinSemiring(1), "p", "a", "q", "b", "c");
+		dpn.add(new MinSemiring(2), "p", "a", "r", "d");
+		dpn.add(new MinSemiring(0), new Config("p", "d"), new Config("p", "e"),
+				new Config("r", "f"));
+		
+		Dpn frozen = dpn.freeze();
+		Assert.assertTrue(frozen.isFrozen());
+		Assert.assertFalse(dpn.isFrozen());
+		Assert.assertSame(frozen, frozen.freeze());
+		Assert.assertEquals(dpn.size(), frozen.size());
+		Assert.assertTrue(frozen.hasDynamicRules());
+		Assert.assertEquals(dpn.getStackSymbols(), frozen.getStackSymbols());
+		Assert.assertEquals(dpn.getRules(new Config("p", "a")), 
+				frozen.getRules(new Config("p", "a")));
+		Assert.assertNull(frozen.getRules(new Config("q", "z")));
+		try {
+			frozen.add(new MinSemiring(3), "q", "b", "r");
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			frozen.getRules(new Config("p", "a")).clear();
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			frozen.getRules().add(new Rule(new MinSemiring(3), 
+					new Config("q", "b"), new Config("r")));
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			frozen.getStackSymbols().add("z");
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+		}
+		Assert.assertEquals(dpn.getRules(), frozen.rules);
+		try {
+			frozen.rules.clear();
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			frozen.getLeftMapper().remove(new Config("p", "a"));
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+		}
+		Assert.assertSame(frozen.getStackSymbols(), frozen.getStackSymbols());
+		
+		// The original can still be modified
+		dpn.add(new MinSemiring(3), "q", "b", "r");
+		Assert.assertEquals(dpn.size() - 1, frozen.size());
+	}
 }
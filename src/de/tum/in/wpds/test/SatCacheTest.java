@@ -0,0 +1,112 @@
+package de.tum.in.wpds.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.tum.in.wpds.DefaultMonitor;
+import de.tum.in.wpds.DpnReach;
+import de.tum.in.wpds.DpnSat;
+import de.tum.in.wpds.Fa;
+import de.tum.in.wpds.MappedFa;
+import de.tum.in.wpds.Pds;
+import de.tum.in.wpds.PdsSat;
+import de.tum.in.wpds.ReachListener;
+import de.tum.in.wpds.SatCache;
+import de.tum.in.wpds.Semiring;
+import de.tum.in.wpds.Transition;
+
+
+public class SatCacheTest {
+
+	private static Pds pds(boolean reversed, int w) {
+
+		Pds pds = new Pds();
+		if (reversed) pds.add(new MinSemiring(1), "p", "d", "p");
+		pds.add(new MinSemiring(w), "p", "a", "q", "b");
+		pds.add(new MinSemiring(4), "p", "a", "p", "c");
+		pds.add(new MinSemiring(3), "q", "b", "p", "d");
+		pds.add(new MinSemiring(2), "p", "c", "p", "a", "d");
+		if (!reversed) pds.add(new MinSemiring(1), "p", "d", "p");
+		return pds;
+	}
+
+	private static File tempDir() throws IOException {
+		File dir = File.createTempFile("jwpds", "cache");
+		dir.delete();
+		dir.mkdirs();
+		dir.deleteOnExit();
+		return dir;
+	}
+
+	@Test public void testHit() throws IOException {
+
+		Fa fa = new Fa();
+		fa.add(new MinSemiring(0), "p", "a", "s");
+
+		File dir = tempDir();
+		SatCache cache = new SatCache(dir, 1 << 20, FaFileTest.codec);
+		Fa post = cache.poststar(new PdsSat(pds(false, 5)), fa, new DefaultMonitor());
+		Assert.assertFalse(post instanceof MappedFa);
+
+		// Same rules in another order
+		Fa hit = cache.poststar(new PdsSat(pds(true, 5)), fa, new DefaultMonitor());
+		Assert.assertTrue(hit instanceof MappedFa);
+		Assert.assertEquals(post.getTransitions(), new HashSet<Transition>(hit.getTransitions()));
+		for (Transition t : post.getTransitions())
+			Assert.assertEquals(post.getWeight(t), hit.getWeight(t));
+
+		// Another weight
+		Assert.assertFalse(cache.key(new PdsSat(pds(false, 5)), fa)
+				.equals(cache.key(new PdsSat(pds(false, 6)), fa)));
+
+		for (File f : dir.listFiles()) f.delete();
+	}
+
+	@Test public void testEviction() throws IOException {
+
+		Fa fa = new Fa();
+		fa.add(new MinSemiring(0), "p", "a", "s");
+
+		File dir = tempDir();
+		SatCache cache = new SatCache(dir, 1, FaFileTest.codec);
+		cache.poststar(new PdsSat(pds(false, 5)), fa, new DefaultMonitor());
+		Assert.assertEquals(0, dir.listFiles().length);
+	}
+
+	@Test public void testReach() throws IOException {
+
+		File dir = tempDir();
+		SatCache cache = new SatCache(dir, 1 << 20, GlobalSemiring.CODEC);
+		DpnReach reach = cache.poststar(DpnSatTest.sat(4, true), 
+				DpnSatTest.init(), new DefaultMonitor());
+
+		// Maps the cached aggregates in many chunks
+		System.setProperty("jwpds.map.chunk", "4096");
+		try {
+			DpnSat sat = DpnSatTest.sat(4, true);
+			final int[] count = new int[1];
+			sat.addReachListener(new ReachListener() {
+				public void reach(Semiring g, Fa... A) {
+					count[0]++;
+				}
+			});
+			DpnReach hit = cache.poststar(sat, DpnSatTest.init(), new DefaultMonitor());
+			Assert.assertEquals(0, count[0]);
+			DpnSatTest.assertSameReach("hit", reach, hit);
+		} finally {
+			System.clearProperty("jwpds.map.chunk");
+		}
+
+		// Incremental saturation is another parameter
+		DpnSat incremental = DpnSatTest.sat(4, true);
+		incremental.setIncremental(true);
+		Assert.assertFalse(cache.key(DpnSatTest.sat(4, true), DpnSatTest.init())
+				.equals(cache.key(incremental, DpnSatTest.init())));
+
+		for (File f : dir.listFiles()) f.delete();
+	}
+}
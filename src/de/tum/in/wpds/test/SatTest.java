@@ -1,14 +1,23 @@
 package de.tum.in.wpds.test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 import java.util.List;
 import java.util.Map;
 
+import org.junit.Assert;
 import org.junit.Test;
 
+import de.tum.in.wpds.Budget;
+import de.tum.in.wpds.ConcurrentFa;
+import de.tum.in.wpds.DefaultMonitor;
 import de.tum.in.wpds.Fa;
 import de.tum.in.wpds.Pds;
 import de.tum.in.wpds.Rule;
 import de.tum.in.wpds.PdsSat;
+import de.tum.in.wpds.SatProfiler;
+import de.tum.in.wpds.SatStatistics;
+import de.tum.in.wpds.Trace;
 import de.tum.in.wpds.TraceNode;
 import de.tum.in.wpds.Transition;
 import de.tum.in.wpds.WitnessGraph;
@@ -53,4 +62,198 @@ public class SatTest {
 //		System.out.println("\ntrace:");
 //		WitnessGraph.print(trace);
 	}
+
+	@Test public void testStatistics() {
+		
+		Pds pds = new Pds();
+		pds.add(new MinSemiring(5), "p", "a", "q", "b");
+		pds.add(new MinSemiring(4), "p", "a", "p", "c");
+		pds.add(new MinSemiring(3), "q", "b", "p", "d");
+		pds.add(new MinSemiring(2), "p", "c", "p", "a", "d");
+		pds.add(new MinSemiring(1), "p", "d", "p");
+		
+		Fa fa = new Fa();
+		fa.add(new MinSemiring(0), "p", "a", "s");
+		
+		PdsSat sat = new PdsSat(pds);
+		sat.poststar(fa, new DefaultMonitor());
+		Assert.assertNull(sat.getStatistics());
+		
+		sat.setStatistics(true);
+		Fa post = sat.poststar(fa, new DefaultMonitor());
+		SatStatistics stats = sat.getStatistics();
+		System.out.println(stats);
+		Assert.assertTrue(stats.getTransitionsProcessed() >= post.size());
+		Assert.assertTrue(stats.getRuleFirings(SatStatistics.RuleKind.POP) > 0);
+		Assert.assertTrue(stats.getRuleFirings(SatStatistics.RuleKind.NORMAL) > 0);
+		Assert.assertTrue(stats.getRuleFirings(SatStatistics.RuleKind.PUSH) > 0);
+		Assert.assertTrue(stats.getExtendCalls() >= stats.getRuleFirings(SatStatistics.RuleKind.PUSH));
+		Assert.assertTrue(stats.getMaxTransitionWorkset() > 0);
+		Assert.assertTrue(stats.getNanos(SatStatistics.Phase.SATURATE) > 0);
+	}
+
+	@Test public void testProfiler() {
+		
+		Pds pds = new Pds();
+		pds.add(new MinSemiring(5), "p", "a", "q", "b");
+		pds.add(new MinSemiring(4), "p", "a", "p", "c");
+		pds.add(new MinSemiring(3), "q", "b", "p", "d");
+		Rule push = new Rule(new MinSemiring(2), "p", "c", "p", "a", "d");
+		pds.add(push);
+		pds.add(new MinSemiring(1), "p", "d", "p");
+		
+		Fa fa = new Fa();
+		fa.add(new MinSemiring(0), "p", "a", "s");
+		
+		PdsSat sat = new PdsSat(pds);
+		SatProfiler profiler = new SatProfiler(3);
+		sat.setProfiler(profiler);
+		sat.poststar(fa, new DefaultMonitor());
+		System.out.println(profiler.report(3));
+		
+		List<SatProfiler.Entry> rules = profiler.getHotRules(10);
+		Assert.assertEquals(pds.size(), rules.size());
+		long transitions = 0;
+		for (SatProfiler.Entry e : rules) {
+			transitions += e.getTransitions();
+			if (e.getKey() == push)
+				Assert.assertTrue(e.getExtendCalls() >= 2);
+		}
+		Assert.assertTrue(transitions > 0);
+		Assert.assertEquals(3, profiler.getHotHeads(3).size());
+	}
+
+	@Test public void testBudget() {
+		
+		Pds pds = new Pds();
+		for (int i = 0; i < 2000; i++)
+			pds.add(new MinSemiring(1), "p", "a" + i, "p", "a" + (i + 1));
+		
+		Fa fa = new Fa();
+		fa.add(new MinSemiring(0), "p", "a0", "s");
+		Fa expected = new PdsSat(pds).poststar(fa, new DefaultMonitor());
+		
+		PdsSat sat = new PdsSat(pds);
+		Budget budget = new Budget();
+		budget.setTransitionLimit(300);
+		sat.setBudget(budget);
+		Fa post = sat.poststar(fa, new DefaultMonitor());
+		Assert.assertFalse(sat.isComplete());
+		Assert.assertEquals(Budget.Resource.TRANSITIONS, budget.getExhausted());
+		Assert.assertFalse(sat.getUnexplored().isEmpty());
+		Assert.assertTrue(post.size() < expected.size());
+		
+		// Continues with a fresh allowance until complete
+		int runs = 1;
+		while (!sat.isComplete()) {
+			Assert.assertSame(post, sat.proceed(new DefaultMonitor()));
+			runs++;
+		}
+		Assert.assertTrue(runs > 2);
+		Assert.assertTrue(sat.getUnexplored().isEmpty());
+		Assert.assertEquals(expected.getTransitions(), post.getTransitions());
+		for (Transition t : expected.getTransitions())
+			Assert.assertEquals(expected.getWeight(t), post.getWeight(t));
+	}
+	
+	@Test public void testParallel() {
+		
+		Pds pds = new Pds();
+		for (int i = 0; i < 50; i++) {
+			pds.add(new MinSemiring(1), "p", "a" + i, "p", "a" + (i + 1), "c");
+			pds.add(new MinSemiring(3), "p", "a" + i, "q", "a" + (i + 1));
+			pds.add(new MinSemiring(1), "q", "a" + i, "p", "a" + i);
+		}
+		pds.add(new MinSemiring(2), "p", "a50", "p");
+		pds.add(new MinSemiring(1), "p", "c", "q");
+		pds.add(new MinSemiring(5), "q", "c", "p", "a0");
+		
+		Fa fa = new Fa();
+		fa.add(new MinSemiring(0), "p", "a0", "s");
+		Fa expected = new PdsSat(pds).poststar(fa, new DefaultMonitor());
+		
+		for (int run = 0; run < 5; run++) {
+			PdsSat sat = new PdsSat(pds);
+			sat.setThreads(4);
+			Fa post = sat.poststar(fa, new DefaultMonitor());
+			Assert.assertTrue(post instanceof ConcurrentFa);
+			Assert.assertTrue(sat.isComplete());
+			Assert.assertEquals(expected.getTransitions(), post.getTransitions());
+			for (Transition t : expected.getTransitions())
+				Assert.assertEquals(expected.getWeight(t), post.getWeight(t));
+		}
+	}
+
+	@Test public void testParallelIdle() {
+		
+		// A chain queues one transition at a time, so most workers are idle
+		Pds pds = new Pds();
+		for (int i = 0; i < 2000; i++)
+			pds.add(new MinSemiring(1), "p", "a" + i, "p", "a" + (i + 1));
+		Fa fa = new Fa();
+		fa.add(new MinSemiring(0), "p", "a0", "s");
+		Fa expected = new PdsSat(pds).poststar(fa, new DefaultMonitor());
+		
+		PdsSat sat = new PdsSat(pds);
+		sat.setThreads(8);
+		Fa post = sat.poststar(fa, new DefaultMonitor());
+		Assert.assertTrue(sat.isComplete());
+		Assert.assertEquals(expected.getTransitions(), post.getTransitions());
+		
+		// Halting on the budget wakes the idle workers
+		sat = new PdsSat(pds);
+		sat.setThreads(8);
+		Budget budget = new Budget();
+		budget.setTransitionLimit(300);
+		sat.setBudget(budget);
+		post = sat.poststar(fa, new DefaultMonitor());
+		Assert.assertFalse(sat.isComplete());
+		while (!sat.isComplete())
+			sat.proceed(new DefaultMonitor());
+		Assert.assertEquals(expected.getTransitions(), post.getTransitions());
+	}
+	
+	@Test public void testTrace() {
+		
+		Trace.clear();
+		Transition t = new Transition("p", "a", "s");
+		for (int i = 0; i < 5000; i++)
+			Trace.record(Trace.Event.TRANSITION, t, i);
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Trace.dump(new PrintStream(bytes));
+		String dump = bytes.toString();
+		Assert.assertTrue(dump.contains("5000 events"));
+		Assert.assertTrue(dump.contains("TRANSITION " + t + " 4999"));
+		Assert.assertFalse(dump.contains("TRANSITION " + t + " 0\n"));
+		Trace.clear();
+	}
+
+	@Test public void testTraceThreads() throws InterruptedException {
+		
+		Trace.clear();
+		final Transition t = new Transition("p", "a", "s");
+		for (int i = 0; i < 100; i++) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					Trace.record(Trace.Event.TRANSITION, t, null);
+				}
+			}, "tracer-" + i);
+			thread.start();
+			thread.join();
+		}
+		
+		// Only the buffers of the most recently terminated threads are kept
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Trace.dump(new PrintStream(bytes));
+		String dump = bytes.toString();
+		Assert.assertTrue(dump.contains("Thread tracer-99:"));
+		Assert.assertFalse(dump.contains("Thread tracer-0:"));
+		Assert.assertTrue(dump.split("Thread tracer-").length - 1 <= 17);
+		
+		Trace.clear();
+		bytes = new ByteArrayOutputStream();
+		Trace.dump(new PrintStream(bytes));
+		Assert.assertFalse(bytes.toString().contains("Thread tracer-"));
+	}
 }
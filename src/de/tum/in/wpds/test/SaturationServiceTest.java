@@ -0,0 +1,223 @@
+package de.tum.in.wpds.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.tum.in.wpds.CancelMonitor;
+import de.tum.in.wpds.DefaultMonitor;
+import de.tum.in.wpds.Fa;
+import de.tum.in.wpds.Pds;
+import de.tum.in.wpds.PdsSat;
+import de.tum.in.wpds.SaturationService;
+import de.tum.in.wpds.Semiring;
+import de.tum.in.wpds.Transition;
+
+
+public class SaturationServiceTest {
+
+	private static Pds chain(int n) {
+		Pds pds = new Pds();
+		for (int i = 0; i < n; i++)
+			pds.add(new MinSemiring(1), "p", "a" + i, "p", "a" + (i + 1));
+		pds.add(new MinSemiring(2), "p", "a0", "p", "b", "a0");
+		return pds;
+	}
+
+	@Test public void testConcurrentQueries() throws Exception {
+		
+		Pds pds = chain(500);
+		SaturationService service = new SaturationService(4);
+		service.register("chain", pds);
+		try {
+			List<Fa> inits = new ArrayList<Fa>();
+			List<CompletableFuture<Fa>> futures = new ArrayList<CompletableFuture<Fa>>();
+			for (int i = 0; i < 16; i++) {
+				Fa fa = new Fa();
+				fa.add(new MinSemiring(i), "p", "a" + (i * 10), "s");
+				inits.add(fa);
+				futures.add(service.poststar("chain", fa));
+			}
+			
+			for (int i = 0; i < inits.size(); i++) {
+				Fa expected = new PdsSat(pds).poststar(inits.get(i), new DefaultMonitor());
+				Fa post = futures.get(i).get(30, TimeUnit.SECONDS);
+				Assert.assertEquals(expected.getTransitions(), post.getTransitions());
+				for (Transition t : expected.getTransitions())
+					Assert.assertEquals(expected.getWeight(t), post.getWeight(t));
+			}
+		} finally {
+			service.shutdown();
+		}
+	}
+
+	@Test public void testCancel() throws Exception {
+		
+		SaturationService service = new SaturationService(1);
+		service.register("chain", chain(200000));
+		try {
+			Fa fa = new Fa();
+			fa.add(new MinSemiring(0), "p", "a0", "s");
+			CompletableFuture<Fa> slow = service.poststar("chain", fa);
+			Assert.assertTrue(slow.cancel(true));
+			Assert.assertTrue(slow.isCancelled());
+			
+			// The permit is released once the canceled run stops
+			fa = new Fa();
+			fa.add(new MinSemiring(0), "p", "a199999", "s");
+			Fa post = service.poststar("chain", fa).get(30, TimeUnit.SECONDS);
+			Assert.assertEquals(2, post.size());
+		} finally {
+			service.shutdown();
+		}
+	}
+
+	/**
+	 * A reachability semiring that is not thread-safe, and whose
+	 * extend waits for a gate to open.
+	 */
+	private static class Gated implements Semiring {
+		
+		private final CountDownLatch gate;
+		private final boolean zero;
+		
+		Gated(CountDownLatch gate, boolean zero) {
+			this.gate = gate;
+			this.zero = zero;
+		}
+		
+		private Gated with(boolean zero) {
+			return new Gated(gate, zero);
+		}
+		
+		public boolean isZero() {
+			return zero;
+		}
+		
+		public Semiring extend(Semiring a, CancelMonitor monitor) {
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return with(zero || a.isZero());
+		}
+		
+		public Semiring extendPop(Semiring a, CancelMonitor monitor) {
+			return extend(a, monitor);
+		}
+		
+		public Semiring extendPush(Semiring a, CancelMonitor monitor) {
+			return extend(a, monitor);
+		}
+		
+		public Semiring extendDynamic(Semiring a, CancelMonitor monitor) {
+			return extend(a, monitor);
+		}
+		
+		public Semiring combine(Semiring a) {
+			return with(zero && a.isZero());
+		}
+		
+		public Semiring diff(Semiring a) {
+			return with(zero || !a.isZero());
+		}
+		
+		public Semiring lift(Semiring a) {
+			return this;
+		}
+		
+		public Semiring restrict(Semiring a) {
+			return this;
+		}
+		
+		public Set<Semiring> getGlobals() {
+			return null;
+		}
+		
+		public Semiring getEqRel(int approach) {
+			return this;
+		}
+		
+		public Semiring getEqClass(int approach) {
+			return this;
+		}
+		
+		public Semiring getGlobal() {
+			return this;
+		}
+		
+		public void updateGlobal(Semiring a) {
+		}
+		
+		public void sliceWith(Semiring eqclass, int approach) {
+		}
+		
+		public Semiring andWith(Semiring a) {
+			return this;
+		}
+		
+		public Semiring orWith(Semiring a) {
+			return this;
+		}
+		
+		public Semiring id() {
+			return this;
+		}
+		
+		public void free() {
+		}
+		
+		public String toRawString() {
+			return toString();
+		}
+		
+		public String toString() {
+			return zero ? "0" : "1";
+		}
+	}
+	
+	@Test public void testExclusiveQueries() throws Exception {
+		
+		// A pool of two threads, as on runtimes without virtual threads
+		SaturationService service = new SaturationService(Executors.newFixedThreadPool(2), 2);
+		CountDownLatch gate = new CountDownLatch(1);
+		Pds gated = new Pds();
+		gated.add(new Gated(gate, false), "p", "a", "p", "b");
+		service.register("gated", gated);
+		service.register("chain", chain(100));
+		try {
+			
+			// The exclusive queries of the gated model wait for the gate
+			List<CompletableFuture<Fa>> blocked = new ArrayList<CompletableFuture<Fa>>();
+			for (int i = 0; i < 4; i++) {
+				Fa fa = new Fa();
+				fa.add(new Gated(gate, false), "p", "a", "s");
+				blocked.add(service.poststar("gated", fa));
+			}
+			
+			// The other model is not starved meanwhile
+			Fa fa = new Fa();
+			fa.add(new MinSemiring(0), "p", "a0", "s");
+			Fa post = service.poststar("chain", fa).get(30, TimeUnit.SECONDS);
+			Assert.assertEquals(new PdsSat(chain(100)).poststar(fa, new DefaultMonitor()).size(), 
+					post.size());
+			for (CompletableFuture<Fa> future : blocked)
+				Assert.assertFalse(future.isDone());
+			
+			gate.countDown();
+			for (CompletableFuture<Fa> future : blocked)
+				Assert.assertEquals(2, future.get(30, TimeUnit.SECONDS).size());
+		} finally {
+			gate.countDown();
+			service.shutdown();
+		}
+	}
+}